@@ -0,0 +1,150 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Table of the distance travelled on each lane of a curve, at uniform steps of the curve's parameter t, used to
+ * convert between the distance a robot covered and the t at which it is, in both directions.
+ *
+ * The curve is walked from t = 0 to t = 1 in resolution steps, and the length of each step on each lane is added to
+ * the table; within a step, distance and t are interpolated linearly. How the length of a step is measured is up to
+ * the curve, so the same table serves the spline segments, which measure the straight distance between the points
+ * they draw, and the test track, which integrates the speed along each lane's offset curve.
+ */
+class ArcLengthTable {
+    private final int resolution;
+    private final double dt;
+    /**
+     * Distance travelled on each lane, first index is the lane number, second index is the step: the distance at
+     * t = index number * dt.
+     */
+    private final double[][] distances;
+
+    /**
+     * @param lanes number of lanes
+     * @param resolution number of steps in which the curve is walked
+     */
+    ArcLengthTable(int lanes, int resolution) {
+        this.resolution = resolution;
+        this.dt = 1 / (double) resolution;
+        distances = new double[lanes][resolution + 1];
+    }
+
+    /**
+     * Read a table written by put.
+     * @param buffer Buffer positioned at the table, which is advanced past it.
+     * @param lanes Number of lanes.
+     * @param resolution Number of steps.
+     */
+    static ArcLengthTable get(ByteBuffer buffer, int lanes, int resolution) {
+        ArcLengthTable table = new ArcLengthTable(lanes, resolution);
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        for (int i = 0; i < lanes; i++) {
+            doubles.get(table.distances[i]);
+        }
+        buffer.position(buffer.position() + size(lanes, resolution));
+        return table;
+    }
+
+    /**
+     * Write the table, lane after lane, as lanes * (resolution + 1) doubles.
+     */
+    void put(ByteBuffer buffer) {
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        for (double[] laneDistances : distances) {
+            doubles.put(laneDistances);
+        }
+        buffer.position(buffer.position() + size(distances.length, resolution));
+    }
+
+    /**
+     * @return The size in bytes of a table written by put.
+     */
+    static int size(int lanes, int resolution) {
+        return lanes * (resolution + 1) * 8;
+    }
+
+    /**
+     * Record the length of a step on every lane. The steps must be added in order, starting at 0.
+     * @param step Number of the step, from t = step * dt to t = (step + 1) * dt.
+     * @param stepDistances Length of the step on each lane.
+     */
+    void add(int step, double[] stepDistances) {
+        for (int i = 0; i < distances.length; i++) {
+            distances[i][step + 1] = distances[i][step] + stepDistances[i];
+        }
+    }
+
+    /**
+     * @param laneNr Lane number.
+     * @return The distance travelled on the lane from t = 0 to t = 1.
+     */
+    double length(int laneNr) {
+        return distances[laneNr][resolution];
+    }
+
+    /**
+     * @return The length of every lane, in a new array.
+     */
+    double[] lengths() {
+        double[] lengths = new double[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            lengths[i] = length(i);
+        }
+        return lengths;
+    }
+
+    /**
+     * Method that returns a variable t when given a certain distance and lane number.
+     * @param s Distance travelled on the relevant lane, from 0 to its length.
+     * @param laneNr Lane the robot is in.
+     * @return The value t corresponding.
+     */
+    double t(double s, int laneNr) {
+        double[] laneDistances = distances[laneNr];
+        /**
+         * Find the first element in the table that is bigger than the given distance. Several robots may be on the
+         * same lane at different distances, so rather than continuing from the previous request, use a binary search.
+         * The first element is 0, so the answer lies within [1, resolution].
+         */
+        int low = 1;
+        int high = resolution;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (s < laneDistances[middle]) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        /**
+         * We now know that low points to the first stored distance that is greater than the requested one (or to the
+         * last one, if s lies at the very end). Therefore we know that the required t is on the step corresponding to
+         * (low-1)*dt and low*dt. First calculate the size of this step:
+         */
+        double sizeSegment = laneDistances[low] - laneDistances[low - 1];
+        //Then calculate how much bigger s is than low-1:
+        double overflow = s - laneDistances[low - 1];
+        //Now we use the overflow and sizeSegment to interpolate the requested t.
+        return (low - 1 + overflow / sizeSegment) * dt;
+    }
+
+    /**
+     * Method that returns the distance travelled on a lane up to a variable t, the inverse of t(s, laneNr).
+     * @param t Variable from 0 to 1.
+     * @param laneNr Lane to return the distance on.
+     * @return The distance travelled on the lane from t = 0.
+     */
+    double distance(double t, int laneNr) {
+        double[] laneDistances = distances[laneNr];
+        int step = Math.min(resolution - 1, (int) (t / dt));
+        return laneDistances[step] + (t / dt - step) * (laneDistances[step + 1] - laneDistances[step]);
+    }
+
+    /**
+     * Method that converts a distance on one lane to the distance on another lane at the same t, i.e. at the same
+     * cross-section.
+     */
+    double convert(double s, int fromLane, int toLane) {
+        return distance(t(s, fromLane), toLane);
+    }
+}
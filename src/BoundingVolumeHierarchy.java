@@ -0,0 +1,167 @@
+/**
+ * Bounding volume hierarchy over a fixed set of axis-aligned boxes, answering which boxes may be visible in a frustum
+ * without testing every box.
+ *
+ * The hierarchy is a binary tree of boxes, each node bounding the boxes below it. It is built top down: the boxes of a
+ * node are sorted along the longest axis of the spread of their centres and split at the median, until a node holds a
+ * single box. A query descends from the root, skipping every node outside the frustum and taking every box below a
+ * node that lies completely inside it without testing further, so only nodes on the border of the frustum are
+ * descended into.
+ * <p/>
+ * Nodes are stored in flat arrays and a query does not allocate, such that it can run every frame. The hierarchy is
+ * not changed by a query, so several views can query it at the same time, each with its own stack.
+ */
+class BoundingVolumeHierarchy {
+    // Per node its box, as minimum x, y and z followed by maximum x, y and z.
+    private final double[] bounds;
+    // Per node its two children, -1 for a leaf.
+    private final int[] firstChild;
+    private final int[] secondChild;
+    // Per node the range of order holding the boxes below it.
+    private final int[] start;
+    private final int[] count;
+    // The numbers of the boxes, ordered such that the boxes below every node are consecutive.
+    private final int[] order;
+    private int nodes;
+
+    // Nodes still to visit during a query without a stack of its own.
+    private final int[] stack;
+
+    /**
+     * @param boxes per box its minimum x, y and z followed by its maximum x, y and z; at least one box
+     */
+    BoundingVolumeHierarchy(double[] boxes) {
+        int size = boxes.length / 6;
+        int capacity = 2 * size - 1;
+        bounds = new double[capacity * 6];
+        firstChild = new int[capacity];
+        secondChild = new int[capacity];
+        start = new int[capacity];
+        count = new int[capacity];
+        stack = new int[capacity];
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        build(boxes, 0, size);
+    }
+
+    /**
+     * @return the number of boxes.
+     */
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * @return the length a stack given to a query needs.
+     */
+    int stackSize() {
+        return stack.length;
+    }
+
+    /**
+     * Build the subtree over order[from, to).
+     *
+     * @return the number of its root node.
+     */
+    private int build(double[] boxes, int from, int to) {
+        int node = nodes++;
+        start[node] = from;
+        count[node] = to - from;
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[node * 6 + axis] = Double.POSITIVE_INFINITY;
+            bounds[node * 6 + 3 + axis] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = from; i < to; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[node * 6 + axis] = Math.min(bounds[node * 6 + axis], boxes[order[i] * 6 + axis]);
+                bounds[node * 6 + 3 + axis] = Math.max(bounds[node * 6 + 3 + axis], boxes[order[i] * 6 + 3 + axis]);
+            }
+        }
+        if (to - from == 1) {
+            firstChild[node] = -1;
+            secondChild[node] = -1;
+            return node;
+        }
+
+        // Split along the axis in which the centres of the boxes lie furthest apart.
+        int splitAxis = 0;
+        double widest = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double centre = centre(boxes, order[i], axis);
+                min = Math.min(min, centre);
+                max = Math.max(max, centre);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                splitAxis = axis;
+            }
+        }
+        sort(boxes, from, to, splitAxis);
+        int middle = (from + to) >>> 1;
+        firstChild[node] = build(boxes, from, middle);
+        secondChild[node] = build(boxes, middle, to);
+        return node;
+    }
+
+    private static double centre(double[] boxes, int box, int axis) {
+        return (boxes[box * 6 + axis] + boxes[box * 6 + 3 + axis]) / 2;
+    }
+
+    // Insertion sort of order[from, to) by the centres along an axis; only done once, on a few hundred boxes at most.
+    private void sort(double[] boxes, int from, int to, int axis) {
+        for (int i = from + 1; i < to; i++) {
+            int box = order[i];
+            double centre = centre(boxes, box, axis);
+            int j = i - 1;
+            while (j >= from && centre(boxes, order[j], axis) > centre) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = box;
+        }
+    }
+
+    /**
+     * Find the boxes that may be visible in a frustum.
+     *
+     * @param visible receives the numbers of the visible boxes, in no particular order; at least size() long
+     * @return the number of visible boxes.
+     */
+    int visible(Frustum frustum, int[] visible) {
+        return visible(frustum, visible, stack);
+    }
+
+    /**
+     * Find the boxes that may be visible in a frustum, keeping the nodes still to visit in the given stack, such that
+     * queries on other threads can run at the same time.
+     *
+     * @param visible receives the numbers of the visible boxes, in no particular order; at least size() long
+     * @param stack room for the nodes still to visit; at least stackSize() long
+     * @return the number of visible boxes.
+     */
+    int visible(Frustum frustum, int[] visible, int[] stack) {
+        int found = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int test = frustum.classifyBox(bounds, node * 6);
+            if (test == Frustum.OUTSIDE) {
+                continue;
+            }
+            if (test == Frustum.INSIDE || firstChild[node] < 0) {
+                System.arraycopy(order, start[node], visible, found, count[node]);
+                found += count[node];
+            } else {
+                stack[top++] = firstChild[node];
+                stack[top++] = secondChild[node];
+            }
+        }
+        return found;
+    }
+}
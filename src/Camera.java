@@ -29,11 +29,11 @@ class Camera {
     // The currently selected robot
     int robotIdx = 0;
 
-    // The position of the camera.
-    public Vector eye;
+    // The position of the camera, as {x, y, z}. The buffers are reused every frame.
+    public final double[] eye = new double[3];
 
     // The point to which the camera is looking.
-    public Vector center;
+    public final double[] center = new double[3];
 
     // Object abstracting over the different camera modes
     private Cam cam;
@@ -48,7 +48,7 @@ class Camera {
     double timeElapsed;
 
     // The up vector.
-    public Vector up = Vector.Z;
+    public final double[] up = {0, 0, 1};
 
     /**
      * Initialize and set a reasonable default viewing angle.
@@ -72,8 +72,9 @@ class Camera {
      * Check if the camera mode has changed, if so perform an animation of the camera to the new mode.
      *
      * @param mode The mode the camera could be set/should stay.
+     * @param world The snapshot being rendered.
      */
-    public void setCamMode(int mode) {
+    public void setCamMode(int mode, WorldSnapshot world) {
         assert MODE_MIN <= mode && mode <= MODE_MAX;
 
         // If mode is already set do nothing and when a transition is still underway do nothing
@@ -100,21 +101,14 @@ class Camera {
 
         // For the different cam modes set the target
         if (mode == HELICOPTER) {
-            transitionTarget = new HelicopterRobotCam(gs, robots[robotIdx]);
+            transitionTarget = new HelicopterRobotCam(gs, robotIdx);
         } else if (mode == MOTORCYCLE) {
-            transitionTarget = new MotorcycleRobotCam(gs, robots[robotIdx]);
+            transitionTarget = new MotorcycleRobotCam(gs, robotIdx);
         } else if (mode == FIRST_PERSON) {
-            // Find the last robot by looking for the robot which has traveled the least distance.
-            double minDist = Double.MAX_VALUE;
+            // Follow the last robot in the race.
+            robotIdx = world.last();
 
-            for (int idx = 0; idx < robots.length; idx++) {
-                if (robots[idx].distCovered < minDist) {
-                    minDist = robots[idx].distCovered;
-                    robotIdx = idx;
-                }
-            }
-
-            transitionTarget = new FirstPersonRobotCam(gs, robots[robotIdx]);
+            transitionTarget = new FirstPersonRobotCam(gs, robotIdx);
         } else {  // camMode == DEFAULT
             transitionTarget = new DefaultCam(gs);
         }
@@ -123,7 +117,7 @@ class Camera {
 
         // Use a short animation.
         transitionTime = 1e9;  // one second in nanoseconds
-        cam = new Transition(cam, transitionTarget, transitionTime);
+        cam = new Transition(cam, transitionTarget, transitionTime, world);
         timeElapsed = 0;
     }
 
@@ -132,8 +126,9 @@ class Camera {
      * camera mode and the time elapse since the last frame.
      *
      * @param frameTime The time difference between the previous frame and the current one.
+     * @param world The snapshot being rendered.
      */
-    public void update(double frameTime) {
+    public void update(double frameTime, WorldSnapshot world) {
         timeElapsed += frameTime;
 
         if (transitionTime > 0) {                // If there is a current transition:
@@ -160,38 +155,55 @@ class Camera {
 
                 // The robot from which we get First Person view is only variable in auto mode.
                 if (camMode == FIRST_PERSON) {
-                    transitionTarget = new FirstPersonRobotCam(gs, robots[robotIdx]);
+                    transitionTarget = new FirstPersonRobotCam(gs, robotIdx);
                 }
             }
 
             if (camMode != DEFAULT) {  // There are no meaningful transitions within DEFAULT mode
                 if (camMode == HELICOPTER) {
-                    transitionTarget = new HelicopterRobotCam(gs, robots[robotIdx]);
+                    transitionTarget = new HelicopterRobotCam(gs, robotIdx);
                 } else if (camMode == MOTORCYCLE) {
-                    transitionTarget = new MotorcycleRobotCam(gs, robots[robotIdx]);
+                    transitionTarget = new MotorcycleRobotCam(gs, robotIdx);
                 }
 
                 transitionTime = 2.5e9;  // 2.5 seconds
-                cam = new Transition(cam, transitionTarget, transitionTime);
+                cam = new Transition(cam, transitionTarget, transitionTime, world);
                 timeElapsed = 0;
             }
         }
 
-        center = cam.getCenterPoint(timeElapsed);
-        eye = cam.getEyePoint(timeElapsed);
-        up = cam.getUp(timeElapsed);
+        cam.evaluate(timeElapsed, world, eye, center, up);
     }
 }
 
 /**
  * Define an object which is capable of returning the basic camera information.
- * The {@param t} in the below methods is used to pass in a difference in time since the start of a transition
+ * The {@param t} in the below method is used to pass in a difference in time since the start of a transition
  * It is up to the camera to decide it depends on this value.
+ * <p/>
+ * The results are written into buffers supplied by the caller, such that evaluating a camera every frame does not
+ * allocate, and such that a cam only has to be evaluated once to obtain all three of its vectors.
  */
 abstract class Cam {
-    abstract public Vector getCenterPoint(double t);
-    abstract public Vector getEyePoint(double t);
-    abstract public Vector getUp(double t);
+    /**
+     * Compute the camera's vectors at the given time.
+     *
+     * @param t time since the start of a transition, in nanoseconds
+     * @param world the snapshot being rendered, from which the robot cams take the robot's position
+     * @param eye buffer of length 3 receiving the position of the eye point
+     * @param center buffer of length 3 receiving the point the camera looks at
+     * @param up buffer of length 3 receiving the up vector
+     */
+    abstract void evaluate(double t, WorldSnapshot world, double[] eye, double[] center, double[] up);
+
+    /**
+     * Convenience function to store three coordinates in a buffer.
+     */
+    static void set(double[] buffer, double x, double y, double z) {
+        buffer[0] = x;
+        buffer[1] = y;
+        buffer[2] = z;
+    }
 }
 
 /**
@@ -205,11 +217,7 @@ class DefaultCam extends Cam {
         this.gs = gs;
     }
 
-    public Vector getCenterPoint(double t) {
-        return gs.cnt;
-    }
-
-    public Vector getEyePoint(double t) {
+    void evaluate(double t, WorldSnapshot world, double[] eye, double[] center, double[] up) {
         //Calculate the X, Y and Z coordinates of eye using spherical coordinates.
         double eyeX, eyeY, eyeZ;
 
@@ -217,66 +225,67 @@ class DefaultCam extends Cam {
         eyeY = Math.sin(gs.theta) * Math.cos(gs.phi) * gs.vDist;
         eyeZ = Math.sin(gs.phi) * gs.vDist;
 
-        //Calculate the eyeDisplacement vector (which is a vector pointing from the centre point to the eye),
-        //and add it to centre point to obtain the eye position vector relative to origin.
-        Vector eyeDisplacement = new Vector(eyeX, eyeY, eyeZ);
-        return gs.cnt.add(eyeDisplacement);
-    }
-
-    public Vector getUp(double t) {
-        return Vector.Z;
+        //The eye displacement (pointing from the centre point to the eye) is added to the centre point to obtain the
+        //eye position relative to origin.
+        set(center, gs.cnt.x(), gs.cnt.y(), gs.cnt.z());
+        set(eye, gs.cnt.x() + eyeX, gs.cnt.y() + eyeY, gs.cnt.z() + eyeZ);
+        set(up, 0, 0, 1);
     }
 }
 
 // A basic camera which "flies" above its selected robot.
 class HelicopterRobotCam extends Cam {
     private GlobalState gs;
-    private Robot robot;
+    // Index of the robot in the world snapshots.
+    private int robot;
 
-    HelicopterRobotCam(GlobalState gs, Robot robot) {
+    HelicopterRobotCam(GlobalState gs, int robot) {
         this.gs = gs;
         this.robot = robot;
     }
 
-    public Vector getCenterPoint(double t) {
-        return robot.getPosition();
-    }
+    void evaluate(double t, WorldSnapshot world, double[] eye, double[] center, double[] up) {
+        RobotKinematics kinematics = world.robots[robot];
+        Vector pos = kinematics.position;
+        Vector tangent = kinematics.tangent;
 
-    public Vector getEyePoint(double t) {
+        set(center, pos.x(), pos.y(), pos.z());
         // Do not view from straight above, as this will give calculation problems (being orthogonal, etc.).
-        return robot.getPosition().add(new Vector(0.00001, 0, gs.vDist));
-    }
-
-    public Vector getUp(double t) {
+        set(eye, pos.x() + 0.00001, pos.y(), pos.z() + gs.vDist);
         // The robot's tangent is in the direction of its path, therefore we view it from above along its path.
-        return robot.getTangent();
+        set(up, tangent.x(), tangent.y(), tangent.z());
     }
 }
 
 // A basic camera which hangs along side the selected robot ("as if the camera is located on a motor that drives along with them").
 class MotorcycleRobotCam extends Cam {
     private GlobalState gs;
-    private Robot robot;
+    // Index of the robot in the world snapshots.
+    private int robot;
 
-    MotorcycleRobotCam(GlobalState gs, Robot robot) {
+    MotorcycleRobotCam(GlobalState gs, int robot) {
         this.gs = gs;
         this.robot = robot;
     }
 
-    public Vector getCenterPoint(double t) {
+    void evaluate(double t, WorldSnapshot world, double[] eye, double[] center, double[] up) {
+        RobotKinematics kinematics = world.robots[robot];
+        Vector pos = kinematics.position;
+        Vector tangent = kinematics.tangent;
+        Vector normal = kinematics.normal;
+        double chinHeight = Robot.height - Robot.headHeight;
+
         // The focus of the camera is at the height of the robot's chin.
-        return robot.getPosition().add(new Vector(0, 0, robot.height - robot.headHeight));
-    }
+        set(center, pos.x(), pos.y(), pos.z() + chinHeight);
 
-    public Vector getEyePoint(double t) {
-        // The eye is {@code gs.vDist} meters to the side of the robot.
-        Vector directedOutward = robot.getTangent().cross(robot.getNormal());  // These vectors are orthogonal and the result is unit length
-        return robot.getPosition().add(directedOutward.scale(gs.vDist))
-                        .add(new Vector(0, 0, robot.height - robot.headHeight));
-    }
+        // The eye is {@code gs.vDist} meters to the side of the robot. The tangent and normal are orthogonal and
+        // therefore their cross product, which points outward, is unit length.
+        double outX = tangent.y() * normal.z() - tangent.z() * normal.y();
+        double outY = tangent.z() * normal.x() - tangent.x() * normal.z();
+        double outZ = tangent.x() * normal.y() - tangent.y() * normal.x();
+        set(eye, pos.x() + outX * gs.vDist, pos.y() + outY * gs.vDist, pos.z() + outZ * gs.vDist + chinHeight);
 
-    public Vector getUp(double t) {
-        return robot.getNormal();
+        set(up, normal.x(), normal.y(), normal.z());
     }
 }
 
@@ -284,27 +293,31 @@ class MotorcycleRobotCam extends Cam {
 class FirstPersonRobotCam extends Cam {
     static final double distAboveHead = 0.05;  // in meters
     private GlobalState gs;
-    private Robot robot;
+    // Index of the robot in the world snapshots.
+    private int robot;
 
-    FirstPersonRobotCam(GlobalState gs, Robot robot) {
+    FirstPersonRobotCam(GlobalState gs, int robot) {
         this.gs = gs;
         this.robot = robot;
     }
 
-    public Vector getCenterPoint(double t) {
+    void evaluate(double t, WorldSnapshot world, double[] eye, double[] center, double[] up) {
+        RobotKinematics kinematics = world.robots[robot];
+        Vector pos = kinematics.position;
+        Vector tangent = kinematics.tangent;
+        Vector normal = kinematics.normal;
+        double eyeHeight = Robot.height + distAboveHead;
+
         // Look at a point some distance (gs.vDist) ahead in the current direction.
-        return robot.getPosition().add(robot.getTangent().scale(gs.vDist - robot.headDepth))
-                        .add(new Vector(0, 0, robot.height + distAboveHead));
-    }
+        double ahead = gs.vDist - Robot.headDepth;
+        set(center, pos.x() + tangent.x() * ahead, pos.y() + tangent.y() * ahead,
+                pos.z() + tangent.z() * ahead + eyeHeight);
 
-    public Vector getEyePoint(double t) {
         // Look from just the tip of the robot head.
-        return robot.getPosition().add(robot.getTangent().scale(robot.headDepth))
-                        .add(new Vector(0, 0, robot.height + distAboveHead));
-    }
+        double tip = Robot.headDepth;
+        set(eye, pos.x() + tangent.x() * tip, pos.y() + tangent.y() * tip, pos.z() + tangent.z() * tip + eyeHeight);
 
-    public Vector getUp(double t) {
-        return robot.getNormal();
+        set(up, normal.x(), normal.y(), normal.z());
     }
 }
 
@@ -325,6 +338,15 @@ class Transition extends Cam {
     private double initDist;
     private double finalDist;
 
+    // Buffers receiving the vectors of both cams. Each transition has its own, such that every cam in a chain of
+    // nested transitions is evaluated exactly once per frame.
+    private final double[] eye0 = new double[3];
+    private final double[] center0 = new double[3];
+    private final double[] up0 = new double[3];
+    private final double[] eye1 = new double[3];
+    private final double[] center1 = new double[3];
+    private final double[] up1 = new double[3];
+
     /**
      * Initialize with the arguments and calculated the distance between the camera and the center and the start and
      * the end.
@@ -332,68 +354,52 @@ class Transition extends Cam {
      * @param cam0 Cam object which represents the starting point of the transition
      * @param cam1 Cam object which represents the end point of the transition
      * @param time Time in nanoseconds that it will take to complete the transition
+     * @param world The current snapshot, used to calculate the distances
      */
-    Transition(Cam cam0, Cam cam1, double time) {
+    Transition(Cam cam0, Cam cam1, double time, WorldSnapshot world) {
         this.cam0 = cam0;
         this.cam1 = cam1;
         this.time = time;
 
-        initDist = cam0.getCenterPoint(0).subtract(cam0.getEyePoint(0)).length();
-        finalDist = cam1.getCenterPoint(time).subtract(cam1.getEyePoint(time)).length();
+        cam0.evaluate(0, world, eye0, center0, up0);
+        cam1.evaluate(time, world, eye1, center1, up1);
+        initDist = Vec3.distance(center0, 0, eye0, 0);
+        finalDist = Vec3.distance(center1, 0, eye1, 0);
     }
 
     /**
-     * Calculate a weighted center point for the camera taking into account that the viewing distance,
-     * the distance between the eye and center, is also interpolated.
+     * Interpolate the eye points, center points and up vectors of both cams.
+     * <p/>
+     * The eye point is a basic clamped interpolation of the eye points. The center point is a weighted center point
+     * taking into account that the viewing distance, the distance between the eye and center, is also interpolated.
+     * The up vectors are interpolated by weighing the two from 0 to 1: at t=0 the weight will all be at up0 and at
+     * t>=time the weight will all be at up1. The resulting up is the normalized sum of the two weighted up vectors.
      *
      * @param t time since start of the transition
-     * @return Position of the center of point of the camera.
      */
-    public Vector getCenterPoint(double t) {
-        Vector p0 = cam0.getCenterPoint(t);
-        Vector p1 = cam1.getCenterPoint(t);
+    void evaluate(double t, WorldSnapshot world, double[] eye, double[] center, double[] up) {
+        cam0.evaluate(t, world, eye0, center0, up0);
+        cam1.evaluate(t, world, eye1, center1, up1);
 
-        // Calculate a weighted center point between the 2 endpoints.
-        Vector direction = p1.subtract(p0);
         // To be sure to not overshoot the transition the weighting is clamped at 1.
-        Vector weightedCenter = p0.add(direction.scale(Math.min(t / time, 1)));
+        double w1 = Math.min(t / time, 1);
+        double w0 = Math.max(1 - t / time, 0);
+
+        Vec3.lerp(eye0, 0, eye1, 0, w1, eye, 0);
+        // Temporarily store the weighted center point between the 2 endpoints.
+        Vec3.lerp(center0, 0, center1, 0, w1, center, 0);
+        for (int i = 0; i < 3; i++) {
+            up[i] = up0[i] * w0 + up1[i] * w1;
+        }
 
-        // Calculate a vector from the (weighted) eye to the calculated center and normalize.
-        Vector eyeTowardCenter = weightedCenter.subtract(getEyePoint(t)).normalized();
+        // Calculate the length of the vector from the (weighted) eye to the calculated center, used to normalize it.
+        double eyeToCenter = Vec3.distance(center, 0, eye, 0);
         // To also interpolate the viewing distance interpolate between the start and end distances.
-        double weightCamDist = Math.max(1 - t/time, 0) * initDist + Math.min(t / time, 1) * finalDist;
-
-        return getEyePoint(t).add(eyeTowardCenter.scale(weightCamDist));
-    }
-
-    /**
-     * A basic clamped interpolation of the eye points.
-     *
-     * @param t time since start of the transition
-     * @return Position of the eye point of the camera.
-     */
-    public Vector getEyePoint(double t) {
-        Vector p0 = cam0.getEyePoint(t);
-        Vector p1 = cam1.getEyePoint(t);
-
-        Vector direction = p1.subtract(p0);
-
-        return p0.add(direction.scale(Math.min(t / time, 1)));
-    }
+        double weightCamDist = w0 * initDist + w1 * finalDist;
 
-    /**
-     * A basic clamped interpolation of the up vectors.
-     *
-     * @param t time since start of the transition
-     * @return interpolated up vector
-     */
-    public Vector getUp(double t) {
-        Vector up0 = cam0.getUp(t);
-        Vector up1 = cam1.getUp(t);
-
-        // Interpolate the up vectors by doing a weighing of the two from 0 to 1.
-        // At t=0 the weight will all be at up0 and at t>=time the weight will all be at up1.
-        // The resulting up is calculated by adding the two weighted up vectors and normalizing.
-        return up0.scale(Math.max(1 - t/time, 0)).add(up1.scale(Math.min(t / time, 1))).normalized();
+        for (int i = 0; i < 3; i++) {
+            center[i] = eye[i] + (center[i] - eye[i]) / eyeToCenter * weightCamDist;
+        }
+        Vec3.normalize(up, 0);
     }
 }
@@ -0,0 +1,326 @@
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL2;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static javax.media.opengl.GL2.*;
+
+/**
+ * Writes rendered frames to a directory as a numbered image sequence, for making clips of a race without a window.
+ *
+ * Reading a frame into memory with glReadPixels waits until the GPU has finished drawing it, and encoding it takes
+ * longer still. Instead each frame is read into the next of a ring of pixel buffer objects, which only queues the copy,
+ * and is mapped and copied out when its buffer comes round again, RING frames later, long after the GPU finished it.
+ * The copy is encoded, as PNG or as raw BGRA rows from top to bottom, on worker threads, each frame in a buffer from a
+ * small pool, such that the rendering thread only waits when the workers fall behind. Without pixel buffer objects the
+ * frames are read synchronously.
+ * <p/>
+ * Exporting is turned on with -Drobotrace.export=directory, and set with -Drobotrace.exportSize=widthxheight,
+ * -Drobotrace.exportFps=frames per second, -Drobotrace.exportSeconds=length of the clip and
+ * -Drobotrace.exportFormat=png or raw. Raw frames can be encoded with e.g.
+ * {@code cat frame*.raw | ffmpeg -f rawvideo -pix_fmt bgra -s 1280x720 -r 60 -i - clip.mp4}.
+ */
+class FrameExporter {
+    // Number of pixel buffer objects frames are read into in turn.
+    static final int RING = 3;
+
+    static final int DEFAULT_WIDTH = 1280;
+    static final int DEFAULT_HEIGHT = 720;
+    static final double DEFAULT_FPS = 60;
+    // Length of the clip when a race is simulated, a recording is exported completely.
+    static final double DEFAULT_SECONDS = 10;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    final File directory;
+    final int width;
+    final int height;
+    final double fps;
+    // Length of the clip in seconds, NaN for the default.
+    final double seconds;
+    final boolean png;
+
+    // The ring of pixel buffer objects, null when they are not supported.
+    private int[] pixelBuffers;
+    // Per buffer the number of the frame read into it and not yet copied out, -1 if none.
+    private final long[] pending = new long[RING];
+    // Room for a synchronous read when there are no pixel buffer objects.
+    private ByteBuffer readBuffer;
+    private long captured;
+
+    // The frames not being encoded, and the threads encoding the others.
+    private final BlockingQueue<Frame> freeFrames;
+    private final ExecutorService encoders;
+    // The first error writing a frame, after which no more frames are written.
+    private volatile IOException failure;
+
+    /**
+     * A frame read back, with room to encode it.
+     */
+    private class Frame {
+        // The pixels as read: rows from bottom to top, four bytes per pixel in the order blue, green, red, alpha.
+        final byte[] pixels = new byte[width * height * BYTES_PER_PIXEL];
+        // Only used for PNG.
+        BufferedImage image;
+        long index;
+    }
+
+    /**
+     * @param seconds length of the clip, NaN for the default
+     * @param png whether to write PNG images rather than raw frames
+     */
+    FrameExporter(File directory, int width, int height, double fps, double seconds, boolean png) {
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.seconds = seconds;
+        this.png = png;
+        java.util.Arrays.fill(pending, -1);
+
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        freeFrames = new ArrayBlockingQueue<Frame>(2 * workers);
+        for (int i = 0; i < 2 * workers; i++) {
+            freeFrames.add(new Frame());
+        }
+        encoders = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Frame encoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the exporter asked for on the command line (-Drobotrace.export=directory), or null to show a window.
+     */
+    static FrameExporter fromProperties() throws IOException {
+        String directory = System.getProperty("robotrace.export");
+        if (directory == null) {
+            return null;
+        }
+        int width = DEFAULT_WIDTH;
+        int height = DEFAULT_HEIGHT;
+        String size = System.getProperty("robotrace.exportSize");
+        if (size != null) {
+            String[] parts = size.toLowerCase().split("x");
+            try {
+                width = Integer.parseInt(parts[0].trim());
+                height = Integer.parseInt(parts[1].trim());
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid export size " + size + ", expected e.g. 1280x720");
+            }
+        }
+        String fps = System.getProperty("robotrace.exportFps");
+        String seconds = System.getProperty("robotrace.exportSeconds");
+        String format = System.getProperty("robotrace.exportFormat", "png");
+        if (!format.equals("png") && !format.equals("raw")) {
+            throw new IOException("Unknown export format " + format + ", expected png or raw");
+        }
+
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return new FrameExporter(dir, width, height, fps != null ? Double.parseDouble(fps) : DEFAULT_FPS,
+                seconds != null ? Double.parseDouble(seconds) : Double.NaN, format.equals("png"));
+    }
+
+    /**
+     * @return the time between two frames in nanoseconds.
+     */
+    long frameNanos() {
+        return Math.round(1e9 / fps);
+    }
+
+    /**
+     * @param available length in seconds of what there is to export, used when no length was asked for
+     * @return the number of frames to export.
+     */
+    long frames(double available) {
+        return Math.round((Double.isNaN(seconds) ? available : seconds) * fps);
+    }
+
+    /**
+     * @return whether writing a frame failed, after which exporting should stop.
+     */
+    boolean failed() {
+        return failure != null;
+    }
+
+    /**
+     * Allocate the pixel buffer objects if they are supported. Must be called with a current OpenGL context.
+     */
+    void initialize(GL2 gl) {
+        if (!gl.isExtensionAvailable("GL_ARB_pixel_buffer_object")) {
+            readBuffer = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL);
+            return;
+        }
+        pixelBuffers = new int[RING];
+        gl.glGenBuffers(RING, pixelBuffers, 0);
+        for (int buffer : pixelBuffers) {
+            gl.glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+            gl.glBufferData(GL_PIXEL_PACK_BUFFER, (long) width * height * BYTES_PER_PIXEL, null, GL_STREAM_READ);
+        }
+        gl.glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    /**
+     * Read back the frame just drawn, and hand the frame read RING frames ago to the encoders.
+     */
+    void capture(GL2 gl) {
+        gl.glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        if (pixelBuffers == null) {
+            readBuffer.clear();
+            gl.glReadPixels(0, 0, width, height, GL_BGRA, GL_UNSIGNED_BYTE, readBuffer);
+            Frame frame = takeFrame();
+            readBuffer.get(frame.pixels);
+            encode(frame, captured++);
+            return;
+        }
+
+        int slot = (int) (captured % RING);
+        if (pending[slot] >= 0) {
+            copyOut(gl, slot);
+        }
+        gl.glBindBuffer(GL_PIXEL_PACK_BUFFER, pixelBuffers[slot]);
+        gl.glReadPixels(0, 0, width, height, GL_BGRA, GL_UNSIGNED_BYTE, 0L);
+        gl.glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        pending[slot] = captured++;
+    }
+
+    /**
+     * Hand the frames still in the pixel buffer objects to the encoders, oldest first, and release the buffers. Must be
+     * called with a current OpenGL context, after the last capture.
+     */
+    void flush(GL2 gl) {
+        if (pixelBuffers == null) {
+            return;
+        }
+        for (long frame = Math.max(0, captured - RING); frame < captured; frame++) {
+            int slot = (int) (frame % RING);
+            if (pending[slot] >= 0) {
+                copyOut(gl, slot);
+            }
+        }
+        gl.glDeleteBuffers(RING, pixelBuffers, 0);
+        pixelBuffers = null;
+    }
+
+    /**
+     * Wait for all frames to be written.
+     *
+     * @throws IOException if a frame could not be written
+     */
+    void finish() throws IOException {
+        encoders.shutdown();
+        try {
+            encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the frames", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the number of frames captured.
+     */
+    long getCaptured() {
+        return captured;
+    }
+
+    private void copyOut(GL2 gl, int slot) {
+        Frame frame = takeFrame();
+        gl.glBindBuffer(GL_PIXEL_PACK_BUFFER, pixelBuffers[slot]);
+        ByteBuffer mapped = gl.glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY);
+        if (mapped == null) {
+            throw new IllegalStateException("Unable to map the pixel buffer of frame " + pending[slot]);
+        }
+        // The mapped buffer may be reused between mappings, with its position left where the last copy ended.
+        mapped.rewind();
+        mapped.get(frame.pixels);
+        gl.glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+        gl.glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        encode(frame, pending[slot]);
+        pending[slot] = -1;
+    }
+
+    private Frame takeFrame() {
+        try {
+            return freeFrames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a frame to be written", e);
+        }
+    }
+
+    private void encode(final Frame frame, long index) {
+        frame.index = index;
+        encoders.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (failure == null) {
+                        write(frame);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    freeFrames.add(frame);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a frame to its file, flipping it such that the top row comes first.
+     */
+    private void write(Frame frame) throws IOException {
+        int stride = width * BYTES_PER_PIXEL;
+        File file = new File(directory, String.format("frame%06d.%s", frame.index, png ? "png" : "raw"));
+        if (png) {
+            if (frame.image == null) {
+                frame.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            int[] rgb = ((DataBufferInt) frame.image.getRaster().getDataBuffer()).getData();
+            byte[] pixels = frame.pixels;
+            for (int y = 0; y < height; y++) {
+                int source = (height - 1 - y) * stride;
+                int target = y * width;
+                for (int x = 0; x < width; x++, source += BYTES_PER_PIXEL) {
+                    rgb[target + x] = (pixels[source + 2] & 0xff) << 16 | (pixels[source + 1] & 0xff) << 8
+                            | (pixels[source] & 0xff);
+                }
+            }
+            if (!ImageIO.write(frame.image, "png", file)) {
+                throw new IOException("No PNG writer available for " + file);
+            }
+        } else {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file), stride);
+            try {
+                for (int y = height - 1; y >= 0; y--) {
+                    out.write(frame.pixels, y * stride, stride);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,485 @@
+import com.jogamp.opengl.util.gl2.GLUT;
+
+import jdk.jfr.EventType;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.media.opengl.GL2;
+import java.lang.management.ManagementFactory;
+
+import static javax.media.opengl.GL2.*;
+
+/**
+ * Instrumentation of where the time of a frame goes.
+ *
+ * Every stage of a frame is timed on the CPU with System.nanoTime and recorded in a LatencyHistogram, from which the
+ * p50, p99 and p999 are read. The drawing stages are additionally timed on the GPU with timer queries when the
+ * driver supports GL_EXT_timer_query. The results are published over JMX and, when the system property
+ * {@code robotrace.stats} is set to true, drawn as a text overlay in the top-left corner of the window.
+ * <p/>
+ * The bytes allocated by each stage are counted as well and, while a flight recording is running, every frame and
+ * every stage is emitted as a JFR event (see RaceEvents).
+ * <p/>
+ * For every view the number of track pieces and robots that were drawn and culled in the last frame is kept as well,
+ * and for every kind of OpenGL state change the number that was passed on and skipped by the GLState.
+ */
+class FrameStatistics implements FrameStatisticsMBean {
+    /**
+     * The stages of a frame. Stages may be nested (e.g. TRACK lies within DRAW_SCENE), but only stages that never
+     * overlap with each other are timed on the GPU, as timer queries of the same target can not be nested.
+     */
+    enum Stage {
+        FRAME_INTERVAL("interval", false),
+        FRAME("frame", false),
+        SET_VIEW("setView", false),
+        CAMERA(" camera", false),
+        DRAW_SCENE("drawScene", false),
+        CULL(" cull", false),
+        TRACK(" track", true),
+        ROBOTS(" robots", true),
+        TERRAIN(" terrain", true),
+        VIEWS(" views", true),
+        PICTURE_IN_PICTURE("PiP", true);
+
+        final String label;
+        final boolean gpuTimed;
+
+        Stage(String label, boolean gpuTimed) {
+            this.label = label;
+            this.gpuTimed = gpuTimed;
+        }
+    }
+
+    // Show the overlay only on request, drawing text every frame is not free.
+    static final boolean SHOW_OVERLAY = Boolean.getBoolean("robotrace.stats");
+
+    // Timer query results are read this many frames after they were issued, such that reading them never stalls.
+    private static final int QUERY_LATENCY = 4;
+
+    // Refresh the overlay text every half second, the percentiles do not change that fast.
+    private static final long OVERLAY_REFRESH = 500000000L;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    // The views of the window when it only has the main view and the picture-in-picture.
+    static final String[] DEFAULT_VIEWS = {"main", "PiP"};
+    static final int MAIN_VIEW = 0;
+    static final int PIP_VIEW = 1;
+
+    // The views that are culled separately.
+    private final String[] views;
+
+    // Looked up once, such that checking whether the events are recorded does not allocate an event every frame.
+    private static final EventType FRAME_EVENT_TYPE = EventType.getEventType(FrameEvent.class);
+    private static final EventType STAGE_EVENT_TYPE = EventType.getEventType(FrameStageEvent.class);
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+    // Start time of each stage that is currently running.
+    private final long[] stageStart = new long[STAGES.length];
+
+    // Bytes allocated by the rendering thread at the start of each running stage, and in total per stage.
+    private final long[] stageAllocationStart = new long[STAGES.length];
+    private final long[] stageAllocated = new long[STAGES.length];
+    private final long[] stageCount = new long[STAGES.length];
+
+    // The events of the running frame and stages, null when they are not being recorded.
+    private FrameEvent frameEvent;
+    private final FrameStageEvent[] stageEvents = new FrameStageEvent[STAGES.length];
+
+    // Exponential moving average of the GPU time per stage in nanoseconds, NaN when unknown.
+    private final double[] gpuNanos = new double[STAGES.length];
+
+    // Ring of timer queries per stage, null when timer queries are not supported.
+    private int[][] queries;
+    // Whether the query at the given ring position has been issued and not yet been read.
+    private boolean[][] queryPending;
+
+    private long frameCount;
+
+    // Per view the number of track pieces and robots drawn in the last frame, and the number there are.
+    private final int[] piecesDrawn;
+    private final int[] pieces;
+    private final int[] robotsDrawn;
+    private final int[] robots;
+
+    // Per kind of state change the number passed on to OpenGL and skipped in the last frame.
+    private final long[] stateChangesIssued = new long[GLState.KINDS.length];
+    private final long[] stateChangesSkipped = new long[GLState.KINDS.length];
+
+    private String[] overlayLines = new String[0];
+    private long lastOverlayRefresh;
+
+    private final long[] queryResult = new long[1];
+    private final int[] queryAvailable = new int[1];
+
+    /**
+     * @param views names of the views that are culled separately, in the order they are counted in
+     */
+    FrameStatistics(String[] views) {
+        this.views = views.clone();
+        piecesDrawn = new int[views.length];
+        pieces = new int[views.length];
+        robotsDrawn = new int[views.length];
+        robots = new int[views.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+            gpuNanos[i] = Double.NaN;
+        }
+
+        // Make the statistics available to any JMX client attached to this process.
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("robotrace:type=FrameStatistics"));
+        } catch (JMException e) {
+            System.err.println("Unable to register frame statistics MBean: " + e);
+        }
+    }
+
+    /**
+     * Allocate the timer queries if the driver supports them. Must be called with a current OpenGL context.
+     *
+     * @param gl OpenGL context
+     */
+    void initialize(GL2 gl) {
+        // GL2 only has the timer query entry points of the extension, the core ones are in GL3.
+        if (!gl.isExtensionAvailable("GL_EXT_timer_query")) {
+            return;
+        }
+        queries = new int[STAGES.length][];
+        queryPending = new boolean[STAGES.length][];
+        for (Stage stage : STAGES) {
+            if (stage.gpuTimed) {
+                queries[stage.ordinal()] = new int[QUERY_LATENCY];
+                queryPending[stage.ordinal()] = new boolean[QUERY_LATENCY];
+                gl.glGenQueries(QUERY_LATENCY, queries[stage.ordinal()], 0);
+            }
+        }
+    }
+
+    /**
+     * Start a new frame: record the time since the previous frame and collect the GPU timings of the frame issued
+     * QUERY_LATENCY frames ago, whose queries are in the slot this frame reuses.
+     *
+     * @param gl OpenGL context
+     * @param interval time in nanoseconds since the start of the previous frame
+     */
+    void beginFrame(GL2 gl, long interval) {
+        frameCount++;
+        histograms[Stage.FRAME_INTERVAL.ordinal()].record(interval);
+        begin(gl, Stage.FRAME);
+
+        if (FRAME_EVENT_TYPE.isEnabled()) {
+            frameEvent = new FrameEvent();
+            frameEvent.begin();
+        }
+
+        if (queries == null) {
+            return;
+        }
+        int slot = (int) (frameCount % QUERY_LATENCY);
+        for (int i = 0; i < STAGES.length; i++) {
+            if (queries[i] == null || !queryPending[i][slot]) {
+                continue;
+            }
+            gl.glGetQueryObjectiv(queries[i][slot], GL_QUERY_RESULT_AVAILABLE, queryAvailable, 0);
+            if (queryAvailable[0] != 0) {
+                gl.glGetQueryObjectui64vEXT(queries[i][slot], GL_QUERY_RESULT, queryResult, 0);
+                // Smooth the GPU times, single samples are noisy and there is no histogram for them.
+                gpuNanos[i] = Double.isNaN(gpuNanos[i]) ? queryResult[0] : 0.95 * gpuNanos[i] + 0.05 * queryResult[0];
+            }
+            queryPending[i][slot] = false;
+        }
+    }
+
+    /**
+     * End the current frame.
+     *
+     * @param gl OpenGL context
+     */
+    void endFrame(GL2 gl) {
+        end(gl, Stage.FRAME);
+
+        if (frameEvent != null) {
+            frameEvent.end();
+            frameEvent.frameNumber = frameCount;
+            frameEvent.allocated = RaceEvents.allocatedBytes() - stageAllocationStart[Stage.FRAME.ordinal()];
+            frameEvent.commit();
+            frameEvent = null;
+        }
+    }
+
+    /**
+     * Start timing a stage.
+     *
+     * @param gl OpenGL context
+     * @param stage the stage that starts now
+     */
+    void begin(GL2 gl, Stage stage) {
+        stageStart[stage.ordinal()] = System.nanoTime();
+        stageAllocationStart[stage.ordinal()] = RaceEvents.allocatedBytes();
+        if (STAGE_EVENT_TYPE.isEnabled()) {
+            stageEvents[stage.ordinal()] = new FrameStageEvent();
+            stageEvents[stage.ordinal()].begin();
+        }
+        if (queries != null && queries[stage.ordinal()] != null) {
+            int slot = (int) (frameCount % QUERY_LATENCY);
+            // A query that could not be read in time is simply reissued.
+            gl.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[stage.ordinal()][slot]);
+        }
+    }
+
+    /**
+     * Stop timing a stage and record its duration.
+     *
+     * @param gl OpenGL context
+     * @param stage the stage that ends now
+     */
+    void end(GL2 gl, Stage stage) {
+        if (queries != null && queries[stage.ordinal()] != null) {
+            gl.glEndQuery(GL_TIME_ELAPSED_EXT);
+            queryPending[stage.ordinal()][(int) (frameCount % QUERY_LATENCY)] = true;
+        }
+        long end = System.nanoTime();
+        histograms[stage.ordinal()].record(end - stageStart[stage.ordinal()]);
+
+        long allocated = RaceEvents.allocatedBytes() - stageAllocationStart[stage.ordinal()];
+        stageAllocated[stage.ordinal()] += allocated;
+        stageCount[stage.ordinal()]++;
+
+        FrameStageEvent event = stageEvents[stage.ordinal()];
+        if (event != null) {
+            event.end();
+            event.frameNumber = frameCount;
+            event.stage = stage.name();
+            event.allocated = allocated;
+            event.commit();
+            stageEvents[stage.ordinal()] = null;
+        }
+    }
+
+    /**
+     * Record what a view drew in this frame.
+     *
+     * @param view index of the view in the names given to the constructor
+     * @param piecesDrawn number of track pieces drawn
+     * @param pieces number of track pieces there are
+     * @param robotsDrawn number of robots drawn
+     * @param robots number of robots there are
+     */
+    void countVisible(int view, int piecesDrawn, int pieces, int robotsDrawn, int robots) {
+        this.piecesDrawn[view] = piecesDrawn;
+        this.pieces[view] = pieces;
+        this.robotsDrawn[view] = robotsDrawn;
+        this.robots[view] = robots;
+    }
+
+    /**
+     * Record the state changes of this frame.
+     *
+     * @param issued per kind of GLState the number of changes passed on to OpenGL
+     * @param skipped per kind the number of changes skipped as redundant
+     */
+    void countStateChanges(long[] issued, long[] skipped) {
+        System.arraycopy(issued, 0, stateChangesIssued, 0, stateChangesIssued.length);
+        System.arraycopy(skipped, 0, stateChangesSkipped, 0, stateChangesSkipped.length);
+    }
+
+    /**
+     * Draw the statistics as text in the top-left corner of the current viewport, if enabled.
+     *
+     * @param gl OpenGL context
+     * @param glut GLUT context, used for rendering the text
+     * @param width width of the window in pixels
+     * @param height height of the window in pixels
+     */
+    void drawOverlay(GL2 gl, GLUT glut, int width, int height) {
+        if (!SHOW_OVERLAY) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastOverlayRefresh > OVERLAY_REFRESH) {
+            lastOverlayRefresh = now;
+            overlayLines = summary();
+        }
+
+        // Draw in window coordinates without lighting, texturing or depth testing.
+        gl.glPushAttrib(GL_ENABLE_BIT | GL_CURRENT_BIT | GL_VIEWPORT_BIT);
+        gl.glDisable(GL_LIGHTING);
+        gl.glDisable(GL_TEXTURE_2D);
+        gl.glDisable(GL_DEPTH_TEST);
+        gl.glViewport(0, 0, width, height);
+        gl.glMatrixMode(GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(0, width, 0, height, -1, 1);
+        gl.glMatrixMode(GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+
+        gl.glColor3f(0f, 0f, 0f);
+        for (int i = 0; i < overlayLines.length; i++) {
+            gl.glRasterPos2d(10, height - 20 - 15 * i);
+            glut.glutBitmapString(GLUT.BITMAP_8_BY_13, overlayLines[i]);
+        }
+
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL_MODELVIEW);
+        gl.glPopAttrib();
+    }
+
+    /**
+     * @return one line of text per stage with its percentiles (and GPU time if known) in milliseconds, followed by a
+     * line per view with the number of track pieces and robots it drew out of the number there are, and a line with
+     * the number of state changes set and skipped.
+     */
+    private String[] summary() {
+        String[] lines = new String[STAGES.length + 2 + views.length];
+        lines[0] = String.format("%-10s %7s %7s %7s %7s", "ms", "p50", "p99", "p999", "gpu");
+        for (int i = 0; i < STAGES.length; i++) {
+            LatencyHistogram h = histograms[i];
+            lines[i + 1] = String.format("%-10s %7.2f %7.2f %7.2f %7s", STAGES[i].label,
+                    h.valueAtPercentile(0.5) / 1e6, h.valueAtPercentile(0.99) / 1e6, h.valueAtPercentile(0.999) / 1e6,
+                    Double.isNaN(gpuNanos[i]) ? "-" : String.format("%.2f", gpuNanos[i] / 1e6));
+        }
+        for (int v = 0; v < views.length; v++) {
+            lines[STAGES.length + 1 + v] = String.format("%-10s %3d/%-3d pieces %3d/%-3d robots", views[v],
+                    piecesDrawn[v], pieces[v], robotsDrawn[v], robots[v]);
+        }
+        long issued = 0;
+        long skipped = 0;
+        for (int i = 0; i < stateChangesIssued.length; i++) {
+            issued += stateChangesIssued[i];
+            skipped += stateChangesSkipped[i];
+        }
+        lines[lines.length - 1] = String.format("%-10s %7d set %7d skipped", "state", issued, skipped);
+        return lines;
+    }
+
+    private double[] percentileMillis(double fraction) {
+        double[] result = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            result[i] = histograms[i].valueAtPercentile(fraction) / 1e6;
+        }
+        return result;
+    }
+
+    // The getters below are called from a JMX thread. They read the histograms without synchronization, which may
+    // give slightly inconsistent numbers while a frame is being recorded; that is acceptable for a readout.
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public String[] getStageNames() {
+        String[] names = new String[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            names[i] = STAGES[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public double[] getP50Millis() {
+        return percentileMillis(0.5);
+    }
+
+    @Override
+    public double[] getP99Millis() {
+        return percentileMillis(0.99);
+    }
+
+    @Override
+    public double[] getP999Millis() {
+        return percentileMillis(0.999);
+    }
+
+    @Override
+    public double[] getMaxMillis() {
+        double[] result = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            result[i] = histograms[i].getMaxValue() / 1e6;
+        }
+        return result;
+    }
+
+    @Override
+    public double[] getGpuMillis() {
+        double[] result = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            result[i] = gpuNanos[i] / 1e6;
+        }
+        return result;
+    }
+
+    @Override
+    public double[] getAllocatedBytesPerFrame() {
+        double[] result = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            result[i] = stageCount[i] == 0 ? 0 : (double) stageAllocated[i] / stageCount[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getViewNames() {
+        return views.clone();
+    }
+
+    @Override
+    public int[] getTrackPiecesDrawn() {
+        return piecesDrawn.clone();
+    }
+
+    @Override
+    public int[] getTrackPiecesCulled() {
+        return difference(pieces, piecesDrawn);
+    }
+
+    @Override
+    public int[] getRobotsDrawn() {
+        return robotsDrawn.clone();
+    }
+
+    @Override
+    public int[] getRobotsCulled() {
+        return difference(robots, robotsDrawn);
+    }
+
+    @Override
+    public String[] getStateChangeKinds() {
+        return GLState.KINDS.clone();
+    }
+
+    @Override
+    public long[] getStateChangesIssued() {
+        return stateChangesIssued.clone();
+    }
+
+    @Override
+    public long[] getStateChangesSkipped() {
+        return stateChangesSkipped.clone();
+    }
+
+    private static int[] difference(int[] total, int[] drawn) {
+        int[] result = new int[total.length];
+        for (int i = 0; i < total.length; i++) {
+            result[i] = total[i] - drawn[i];
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : histograms) {
+            h.reset();
+        }
+        java.util.Arrays.fill(stageAllocated, 0);
+        java.util.Arrays.fill(stageCount, 0);
+        java.util.Arrays.fill(gpuNanos, Double.NaN);
+    }
+}
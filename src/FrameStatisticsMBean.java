@@ -0,0 +1,45 @@
+/**
+ * Management interface through which the frame statistics can be read over JMX (e.g. with jconsole or VisualVM).
+ * All arrays are indexed in the order of {@link #getStageNames()}, all times are in milliseconds.
+ */
+public interface FrameStatisticsMBean {
+    long getFrameCount();
+
+    String[] getStageNames();
+
+    double[] getP50Millis();
+
+    double[] getP99Millis();
+
+    double[] getP999Millis();
+
+    double[] getMaxMillis();
+
+    // Average GPU time of the stages measured with timer queries, NaN for stages that are not (or cannot be) measured.
+    double[] getGpuMillis();
+
+    // Average number of bytes allocated by each stage (the FRAME_INTERVAL stage is not measured and stays 0).
+    double[] getAllocatedBytesPerFrame();
+
+    // The views whose track pieces and robots are culled separately, in the order of the arrays below.
+    String[] getViewNames();
+
+    // Per view the number of track pieces and robots drawn and culled in the last frame.
+    int[] getTrackPiecesDrawn();
+
+    int[] getTrackPiecesCulled();
+
+    int[] getRobotsDrawn();
+
+    int[] getRobotsCulled();
+
+    // The kinds of OpenGL state changes that are tracked, in the order of the arrays below.
+    String[] getStateChangeKinds();
+
+    // Per kind the number of state changes passed on to OpenGL and skipped as redundant in the last frame.
+    long[] getStateChangesIssued();
+
+    long[] getStateChangesSkipped();
+
+    void reset();
+}
@@ -0,0 +1,123 @@
+/**
+ * The volume a perspective camera sees, as set up with gluPerspective and gluLookAt, for testing whether objects can
+ * be visible at all before drawing them.
+ *
+ * The frustum is bounded by six planes, each stored as a unit normal pointing into the frustum and an offset, such that
+ * a point p lies on the inside of a plane when normal . p + offset >= 0. The planes follow directly from the camera:
+ * the near and far planes lie along the viewing direction, the four side planes pass through the eye and are tilted by
+ * half the field of view. Tests are conservative: an object reported invisible is certainly outside the frustum, an
+ * object reported visible may still lie just outside a corner of it.
+ * <p/>
+ * A frustum is set again every frame and does not allocate, such that it can be kept per view.
+ */
+class Frustum {
+    // Results of testing a box against the frustum.
+    static final int OUTSIDE = 0;
+    static final int INTERSECTING = 1;
+    static final int INSIDE = 2;
+
+    private static final int PLANES = 6;
+
+    // Per plane its normal (x, y, z) and offset.
+    private final double[] planes = new double[PLANES * 4];
+
+    /**
+     * Set the frustum of a camera.
+     *
+     * @param fovy vertical field of view in degrees, as given to gluPerspective
+     * @param aspect width divided by height of the view
+     * @param near distance to the near clipping plane
+     * @param far distance to the far clipping plane
+     * @param eye position of the camera, as given to gluLookAt
+     * @param center point the camera looks at
+     * @param up up direction of the camera
+     */
+    void set(double fovy, double aspect, double near, double far, double[] eye, double[] center, double[] up) {
+        // The viewing direction f, and the directions s to the right and u upwards on the screen, as gluLookAt has them.
+        double fx = center[0] - eye[0];
+        double fy = center[1] - eye[1];
+        double fz = center[2] - eye[2];
+        double fLength = Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= fLength;
+        fy /= fLength;
+        fz /= fLength;
+        double sx = fy * up[2] - fz * up[1];
+        double sy = fz * up[0] - fx * up[2];
+        double sz = fx * up[1] - fy * up[0];
+        double sLength = Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx /= sLength;
+        sy /= sLength;
+        sz /= sLength;
+        double ux = sy * fz - sz * fy;
+        double uy = sz * fx - sx * fz;
+        double uz = sx * fy - sy * fx;
+
+        double tanY = Math.tan(Math.toRadians(fovy) / 2);
+        double tanX = tanY * aspect;
+
+        // Near and far planes, facing each other.
+        setPlane(0, fx, fy, fz, -(fx * eye[0] + fy * eye[1] + fz * eye[2]) - near);
+        setPlane(1, -fx, -fy, -fz, fx * eye[0] + fy * eye[1] + fz * eye[2] + far);
+        // The side planes contain the eye and the edges of the view, e.g. the right one contains f + tanX s and u, so
+        // its inward normal is tanX f - s.
+        setThroughEye(2, tanX * fx - sx, tanX * fy - sy, tanX * fz - sz, eye);
+        setThroughEye(3, tanX * fx + sx, tanX * fy + sy, tanX * fz + sz, eye);
+        setThroughEye(4, tanY * fx - ux, tanY * fy - uy, tanY * fz - uz, eye);
+        setThroughEye(5, tanY * fx + ux, tanY * fy + uy, tanY * fz + uz, eye);
+    }
+
+    private void setThroughEye(int plane, double nx, double ny, double nz, double[] eye) {
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        setPlane(plane, nx, ny, nz, -(nx * eye[0] + ny * eye[1] + nz * eye[2]));
+    }
+
+    private void setPlane(int plane, double nx, double ny, double nz, double offset) {
+        planes[plane * 4] = nx;
+        planes[plane * 4 + 1] = ny;
+        planes[plane * 4 + 2] = nz;
+        planes[plane * 4 + 3] = offset;
+    }
+
+    /**
+     * @return whether a sphere may be visible.
+     */
+    boolean intersectsSphere(double x, double y, double z, double radius) {
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test an axis-aligned box against the frustum.
+     *
+     * @param box minimum x, y and z followed by maximum x, y and z
+     * @param offset index of the box in the array
+     * @return OUTSIDE, INTERSECTING or INSIDE
+     */
+    int classifyBox(double[] box, int offset) {
+        int result = INSIDE;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            double nx = planes[i];
+            double ny = planes[i + 1];
+            double nz = planes[i + 2];
+            // The corner furthest along the normal, and the corner furthest against it.
+            double far = nx * box[offset + (nx >= 0 ? 3 : 0)] + ny * box[offset + (ny >= 0 ? 4 : 1)]
+                    + nz * box[offset + (nz >= 0 ? 5 : 2)] + planes[i + 3];
+            if (far < 0) {
+                return OUTSIDE;
+            }
+            double near = nx * box[offset + (nx >= 0 ? 0 : 3)] + ny * box[offset + (ny >= 0 ? 1 : 4)]
+                    + nz * box[offset + (nz >= 0 ? 2 : 5)] + planes[i + 3];
+            if (near < 0) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+}
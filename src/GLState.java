@@ -0,0 +1,339 @@
+import com.jogamp.opengl.util.texture.Texture;
+
+import javax.media.opengl.GL2;
+
+import static javax.media.opengl.GL2.*;
+
+/**
+ * Remembers the OpenGL state set through it and skips setting a value again that is already set, counting how many
+ * changes were passed on to OpenGL and how many were skipped.
+ *
+ * Tracked are the current colour, the current normal, material parameters, enabled capabilities and the bound texture.
+ * The remembered state is only right as long as all changes to it go through the tracker, so anything else that may
+ * change it, such as popping attributes, must be followed by invalidate(). Display-lists are compiled and called
+ * through the tracker: while compiling every change is passed on, as the list may later be called in any state, and
+ * after a list is called the state is forgotten, unless it only holds geometry. The pieces of the track and the
+ * terrain are such lists, with their colour and textures set through the tracker around them, so the state carries
+ * over from the track to the robots to the terrain, and from one view to the next. The current normal is only
+ * remembered within a primitive started with begin, as GLUT sets normals of its own between primitives. With
+ * GL_COLOR_MATERIAL a colour also changes the ambient and diffuse material, which are forgotten on every new colour,
+ * and setting either material overrides what the colour set, so the colour is forgotten on every new ambient or
+ * diffuse material.
+ * <p/>
+ * Nothing is allocated while drawing, a tracker is kept for the whole life of the renderer and used on its thread only.
+ */
+class GLState {
+    // The kinds of state changes that are counted.
+    static final String[] KINDS = {"color", "normal", "material", "enable", "texture"};
+    static final int COLOR = 0;
+    static final int NORMAL = 1;
+    static final int MATERIAL = 2;
+    static final int ENABLE = 3;
+    static final int TEXTURE = 4;
+
+    // Largest number of material parameters and capabilities that are remembered at the same time.
+    private static final int MAX_MATERIALS = 8;
+    private static final int MAX_CAPABILITIES = 8;
+
+    // Per kind the number of changes passed on and skipped since the last call to resetCounts.
+    private final long[] issued = new long[KINDS.length];
+    private final long[] skipped = new long[KINDS.length];
+
+    // The current colour and normal, and whether they are known.
+    private final float[] color = new float[4];
+    private boolean colorKnown;
+    private final double[] normal = new double[3];
+    private boolean normalKnown;
+
+    // Per remembered material parameter its face, name and up to four values.
+    private final int[] materialFace = new int[MAX_MATERIALS];
+    private final int[] materialName = new int[MAX_MATERIALS];
+    private final float[] materialValues = new float[MAX_MATERIALS * 4];
+    private int materials;
+
+    // Per remembered capability whether it is enabled.
+    private final int[] capability = new int[MAX_CAPABILITIES];
+    private final boolean[] enabled = new boolean[MAX_CAPABILITIES];
+    private int capabilities;
+
+    // The texture bound last, null if not known.
+    private Texture boundTexture;
+
+    // Whether a display-list is being compiled.
+    private boolean compiling;
+
+    /**
+     * Forget all state, after something other than this tracker may have changed it.
+     */
+    void invalidate() {
+        colorKnown = false;
+        normalKnown = false;
+        materials = 0;
+        capabilities = 0;
+        boundTexture = null;
+    }
+
+    /**
+     * Call a display-list and forget the state, which the list may have changed.
+     */
+    void callList(GL2 gl, int list) {
+        gl.glCallList(list);
+        invalidate();
+    }
+
+    /**
+     * Call a display-list that holds nothing but geometry, such as a piece of the track, keeping the state. Only the
+     * normal is forgotten, which the vertices of the list set.
+     */
+    void callGeometryList(GL2 gl, int list) {
+        gl.glCallList(list);
+        normalKnown = false;
+    }
+
+    /**
+     * Start compiling a display-list, as glNewList.
+     */
+    void newList(GL2 gl, int list, int mode) {
+        gl.glNewList(list, mode);
+        compiling = true;
+    }
+
+    /**
+     * Finish compiling a display-list, as glEndList.
+     */
+    void endList(GL2 gl) {
+        gl.glEndList();
+        compiling = false;
+        invalidate();
+    }
+
+    /**
+     * Start a primitive, as glBegin.
+     */
+    void begin(GL2 gl, int mode) {
+        normalKnown = false;
+        gl.glBegin(mode);
+    }
+
+    /**
+     * End a primitive, as glEnd.
+     */
+    void end(GL2 gl) {
+        gl.glEnd();
+        normalKnown = false;
+    }
+
+    /**
+     * Set the current colour, as glColor3f.
+     */
+    void color(GL2 gl, float r, float g, float b) {
+        color(gl, r, g, b, 1);
+    }
+
+    /**
+     * Set the current colour, as glColor4f.
+     */
+    void color(GL2 gl, float r, float g, float b, float a) {
+        if (!compiling && colorKnown && color[0] == r && color[1] == g && color[2] == b && color[3] == a) {
+            skipped[COLOR]++;
+            return;
+        }
+        gl.glColor4f(r, g, b, a);
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+        color[3] = a;
+        colorKnown = true;
+        issued[COLOR]++;
+        forgetColorMaterial();
+    }
+
+    /**
+     * Set the current normal, as glNormal3d.
+     */
+    void normal(GL2 gl, double x, double y, double z) {
+        if (!compiling && normalKnown && normal[0] == x && normal[1] == y && normal[2] == z) {
+            skipped[NORMAL]++;
+            return;
+        }
+        gl.glNormal3d(x, y, z);
+        normal[0] = x;
+        normal[1] = y;
+        normal[2] = z;
+        normalKnown = true;
+        issued[NORMAL]++;
+    }
+
+    /**
+     * Set a material parameter of one value, as glMaterialf.
+     */
+    void material(GL2 gl, int face, int name, float value) {
+        int i = findMaterial(face, name);
+        if (!compiling && i >= 0 && materialValues[i * 4] == value) {
+            skipped[MATERIAL]++;
+            return;
+        }
+        gl.glMaterialf(face, name, value);
+        rememberMaterial(i, face, name, value, value, value, value);
+    }
+
+    /**
+     * Set a material parameter of four values, as glMaterialfv.
+     */
+    void material(GL2 gl, int face, int name, float[] values) {
+        int i = findMaterial(face, name);
+        if (!compiling && i >= 0 && materialValues[i * 4] == values[0] && materialValues[i * 4 + 1] == values[1]
+                && materialValues[i * 4 + 2] == values[2] && materialValues[i * 4 + 3] == values[3]) {
+            skipped[MATERIAL]++;
+            return;
+        }
+        gl.glMaterialfv(face, name, values, 0);
+        rememberMaterial(i, face, name, values[0], values[1], values[2], values[3]);
+    }
+
+    /**
+     * Enable a capability, as glEnable.
+     */
+    void enable(GL2 gl, int cap) {
+        if (setCapability(cap, true)) {
+            gl.glEnable(cap);
+        }
+    }
+
+    /**
+     * Disable a capability, as glDisable.
+     */
+    void disable(GL2 gl, int cap) {
+        if (setCapability(cap, false)) {
+            gl.glDisable(cap);
+        }
+    }
+
+    /**
+     * Enable texturing with a texture and bind it, as Texture.enable followed by Texture.bind.
+     */
+    void enableTexture(GL2 gl, Texture texture) {
+        enable(gl, texture.getTarget());
+        if (!compiling && boundTexture == texture) {
+            skipped[TEXTURE]++;
+            return;
+        }
+        texture.bind(gl);
+        boundTexture = texture;
+        issued[TEXTURE]++;
+    }
+
+    /**
+     * Disable texturing with a texture, as Texture.disable, leaving it bound.
+     */
+    void disableTexture(GL2 gl, Texture texture) {
+        disable(gl, texture.getTarget());
+    }
+
+    /**
+     * @return per kind the number of state changes passed on to OpenGL since the last reset.
+     */
+    long[] getIssued() {
+        return issued;
+    }
+
+    /**
+     * @return per kind the number of state changes skipped since the last reset.
+     */
+    long[] getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Start counting from zero, e.g. at the start of a frame.
+     */
+    void resetCounts() {
+        java.util.Arrays.fill(issued, 0);
+        java.util.Arrays.fill(skipped, 0);
+    }
+
+    private int findMaterial(int face, int name) {
+        for (int i = 0; i < materials; i++) {
+            if (materialFace[i] == face && materialName[i] == name) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void rememberMaterial(int i, int face, int name, float v0, float v1, float v2, float v3) {
+        issued[MATERIAL]++;
+        if (overlaps(name, GL_AMBIENT) || overlaps(name, GL_DIFFUSE)) {
+            // The next colour has to be set again, even if it is the same, to override the material.
+            colorKnown = false;
+        }
+        if (i < 0) {
+            // Setting the parameter for a face changes what is remembered for the other faces, forget those.
+            forgetMaterials(name);
+            if (materials == MAX_MATERIALS) {
+                return;
+            }
+            i = materials++;
+        }
+        materialFace[i] = face;
+        materialName[i] = name;
+        materialValues[i * 4] = v0;
+        materialValues[i * 4 + 1] = v1;
+        materialValues[i * 4 + 2] = v2;
+        materialValues[i * 4 + 3] = v3;
+    }
+
+    // Forget the parameters that overlap with the given one, set for another face or as a combined parameter.
+    private void forgetMaterials(int name) {
+        int kept = 0;
+        for (int i = 0; i < materials; i++) {
+            if (overlaps(materialName[i], name)) {
+                continue;
+            }
+            materialFace[kept] = materialFace[i];
+            materialName[kept] = materialName[i];
+            System.arraycopy(materialValues, i * 4, materialValues, kept * 4, 4);
+            kept++;
+        }
+        materials = kept;
+    }
+
+    private static boolean overlaps(int a, int b) {
+        return a == b || (a == GL_AMBIENT_AND_DIFFUSE && (b == GL_AMBIENT || b == GL_DIFFUSE))
+                || (b == GL_AMBIENT_AND_DIFFUSE && (a == GL_AMBIENT || a == GL_DIFFUSE));
+    }
+
+    // A colour may have changed the ambient and diffuse material through GL_COLOR_MATERIAL.
+    private void forgetColorMaterial() {
+        if (materials > 0) {
+            forgetMaterials(GL_AMBIENT);
+            forgetMaterials(GL_DIFFUSE);
+        }
+    }
+
+    /**
+     * Remember the state of a capability.
+     *
+     * @return whether it has to be passed on.
+     */
+    private boolean setCapability(int cap, boolean enable) {
+        for (int i = 0; i < capabilities; i++) {
+            if (capability[i] == cap) {
+                if (!compiling && enabled[i] == enable) {
+                    skipped[ENABLE]++;
+                    return false;
+                }
+                enabled[i] = enable;
+                issued[ENABLE]++;
+                return true;
+            }
+        }
+        if (capabilities < MAX_CAPABILITIES) {
+            capability[capabilities] = cap;
+            enabled[capabilities] = enable;
+            capabilities++;
+        }
+        issued[ENABLE]++;
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * The number of lanes of a track and their width, from which the sideways position of every lane follows.
+ *
+ * Lanes are numbered from the left border of the track, seen in the direction of the track, and lie side by side
+ * without gaps, so the track is lanes * laneWidth wide and centred on the curve that defines it. Sideways positions
+ * are given in lanes, e.g. 1.5 for halfway lanes 1 and 2, such that a robot changing lanes moves over linearly.
+ */
+class LaneLayout {
+    // The layout of the assignment: four lanes of a meter.
+    static final LaneLayout DEFAULT = new LaneLayout(4, 1.0);
+
+    final int lanes;
+    final double laneWidth;
+
+    /**
+     * @param lanes number of lanes, at least one
+     * @param laneWidth width of each lane in meters
+     */
+    LaneLayout(int lanes, double laneWidth) {
+        if (lanes < 1 || !(laneWidth > 0)) {
+            throw new IllegalArgumentException("Invalid lane layout: " + lanes + " lanes of " + laneWidth + " m");
+        }
+        this.lanes = lanes;
+        this.laneWidth = laneWidth;
+    }
+
+    /**
+     * The layout given on the command line (-Drobotrace.lanes=n and -Drobotrace.laneWidth=meters), with the default
+     * layout for what is not given.
+     */
+    static LaneLayout fromProperties() {
+        int lanes = Integer.getInteger("robotrace.lanes", DEFAULT.lanes);
+        String laneWidth = System.getProperty("robotrace.laneWidth");
+        return new LaneLayout(lanes, laneWidth != null ? Double.parseDouble(laneWidth) : DEFAULT.laneWidth);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LaneLayout && ((LaneLayout) o).lanes == lanes && ((LaneLayout) o).laneWidth == laneWidth;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * lanes + Double.valueOf(laneWidth).hashCode();
+    }
+
+    /**
+     * @return the width of the whole track in meters.
+     */
+    double width() {
+        return lanes * laneWidth;
+    }
+
+    /**
+     * @param lanePosition sideways position in lanes
+     * @return the distance in meters from the centre of the track to the middle of that position, positive to the left.
+     */
+    double offset(double lanePosition) {
+        return width() / 2.0 - (lanePosition + 0.5) * laneWidth;
+    }
+
+    /**
+     * @param border border between lanes, from 0 for the left border of lane 0 to lanes for the right border of the
+     *               last lane
+     * @return the distance in meters from the centre of the track to the border, positive to the left.
+     */
+    double borderOffset(int border) {
+        return width() / 2.0 - border * laneWidth;
+    }
+}
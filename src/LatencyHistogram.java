@@ -0,0 +1,101 @@
+/**
+ * Histogram of latencies in nanoseconds with a fixed relative precision, in the spirit of HdrHistogram.
+ *
+ * Values below 128 ns are counted exactly. Larger values are counted in buckets that each cover a power of two,
+ * split into 64 linear sub-buckets, which bounds the relative error of a reported value to about 1.5%. Recording a
+ * value is a couple of shifts and an array increment and never allocates, so it can be used every frame.
+ */
+class LatencyHistogram {
+    // Number of linear sub-buckets per power of two (the top half of the sub-bucket range).
+    private static final int SUB_BUCKET_HALF_COUNT = 64;
+    private static final int SUB_BUCKET_HALF_BITS = 6;
+    // Values below this are counted exactly, one bucket per nanosecond.
+    private static final int LINEAR_COUNT = 2 * SUB_BUCKET_HALF_COUNT;
+
+    // Enough buckets to hold any non-negative long.
+    private final long[] counts = new long[LINEAR_COUNT + (63 - SUB_BUCKET_HALF_BITS) * SUB_BUCKET_HALF_COUNT];
+
+    private long totalCount;
+    private long maxValue;
+
+    /**
+     * Record a single latency.
+     *
+     * @param nanos latency in nanoseconds, negative values are clamped to zero
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[indexOf(nanos)]++;
+        totalCount++;
+        if (nanos > maxValue) {
+            maxValue = nanos;
+        }
+    }
+
+    /**
+     * Return the value below which the given fraction of all recorded values lies.
+     *
+     * @param fraction fraction within [0,1], e.g. 0.99 for the 99th percentile
+     * @return the upper bound, in nanoseconds, of the bucket holding that percentile, or 0 when nothing was recorded
+     */
+    long valueAtPercentile(double fraction) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        // The rank of the requested value, at least 1 such that the 0th percentile is the smallest recorded value.
+        long rank = Math.max(1, (long) Math.ceil(fraction * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Forget all recorded values.
+     */
+    void reset() {
+        java.util.Arrays.fill(counts, 0);
+        totalCount = 0;
+        maxValue = 0;
+    }
+
+    /**
+     * Map a value to its bucket. Values below LINEAR_COUNT map onto themselves, larger values are shifted right until
+     * they fall within [SUB_BUCKET_HALF_COUNT, LINEAR_COUNT) and then placed in the block for that shift.
+     */
+    private static int indexOf(long value) {
+        if (value < LINEAR_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_HALF_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+        return LINEAR_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    /**
+     * The largest value that maps to the given bucket, the inverse of indexOf.
+     */
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_COUNT) {
+            return index;
+        }
+        int shift = (index - LINEAR_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - LINEAR_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,231 @@
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+
+import static javax.media.opengl.GL2.*;
+
+/**
+ * The picture-in-picture overview: a fixed camera floating above the map, showing the whole track and where the robots
+ * are on it.
+ *
+ * Everything in the overview but the robots is static, so the track and the terrain are rendered once into the texture
+ * of a framebuffer object, again only when another track is drawn or the overview changes size. Every frame that
+ * texture is drawn as a single quad, with a point per robot on top of it, in the robot's colour. The points are moved
+ * at a lower rate than the frame rate, set on the command line (-Drobotrace.pipRate=per second, 0 for every frame).
+ * <p/>
+ * Without framebuffer objects the track and terrain are drawn every frame, as before.
+ */
+class PictureInPicture {
+    // The fixed camera.
+    static final double FOVY = 60;
+    static final double NEAR = 1.0;
+    static final double FAR = 100.0;
+    static final double[] EYE = {0, 0, 35};
+    static final double[] CENTER = {0, 0, 0};
+    static final double[] UP = {0, 1, 0};
+
+    // Default number of times per second the robot markers are moved.
+    static final double DEFAULT_RATE = 10;
+    static final double RATE = Double.parseDouble(System.getProperty("robotrace.pipRate",
+            Double.toString(DEFAULT_RATE)));
+
+    // Size of the robot markers in pixels.
+    static final float MARKER_SIZE = 6;
+
+    /**
+     * What the camera sees.
+     */
+    final Frustum frustum = new Frustum();
+
+    // The framebuffer object with its colour texture and depth buffer, 0 until created.
+    private int framebuffer;
+    private int texture;
+    private int depthBuffer;
+    private int size;
+    private boolean supported = true;
+    // The track in the texture, -1 if the texture is not rendered yet.
+    private int cachedTrackNr = -1;
+
+    // Position of the marker of each robot, three floats per robot, and when they were last moved.
+    private final float[] markers;
+    private long lastRefresh;
+    private boolean refreshed;
+
+    // What the overview drew in the last frame.
+    int piecesDrawn;
+    int robotsDrawn;
+
+    PictureInPicture(int robots) {
+        frustum.set(FOVY, 1, NEAR, FAR, EYE, CENTER, UP);
+        markers = new float[robots * 3];
+    }
+
+    /**
+     * Draw the overview in a square in the window.
+     *
+     * @param state tracker through which the track and the terrain set their colours and textures
+     * @param x left of the square in pixels
+     * @param y bottom of the square in pixels
+     * @param size width and height of the square in pixels
+     */
+    void draw(GL2 gl, GLU glu, GLState state, int x, int y, int size, RaceTrack raceTrack, Terrain terrain,
+              WorldSnapshot world, Robot[] robots) {
+        piecesDrawn = 0;
+        if (supported && size != this.size) {
+            resize(gl, size);
+        }
+
+        if (supported) {
+            if (cachedTrackNr != world.trackNr) {
+                // Render the track and the terrain into the texture.
+                gl.glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+                gl.glViewport(0, 0, size, size);
+                gl.glClearColor(1f, 1f, 1f, 1f);
+                gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+                setCamera(gl, glu);
+                piecesDrawn = raceTrack.draw(gl, state, world.trackNr, frustum);
+                terrain.draw(gl, state);
+                gl.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+                cachedTrackNr = world.trackNr;
+            }
+            gl.glViewport(x, y, size, size);
+            drawTexture(gl);
+        } else {
+            gl.glViewport(x, y, size, size);
+            gl.glClear(GL_DEPTH_BUFFER_BIT);
+            setCamera(gl, glu);
+            piecesDrawn = raceTrack.draw(gl, state, world.trackNr, frustum);
+            terrain.draw(gl, state);
+        }
+
+        setCamera(gl, glu);
+        drawMarkers(gl, world, robots);
+    }
+
+    /**
+     * Create the framebuffer object at the given size, or recreate it at a new size.
+     */
+    private void resize(GL2 gl, int size) {
+        if (framebuffer == 0 && !gl.isFunctionAvailable("glGenFramebuffers")) {
+            supported = false;
+            return;
+        }
+        release(gl);
+        this.size = size;
+        cachedTrackNr = -1;
+        int[] ids = new int[1];
+
+        gl.glGenTextures(1, ids, 0);
+        texture = ids[0];
+        gl.glBindTexture(GL_TEXTURE_2D, texture);
+        gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, size, size, 0, GL_RGBA, GL_UNSIGNED_BYTE, null);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        gl.glBindTexture(GL_TEXTURE_2D, 0);
+
+        gl.glGenRenderbuffers(1, ids, 0);
+        depthBuffer = ids[0];
+        gl.glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        gl.glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, size, size);
+        gl.glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        gl.glGenFramebuffers(1, ids, 0);
+        framebuffer = ids[0];
+        gl.glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        gl.glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture, 0);
+        gl.glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        int status = gl.glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        gl.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            System.err.println("Unable to render the picture-in-picture to a texture, framebuffer status " + status);
+            release(gl);
+            supported = false;
+        }
+    }
+
+    private void release(GL2 gl) {
+        if (framebuffer != 0) {
+            gl.glDeleteFramebuffers(1, new int[]{framebuffer}, 0);
+            gl.glDeleteRenderbuffers(1, new int[]{depthBuffer}, 0);
+            gl.glDeleteTextures(1, new int[]{texture}, 0);
+            framebuffer = 0;
+        }
+    }
+
+    private void setCamera(GL2 gl, GLU glu) {
+        gl.glMatrixMode(GL_PROJECTION);
+        gl.glLoadIdentity();
+        glu.gluPerspective(FOVY, 1, NEAR, FAR);
+        gl.glMatrixMode(GL_MODELVIEW);
+        gl.glLoadIdentity();
+        glu.gluLookAt(EYE[0], EYE[1], EYE[2], CENTER[0], CENTER[1], CENTER[2], UP[0], UP[1], UP[2]);
+    }
+
+    /**
+     * Draw the rendered texture over the whole viewport, as it is: without lighting, blending or depth.
+     */
+    private void drawTexture(GL2 gl) {
+        gl.glPushAttrib(GL_ENABLE_BIT | GL_CURRENT_BIT | GL_TEXTURE_BIT);
+        gl.glDisable(GL_LIGHTING);
+        gl.glDisable(GL_BLEND);
+        gl.glDisable(GL_DEPTH_TEST);
+        gl.glEnable(GL_TEXTURE_2D);
+        gl.glBindTexture(GL_TEXTURE_2D, texture);
+        gl.glMatrixMode(GL_PROJECTION);
+        gl.glLoadIdentity();
+        gl.glOrtho(0, 1, 0, 1, -1, 1);
+        gl.glMatrixMode(GL_MODELVIEW);
+        gl.glLoadIdentity();
+
+        gl.glColor3f(1f, 1f, 1f);
+        gl.glBegin(GL_QUADS);
+        gl.glTexCoord2f(0, 0);
+        gl.glVertex2f(0, 0);
+        gl.glTexCoord2f(1, 0);
+        gl.glVertex2f(1, 0);
+        gl.glTexCoord2f(1, 1);
+        gl.glVertex2f(1, 1);
+        gl.glTexCoord2f(0, 1);
+        gl.glVertex2f(0, 1);
+        gl.glEnd();
+        gl.glPopAttrib();
+    }
+
+    /**
+     * Draw a point halfway up every robot, on top of everything, moving the points only at the rate asked for.
+     */
+    private void drawMarkers(GL2 gl, WorldSnapshot world, Robot[] robots) {
+        long now = System.nanoTime();
+        if (!refreshed || RATE <= 0 || now - lastRefresh >= 1e9 / RATE) {
+            lastRefresh = now;
+            refreshed = true;
+            double up = Robot.height / 2;
+            for (int i = 0; i < robots.length; i++) {
+                RobotKinematics pose = world.robots[i];
+                markers[i * 3] = (float) (pose.position.x() + up * pose.normal.x());
+                markers[i * 3 + 1] = (float) (pose.position.y() + up * pose.normal.y());
+                markers[i * 3 + 2] = (float) (pose.position.z() + up * pose.normal.z());
+            }
+        }
+
+        gl.glPushAttrib(GL_ENABLE_BIT | GL_CURRENT_BIT | GL_POINT_BIT);
+        gl.glDisable(GL_LIGHTING);
+        gl.glDisable(GL_TEXTURE_2D);
+        gl.glDisable(GL_DEPTH_TEST);
+        gl.glPointSize(MARKER_SIZE);
+        robotsDrawn = 0;
+        gl.glBegin(GL_POINTS);
+        for (int i = 0; i < robots.length; i++) {
+            if (!frustum.intersectsSphere(markers[i * 3], markers[i * 3 + 1], markers[i * 3 + 2], 0)) {
+                continue;
+            }
+            float[] color = robots[i].getMarkerColor();
+            gl.glColor3f(color[0], color[1], color[2]);
+            gl.glVertex3f(markers[i * 3], markers[i * 3 + 1], markers[i * 3 + 2]);
+            robotsDrawn++;
+        }
+        gl.glEnd();
+        gl.glPopAttrib();
+    }
+}
@@ -0,0 +1,221 @@
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+
+/**
+ * Plays a race back from a PoseRecording instead of simulating it.
+ *
+ * Playback keeps a position in the recording that advances with the wall clock times the playback rate, which can be
+ * negative to rewind, larger than 1 to fast-forward and 0 to pause. Each frame the renderer asks for the snapshot at
+ * the current position, which the reader takes from its cache or reads from disk.
+ * <p/>
+ * All methods are synchronized, as the renderer and the PlaybackControls window call them from different threads.
+ */
+class Playback implements SnapshotSource {
+    private final PoseRecording.Reader recording;
+
+    // Position in the recording in nanoseconds, from 0 to recording.duration().
+    private double position;
+    // Nanoseconds of recording played per nanosecond of wall clock time, 0 until started.
+    private double rate = 0;
+    private long lastTime = System.nanoTime();
+
+    // The snapshot returned last and the frame it was read from, to not read the same frame twice in a row. Never null,
+    // as the first frame is read when the playback is opened.
+    private WorldSnapshot current;
+    private long currentIndex;
+
+    /**
+     * @throws IOException if the first frame of the recording cannot be read, in which case the recording is closed
+     */
+    Playback(PoseRecording.Reader recording) throws IOException {
+        this.recording = recording;
+        try {
+            current = recording.snapshot(0, 0);
+        } catch (IOException e) {
+            recording.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the snapshot at the current playback position.
+     */
+    @Override
+    public synchronized WorldSnapshot latest() {
+        long now = System.nanoTime();
+        position += (now - lastTime) * rate;
+        lastTime = now;
+        // Stop at either end of the recording, rather than running past it.
+        if ((position <= 0 && rate < 0) || (position >= recording.duration() && rate > 0)) {
+            position = Math.max(0, Math.min(recording.duration(), position));
+            rate = 0;
+        }
+
+        long index = (long) (position / recording.tickNanos);
+        if (index != currentIndex) {
+            try {
+                current = recording.snapshot(index, (int) Math.signum(rate));
+                currentIndex = index;
+            } catch (IOException e) {
+                // Keep showing the last frame that could be read, at least the first one.
+                System.err.println("Unable to read pose recording: " + e);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Start playing at normal speed from the current position.
+     */
+    void start() {
+        setRate(1);
+    }
+
+    /**
+     * Set the speed of playback.
+     *
+     * @param rate 1 for normal speed, negative to rewind, 0 to pause
+     */
+    synchronized void setRate(double rate) {
+        advanceClock();
+        this.rate = rate;
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Jump to a moment in the recording, keeping the current rate.
+     *
+     * @param seconds time since the start of the recording
+     */
+    synchronized void seek(double seconds) {
+        advanceClock();
+        position = Math.max(0, Math.min(recording.duration(), seconds * 1e9));
+    }
+
+    /**
+     * @return the current position in seconds since the start of the recording.
+     */
+    synchronized double getPosition() {
+        return position / 1e9;
+    }
+
+    /**
+     * @return the length of the recording in seconds.
+     */
+    double getDuration() {
+        return recording.duration() / 1e9;
+    }
+
+    void close() throws IOException {
+        recording.close();
+    }
+
+    // Let the time passed so far count at the old rate, before the rate or position changes.
+    private void advanceClock() {
+        long now = System.nanoTime();
+        position = Math.max(0, Math.min(recording.duration(), position + (now - lastTime) * rate));
+        lastTime = now;
+    }
+}
+
+/**
+ * Small window with the controls of a Playback: rewind, pause, play, fast-forward and a slider to scrub through the
+ * recording.
+ */
+class PlaybackControls extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    // Rate used by the rewind and fast-forward buttons, each press doubling it up to MAX_RATE.
+    private static final double MAX_RATE = 32;
+    // Number of slider steps per second of recording.
+    private static final int SLIDER_STEPS_PER_SECOND = 10;
+
+    private final Playback playback;
+    private final JSlider slider;
+    private final JLabel status = new JLabel();
+
+    // Set while the slider is moved by the timer rather than by the user.
+    private boolean updatingSlider;
+
+    PlaybackControls(final Playback playback) {
+        super("Robot Race playback");
+        this.playback = playback;
+
+        JPanel buttons = new JPanel();
+        buttons.add(rateButton("<<", -2));
+        buttons.add(rateButton("||", 0));
+        buttons.add(rateButton(">", 1));
+        buttons.add(rateButton(">>", 2));
+        buttons.add(status);
+
+        slider = new JSlider(0, (int) Math.ceil(playback.getDuration() * SLIDER_STEPS_PER_SECOND), 0);
+        slider.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (!updatingSlider) {
+                    playback.seek(slider.getValue() / (double) SLIDER_STEPS_PER_SECOND);
+                }
+            }
+        });
+
+        // Follow the playback position, unless the user is dragging the slider.
+        new Timer(100, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                double position = playback.getPosition();
+                status.setText(String.format("%.1f / %.1f s  x%s", position, playback.getDuration(),
+                        formatRate(playback.getRate())));
+                if (!slider.getValueIsAdjusting()) {
+                    updatingSlider = true;
+                    slider.setValue((int) Math.round(position * SLIDER_STEPS_PER_SECOND));
+                    updatingSlider = false;
+                }
+            }
+        }).start();
+
+        getContentPane().add(buttons, BorderLayout.NORTH);
+        getContentPane().add(slider, BorderLayout.SOUTH);
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        pack();
+    }
+
+    /**
+     * Create a button changing the playback rate. A factor of 2 or -2 doubles the rate in that direction, starting
+     * from normal speed, such that pressing fast-forward repeatedly plays faster and faster.
+     */
+    private JButton rateButton(String label, final double factor) {
+        JButton button = new JButton(label);
+        button.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                double rate = playback.getRate();
+                if (Math.abs(factor) <= 1) {
+                    rate = factor;
+                } else if (Math.signum(rate) == Math.signum(factor) && Math.abs(rate) >= 1) {
+                    rate = Math.min(Math.abs(rate * 2), MAX_RATE) * Math.signum(factor);
+                } else {
+                    rate = factor;
+                }
+                playback.setRate(rate);
+            }
+        });
+        return button;
+    }
+
+    private static String formatRate(double rate) {
+        return rate == Math.rint(rate) ? String.valueOf((long) rate) : String.valueOf(rate);
+    }
+}
@@ -0,0 +1,343 @@
+import robotrace.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Recording of the poses of all robots at every tick, from which a race can be watched again without simulating it.
+ *
+ * Unlike a ReplayLog, which only holds the input of a race, a pose recording holds exactly what the renderer needs,
+ * so any moment of the race can be shown without running the ticks before it. Every tick is stored in a frame of the
+ * same size, and the ticks of a recording are consecutive, so the frame of a tick lies at
+ * HEADER_SIZE + (tick - firstTick) * frameSize: seeking to a moment is a multiplication, the fixed layout is the index.
+ * The layout (big-endian) is:
+ * <pre>
+ * header, HEADER_SIZE bytes:
+ *  int    magic          'RRPS'
+ *  int    version        2
+ *  long   tickNanos      length of a tick in nanoseconds
+ *  int    robots         number of robots per frame
+ *  int    frameSize      size of a frame in bytes
+ *  long   tickCount      number of frames, -1 if the recording was not closed properly
+ * frame, frameSize bytes:
+ *  long   tick
+ *  int    trackNr
+ *  robot[robots], ROBOT_SIZE bytes each:
+ *   float  position[3], tangent[3], normal[3]
+ *   double distCovered
+ *   float  limbAngles[LIMB_ANGLE_COUNT]
+ *  short  ranking[robots] the robots from the leader to the last one
+ * </pre>
+ * Poses are stored as floats, which is more than precise enough to draw them and halves the size of a recording
+ * (about 4 MB per minute for four robots at 240 ticks per second).
+ */
+class PoseRecording {
+    static final int MAGIC = 0x52525053;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+
+    private static final int TICK_COUNT_OFFSET = 24;
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int ROBOT_SIZE = 9 * 4 + 8 + RobotKinematics.LIMB_ANGLE_COUNT * 4;
+
+    static int frameSize(int robots) {
+        return FRAME_HEADER_SIZE + robots * (ROBOT_SIZE + 2);
+    }
+
+    /**
+     * Writes a pose recording while a race is running. Not thread-safe, it is meant to be fed by the simulation thread.
+     */
+    static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final int robots;
+        private long tickCount;
+
+        Writer(File file, int robots) throws IOException {
+            this.robots = robots;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(Simulation.TICK_NANOS);
+            buffer.putInt(robots);
+            buffer.putInt(frameSize(robots));
+            buffer.putLong(-1);
+        }
+
+        /**
+         * Append the poses of one tick.
+         *
+         * @param world the snapshot published after the tick
+         */
+        void write(WorldSnapshot world) throws IOException {
+            if (buffer.remaining() < frameSize(robots)) {
+                flush();
+            }
+            buffer.putLong(world.tick);
+            buffer.putInt(world.trackNr);
+            for (int i = 0; i < robots; i++) {
+                RobotKinematics pose = world.robots[i];
+                putVector(pose.position);
+                putVector(pose.tangent);
+                putVector(pose.normal);
+                buffer.putDouble(pose.distCovered);
+                for (int limb = 0; limb < RobotKinematics.LIMB_ANGLE_COUNT; limb += 2) {
+                    buffer.putFloat((float) pose.limbAngle(limb, false));
+                    buffer.putFloat((float) pose.limbAngle(limb, true));
+                }
+            }
+            for (int i = 0; i < robots; i++) {
+                buffer.putShort((short) world.ranking[i]);
+            }
+            tickCount++;
+        }
+
+        /**
+         * Write the remaining frames and fill in the tick count.
+         */
+        void close() throws IOException {
+            flush();
+            ByteBuffer count = ByteBuffer.allocate(8);
+            count.putLong(0, tickCount);
+            channel.write(count, TICK_COUNT_OFFSET);
+            channel.close();
+        }
+
+        private void putVector(Vector v) {
+            buffer.putFloat((float) v.x());
+            buffer.putFloat((float) v.y());
+            buffer.putFloat((float) v.z());
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads the frames of a pose recording in any order, without holding the whole recording in memory.
+     *
+     * Frames are read from disk in blocks of BLOCK_TICKS, of which the last CACHED_BLOCKS are kept. Every time a block
+     * is used, the block after it in the direction of playback is read ahead on a background thread, such that playing
+     * (forwards or backwards) normally never waits for the disk; only a jump to another moment does.
+     */
+    static class Reader {
+        private static final int BLOCK_TICKS = 256;
+        private static final int CACHED_BLOCKS = 8;
+
+        final long tickNanos;
+        final int robots;
+        final long tickCount;
+        final long firstTick;
+
+        private final FileChannel channel;
+        private final int frameSize;
+        private final long blockCount;
+
+        // The cached blocks by number, least recently used first. A block is in here from the moment it is requested,
+        // so a block is never read twice, even when it is requested again while it is still being read.
+        private final Map<Long, Future<ByteBuffer>> blocks = new LinkedHashMap<Long, Future<ByteBuffer>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Future<ByteBuffer>> eldest) {
+                return size() > CACHED_BLOCKS;
+            }
+        };
+
+        private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Pose recording prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Reader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException(file + " is not a pose recording");
+            }
+            tickNanos = header.getLong(8);
+            robots = header.getInt(16);
+            frameSize = header.getInt(20);
+            long count = header.getLong(TICK_COUNT_OFFSET);
+            // A recording of a race that was not ended properly still holds every frame that was flushed.
+            tickCount = count >= 0 ? count : (channel.size() - HEADER_SIZE) / frameSize;
+            if (frameSize != frameSize(robots) || tickCount <= 0) {
+                channel.close();
+                throw new IOException(file + " holds no frames that can be read");
+            }
+            blockCount = (tickCount + BLOCK_TICKS - 1) / BLOCK_TICKS;
+
+            ByteBuffer first = ByteBuffer.allocate(8);
+            readFully(first, HEADER_SIZE);
+            firstTick = first.getLong(0);
+        }
+
+        /**
+         * @return the length of the recording in nanoseconds.
+         */
+        long duration() {
+            return (tickCount - 1) * tickNanos;
+        }
+
+        /**
+         * Read the snapshot of a tick, and start reading ahead in the given direction.
+         *
+         * @param index number of the frame, from 0 to tickCount - 1; clamped to that range
+         * @param direction 1 when playing forwards, -1 when playing backwards, 0 to not read ahead
+         */
+        WorldSnapshot snapshot(long index, int direction) throws IOException {
+            index = Math.max(0, Math.min(tickCount - 1, index));
+            long blockNr = index / BLOCK_TICKS;
+            ByteBuffer block = block(blockNr);
+            long ahead = blockNr + direction;
+            if (direction != 0 && ahead >= 0 && ahead < blockCount) {
+                prefetch(ahead);
+            }
+
+            int offset = (int) (index % BLOCK_TICKS) * frameSize;
+            long tick = block.getLong(offset);
+            int trackNr = block.getInt(offset + 8);
+            offset += FRAME_HEADER_SIZE;
+
+            RobotKinematics[] poses = new RobotKinematics[robots];
+            double[] limbAngles = new double[RobotKinematics.LIMB_ANGLE_COUNT];
+            for (int i = 0; i < robots; i++) {
+                Vector position = getVector(block, offset);
+                Vector tangent = getVector(block, offset + 12);
+                Vector normal = getVector(block, offset + 24);
+                double distCovered = block.getDouble(offset + 36);
+                for (int limb = 0; limb < limbAngles.length; limb++) {
+                    limbAngles[limb] = block.getFloat(offset + 44 + limb * 4);
+                }
+                poses[i] = new RobotKinematics(position, tangent, normal, distCovered, limbAngles);
+                offset += ROBOT_SIZE;
+            }
+            int[] ranking = new int[robots];
+            for (int i = 0; i < robots; i++) {
+                ranking[i] = block.getShort(offset + i * 2);
+            }
+            return new WorldSnapshot(tick, trackNr, poses, ranking);
+        }
+
+        /**
+         * Read the track number of every frame, bypassing the cache, such that a recording can be checked against the
+         * tracks available before it is played.
+         *
+         * @return the highest track number used in the recording
+         * @throws IOException if a frame cannot be read or holds a negative track number
+         */
+        int highestTrackNr() throws IOException {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_TICKS * frameSize);
+            int highest = 0;
+            for (long blockNr = 0; blockNr < blockCount; blockNr++) {
+                long ticks = Math.min(BLOCK_TICKS, tickCount - blockNr * BLOCK_TICKS);
+                block.clear().limit((int) ticks * frameSize);
+                readFully(block, HEADER_SIZE + blockNr * BLOCK_TICKS * frameSize);
+                for (int offset = 0; offset < block.limit(); offset += frameSize) {
+                    int trackNr = block.getInt(offset + 8);
+                    if (trackNr < 0) {
+                        throw new IOException("Invalid track number " + trackNr + " in pose recording");
+                    }
+                    highest = Math.max(highest, trackNr);
+                }
+            }
+            return highest;
+        }
+
+        void close() throws IOException {
+            prefetcher.shutdownNow();
+            channel.close();
+        }
+
+        /**
+         * Get a block, reading it on the calling thread if it is not cached or being read ahead already.
+         */
+        private ByteBuffer block(long blockNr) throws IOException {
+            FutureTask<ByteBuffer> task = null;
+            Future<ByteBuffer> block;
+            synchronized (blocks) {
+                block = blocks.get(blockNr);
+                if (block == null) {
+                    task = readTask(blockNr);
+                    blocks.put(blockNr, task);
+                    block = task;
+                }
+            }
+            if (task != null) {
+                task.run();
+            }
+            try {
+                return block.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading frames", e);
+            } catch (ExecutionException e) {
+                // Forget the block, such that it is read again the next time instead of failing forever.
+                synchronized (blocks) {
+                    blocks.remove(blockNr);
+                }
+                throw new IOException("Unable to read frames", e.getCause());
+            }
+        }
+
+        /**
+         * Start reading a block on the background thread, if it is not cached or being read already.
+         */
+        private void prefetch(long blockNr) {
+            synchronized (blocks) {
+                if (blocks.containsKey(blockNr)) {
+                    return;
+                }
+                FutureTask<ByteBuffer> task = readTask(blockNr);
+                blocks.put(blockNr, task);
+                prefetcher.execute(task);
+            }
+        }
+
+        private FutureTask<ByteBuffer> readTask(final long blockNr) {
+            return new FutureTask<ByteBuffer>(new Callable<ByteBuffer>() {
+                @Override
+                public ByteBuffer call() throws IOException {
+                    long ticks = Math.min(BLOCK_TICKS, tickCount - blockNr * BLOCK_TICKS);
+                    ByteBuffer block = ByteBuffer.allocate((int) ticks * frameSize);
+                    readFully(block, HEADER_SIZE + blockNr * BLOCK_TICKS * frameSize);
+                    return block;
+                }
+            });
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of pose recording");
+                }
+            }
+        }
+
+        private static Vector getVector(ByteBuffer block, int offset) {
+            return new Vector(block.getFloat(offset), block.getFloat(offset + 4), block.getFloat(offset + 8));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Custom JDK Flight Recorder events of the robot race. They cost next to nothing while no recording is running, and
+ * with a recording (e.g. started with -XX:StartFlightRecording) they show up next to the GC events, such that a
+ * stutter can be matched with the stage that allocated the garbage.
+ */
+class RaceEvents {
+    // Only the com.sun.management variant of the thread bean can report allocated bytes.
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    /**
+     * @return the number of bytes allocated by the current thread so far, or 0 when the JVM can not tell.
+     */
+    static long allocatedBytes() {
+        if (THREAD_BEAN == null || !THREAD_BEAN.isThreadAllocatedMemoryEnabled()) {
+            return 0;
+        }
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
+
+@Name("robotrace.Frame")
+@Label("Frame")
+@Category("RobotRace")
+@Description("A complete frame, from the start of setView to the end of drawScene")
+class FrameEvent extends Event {
+    @Label("Frame Number")
+    long frameNumber;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
+
+@Name("robotrace.FrameStage")
+@Label("Frame Stage")
+@Category("RobotRace")
+@Description("A single stage within a frame, such as drawing the track or updating the camera")
+class FrameStageEvent extends Event {
+    @Label("Frame Number")
+    long frameNumber;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
+
+@Name("robotrace.SimulationTick")
+@Label("Simulation Tick")
+@Category("RobotRace")
+@Description("Advancing all robots by one time step")
+class SimulationTickEvent extends Event {
+    @Label("Robots")
+    int robots;
+
+    @Label("Time Step (ns)")
+    long timeStep;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
+
+@Name("robotrace.TrackSwitch")
+@Label("Track Switch")
+@Category("RobotRace")
+@Description("Selecting another track, including building its geometry")
+class TrackSwitchEvent extends Event {
+    @Label("From Track")
+    int fromTrack;
+
+    @Label("To Track")
+    int toTrack;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
+
+@Name("robotrace.DisplayListCompile")
+@Label("Display List Compile")
+@Category("RobotRace")
+@Description("Compiling an OpenGL display list")
+class DisplayListCompileEvent extends Event {
+    @Label("Display List")
+    String displayList;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,278 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates, for every track, how likely each lane is to win a race and how its finish times are distributed, by
+ * running a large number of independent races on all cores.
+ *
+ * Each robot is modelled racing alone in its own lane: the overtaking and blocking of Traffic are left out, so a robot
+ * is never slowed down behind a slower one and never moves to another lane. The estimates are those of the robots' own
+ * pace on their own lane; in a real race robots that catch up lose time until they can overtake, and then run part of
+ * the lap on another lane. Without Traffic, a robot's speed only depends on its random base speed and inclination
+ * factor and on the inclination of its lane at its current position, so the time it needs for a lap is the integral
+ * of 1 / speed over the lane, whatever the order in which the inclinations come. Each lane is therefore walked once,
+ * in steps smaller than a robot covers in a tick, and reduced to the total length at each (rounded) inclination; a
+ * race then costs a few divisions per inclination per robot instead of tens of thousands of ticks.
+ * <p/>
+ * Every worker draws from its own SplittableRandom, split from one seeded generator, and fills its own tallies, which
+ * are only added up once all workers are done. The lanes are laid out as in the race (-Drobotrace.lanes and
+ * -Drobotrace.laneWidth). Usage: {@code java RaceMonteCarlo [races per track] [laps] [seed]}
+ */
+public class RaceMonteCarlo {
+    // Step in meters in which the lanes are walked, a little below the distance covered in a tick.
+    private static final double PROFILE_STEP = 0.005;
+    // Inclinations are rounded to multiples of 1 / INCLINATION_LEVELS, which keeps the profiles short.
+    private static final double INCLINATION_LEVELS = 4096;
+    // Number of bins of the finish time histograms.
+    private static final int BINS = 1000;
+    // Races per task, small enough to spread the work evenly over the cores.
+    private static final int RACES_PER_TASK = 1 << 16;
+
+    public static void main(String args[]) throws InterruptedException, ExecutionException {
+        long races = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        int laps = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        LaneLayout layout = LaneLayout.fromProperties();
+        int lanes = layout.lanes;
+
+        TrackCoordinates[] tracks = TrackCoordinates.values();
+        LaneProfile[][] profiles = new LaneProfile[tracks.length][lanes];
+        for (int i = 0; i < tracks.length; i++) {
+            Track track = new GenericTrack(tracks[i], layout);
+            track.prepare();
+            for (int lane = 0; lane < lanes; lane++) {
+                profiles[i][lane] = new LaneProfile(track, lane, laps);
+            }
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        SplittableRandom random = new SplittableRandom(seed);
+        List<List<Future<Tally[]>>> results = new ArrayList<List<Future<Tally[]>>>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tracks.length; i++) {
+            List<Future<Tally[]>> trackResults = new ArrayList<Future<Tally[]>>();
+            for (long done = 0; done < races; done += RACES_PER_TASK) {
+                trackResults.add(executor.submit(new RaceBatch(profiles[i], (int) Math.min(RACES_PER_TASK,
+                        races - done), random.split())));
+            }
+            results.add(trackResults);
+        }
+
+        Tally[][] totals = new Tally[tracks.length][];
+        for (int i = 0; i < tracks.length; i++) {
+            for (Future<Tally[]> result : results.get(i)) {
+                Tally[] tallies = result.get();
+                if (totals[i] == null) {
+                    totals[i] = tallies;
+                } else {
+                    for (int lane = 0; lane < lanes; lane++) {
+                        totals[i][lane].add(tallies[lane]);
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        System.out.printf("%d races of %d lap(s) per track on %d threads in %.3f s, %.0f races/s (seed %d)%n", races,
+                laps, threads, elapsed / 1e9, races * tracks.length / (elapsed / 1e9), seed);
+        for (int i = 0; i < tracks.length; i++) {
+            System.out.println();
+            System.out.println(tracks[i]);
+            System.out.println("lane material  length m   win %     mean s   stddev s    p1 s     p50 s     p99 s");
+            for (int lane = 0; lane < lanes; lane++) {
+                Tally tally = totals[i][lane];
+                System.out.printf("%4d %-8s %8.2f %7.3f %10.3f %10.3f %9.3f %9.3f %9.3f%n", lane,
+                        Simulation.material(lane), profiles[i][lane].length, 100.0 * tally.wins / tally.races,
+                        tally.mean(), tally.standardDeviation(), tally.percentile(0.01), tally.percentile(0.5),
+                        tally.percentile(0.99));
+            }
+        }
+    }
+
+    /**
+     * A lane reduced to the distance covered at each inclination, from which the finish time of a robot follows
+     * directly.
+     */
+    static class LaneProfile {
+        // Length of the race on this lane, in meters.
+        final double length;
+        // The distinct inclinations of the lane, and the distance over which each of them applies.
+        final double[] inclinations;
+        final double[] distances;
+        // Bounds of the finish time of any robot, in seconds.
+        final double minTime;
+        final double maxTime;
+
+        LaneProfile(Track track, int lane, int laps) {
+            double laneLength = track.getLaneLength(lane);
+            length = laps * laneLength;
+
+            // Walk the lane the way a robot does: the inclination at the start of each step holds for the whole step.
+            double[] levelDistances = new double[2 * (int) INCLINATION_LEVELS + 1];
+            Vec3 tangent = new Vec3();
+            for (long step = 0; step * PROFILE_STEP < laneLength; step++) {
+                double s = step * PROFILE_STEP;
+                double inclination = Robot.inclination(track.getTangent(s, lane, tangent));
+                int level = (int) Math.round(inclination * INCLINATION_LEVELS) + (int) INCLINATION_LEVELS;
+                levelDistances[level] += laps * Math.min(PROFILE_STEP, laneLength - s);
+            }
+
+            int count = 0;
+            for (double distance : levelDistances) {
+                if (distance > 0) {
+                    count++;
+                }
+            }
+            inclinations = new double[count];
+            distances = new double[count];
+            for (int level = 0, i = 0; level < levelDistances.length; level++) {
+                if (levelDistances[level] > 0) {
+                    inclinations[i] = (level - INCLINATION_LEVELS) / INCLINATION_LEVELS;
+                    distances[i] = levelDistances[level];
+                    i++;
+                }
+            }
+
+            // The time of each step is monotonic in both the base speed and the inclination factor, so the extremes
+            // are found at the ends of their ranges.
+            double fastest = 0;
+            double slowest = 0;
+            for (int i = 0; i < count; i++) {
+                double low = distances[i] / Robot.speed(1, Robot.inclinationFactor(0), inclinations[i]);
+                double high = distances[i] / Robot.speed(1, Robot.inclinationFactor(1), inclinations[i]);
+                fastest += Math.min(low, high);
+                slowest += Math.max(low, high);
+            }
+            minTime = fastest / Robot.distance(1000000000L, Robot.baseSpeed(1));
+            maxTime = slowest / Robot.distance(1000000000L, Robot.baseSpeed(0));
+        }
+
+        /**
+         * @return the time in seconds a robot with the given properties needs to finish.
+         */
+        double finishTime(double baseSpeed, double inclinationFactor) {
+            double time = 0;
+            for (int i = 0; i < inclinations.length; i++) {
+                time += distances[i] / Robot.speed(1, inclinationFactor, inclinations[i]);
+            }
+            return time / Robot.distance(1000000000L, baseSpeed);
+        }
+    }
+
+    /**
+     * Runs a number of races on one track with its own random generator, and tallies the results per lane.
+     */
+    static class RaceBatch implements Callable<Tally[]> {
+        private final LaneProfile[] lanes;
+        private final int races;
+        private final SplittableRandom random;
+
+        RaceBatch(LaneProfile[] lanes, int races, SplittableRandom random) {
+            this.lanes = lanes;
+            this.races = races;
+            this.random = random;
+        }
+
+        @Override
+        public Tally[] call() {
+            Tally[] tallies = new Tally[lanes.length];
+            for (int lane = 0; lane < lanes.length; lane++) {
+                tallies[lane] = new Tally(lanes[lane].minTime, lanes[lane].maxTime);
+            }
+
+            double[] times = new double[lanes.length];
+            for (int race = 0; race < races; race++) {
+                int winner = 0;
+                for (int lane = 0; lane < lanes.length; lane++) {
+                    // Draw the properties in the same order as the Robot constructor does.
+                    double baseSpeed = Robot.baseSpeed(random.nextDouble());
+                    double inclinationFactor = Robot.inclinationFactor(random.nextDouble());
+                    times[lane] = lanes[lane].finishTime(baseSpeed, inclinationFactor);
+                    if (times[lane] < times[winner]) {
+                        winner = lane;
+                    }
+                }
+                for (int lane = 0; lane < lanes.length; lane++) {
+                    tallies[lane].record(times[lane], lane == winner);
+                }
+            }
+            return tallies;
+        }
+    }
+
+    /**
+     * Wins and the distribution of finish times of one lane, in a histogram of BINS bins between the lowest and
+     * highest possible finish time.
+     */
+    static class Tally {
+        private final double minTime;
+        private final double binWidth;
+        private final long[] bins = new long[BINS];
+
+        long races;
+        long wins;
+        private double sum;
+        private double sumOfSquares;
+
+        Tally(double minTime, double maxTime) {
+            this.minTime = minTime;
+            // Guard against a zero width when all robots need the same time, e.g. on a one-point profile.
+            binWidth = Math.max(maxTime - minTime, 1e-9) / BINS;
+        }
+
+        void record(double time, boolean won) {
+            int bin = (int) ((time - minTime) / binWidth);
+            bins[Math.max(0, Math.min(BINS - 1, bin))]++;
+            races++;
+            if (won) {
+                wins++;
+            }
+            sum += time;
+            sumOfSquares += time * time;
+        }
+
+        void add(Tally other) {
+            for (int i = 0; i < BINS; i++) {
+                bins[i] += other.bins[i];
+            }
+            races += other.races;
+            wins += other.wins;
+            sum += other.sum;
+            sumOfSquares += other.sumOfSquares;
+        }
+
+        double mean() {
+            return sum / races;
+        }
+
+        double standardDeviation() {
+            double mean = mean();
+            return Math.sqrt(Math.max(0, sumOfSquares / races - mean * mean));
+        }
+
+        /**
+         * @param fraction fraction within [0,1], e.g. 0.99 for the 99th percentile
+         * @return the upper bound of the bin holding that percentile, in seconds
+         */
+        double percentile(double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(fraction * races));
+            long seen = 0;
+            for (int i = 0; i < BINS; i++) {
+                seen += bins[i];
+                if (seen >= rank) {
+                    return minTime + (i + 1) * binWidth;
+                }
+            }
+            return minTime + BINS * binWidth;
+        }
+    }
+}
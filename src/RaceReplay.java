@@ -0,0 +1,73 @@
+import robotrace.GlobalState;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a race recorded in a ReplayLog without rendering it, as fast as the simulation can go.
+ *
+ * Running the same log twice gives bit for bit the same result, so this can be used to reproduce a race and, by
+ * timing it, to benchmark the simulation. When a telemetry file is given, the telemetry of the replayed race is
+ * recorded into it. A race on tracks loaded from files, or with another lane layout, must be replayed with the same
+ * -Drobotrace.tracks, -Drobotrace.lanes and -Drobotrace.laneWidth. Usage:
+ * {@code java RaceReplay <replay log> [telemetry file]}
+ */
+public class RaceReplay {
+
+    public static void main(String args[]) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java RaceReplay <replay log> [telemetry file]");
+            System.exit(1);
+        }
+
+        ReplayLog.Reader log = new ReplayLog.Reader(new File(args[0]));
+        if (log.tickNanos != Simulation.TICK_NANOS) {
+            System.err.println("Warning: the log was recorded with ticks of " + log.tickNanos + " ns instead of "
+                    + Simulation.TICK_NANOS + " ns, the replay will not be exact.");
+        }
+
+        // Set up the race exactly like it was set up when it was recorded.
+        GlobalState gs = new GlobalState();
+        gs.trackNr = log.initialTrack;
+        RaceTrack raceTrack = new RaceTrack(gs);
+        Robot[] robots = Simulation.createRobots(raceTrack, gs, log.seed);
+        if (log.robots != robots.length) {
+            System.err.println("Warning: the log was recorded with " + log.robots + " robots instead of "
+                    + robots.length + ", the replay will not be exact.");
+        }
+        Simulation simulation = new Simulation(gs, raceTrack, robots);
+        if (args.length > 1) {
+            simulation.setTelemetry(new TelemetryRecorder(new File(args[1]), robots.length));
+        }
+
+        long start = System.nanoTime();
+        for (long tick = 0; tick < log.tickCount; tick++) {
+            simulation.step(log.tickNanos, log.next());
+        }
+        long elapsed = System.nanoTime() - start;
+        log.close();
+        try {
+            simulation.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        WorldSnapshot world = simulation.latest();
+        System.out.printf("Replayed %d ticks (%.1f s of racing) in %.3f s, %.0f ticks/s%n", log.tickCount,
+                log.tickCount * log.tickNanos / 1e9, elapsed / 1e9, log.tickCount / (elapsed / 1e9));
+        System.out.println("Final track: " + world.trackNr);
+        for (int i = 0; i < world.robots.length; i++) {
+            // Print the exact bits as well, such that two replays can be compared for equality.
+            double dist = world.robots[i].distCovered;
+            System.out.printf("Robot %d: %.6f m (%s)%n", i, dist, Double.toHexString(dist));
+        }
+
+        RaceStandings standings = simulation.getStandings();
+        System.out.printf("Standings after %.3f s on track %d:%n", standings.raceTime(), world.trackNr);
+        for (int position = 0; position < world.ranking.length; position++) {
+            int robot = world.ranking[position];
+            System.out.printf("%d. Robot %d: %d laps, last lap %.3f s, best lap %.3f s%n", position + 1, robot,
+                    standings.laps(robot), standings.lastLapTime(robot), standings.bestLapTime(robot));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Lap and split times and the ranking of the robots, kept up to date after every tick.
+ *
+ * Each lap is split into SPLITS_PER_LAP sectors of equal length on the robot's own lane. Progress is measured in laps
+ * rather than meters, such that it carries over when a robot changes to a lane of another length. When a robot passes
+ * a sector boundary during a tick, the moment it did so is interpolated within the tick: the speed of a robot is
+ * constant during a tick, so the fraction of the tick's distance covered before the boundary is also the fraction of
+ * the tick's time.
+ * <p/>
+ * The robots are ranked by the number of laps they completed, including the current fraction. The ranking is kept in
+ * an array that is insertion-sorted after every tick: between two ticks only a few robots overtake each other, if
+ * any, so sorting the almost sorted array costs about one comparison per robot, and the leader and the last robot are
+ * simply its first and last element.
+ * <p/>
+ * Not thread-safe; it is updated by the simulation thread, and the renderer gets the ranking through the snapshots.
+ */
+class RaceStandings {
+    // Number of sectors per lap, a split time is recorded at the end of each.
+    static final int SPLITS_PER_LAP = 4;
+
+    private final int robotCount;
+
+    // The robots from the leader to the last one, and the position of each robot within it.
+    private final int[] ranking;
+    private final int[] positions;
+
+    // Laps completed by each robot at the end of the last tick, including the fraction of the current lap.
+    private final double[] progress;
+    // Number of sectors completed by each robot since the start of the race.
+    private final int[] sectors;
+    // Race time at which each robot completed its last sector and its last lap, in seconds.
+    private final double[] sectorStartTimes;
+    private final double[] lapStartTimes;
+    // The time of each sector of the current lap (or, for sectors still to go, of the previous lap), in seconds.
+    private final double[] splitTimes;
+    private final double[] lastLapTimes;
+    private final double[] bestLapTimes;
+
+    // Time since the start of the race, in seconds.
+    private double raceTime;
+
+    RaceStandings(int robotCount) {
+        this.robotCount = robotCount;
+        ranking = new int[robotCount];
+        positions = new int[robotCount];
+        progress = new double[robotCount];
+        sectors = new int[robotCount];
+        sectorStartTimes = new double[robotCount];
+        lapStartTimes = new double[robotCount];
+        splitTimes = new double[robotCount * SPLITS_PER_LAP];
+        lastLapTimes = new double[robotCount];
+        bestLapTimes = new double[robotCount];
+        reset();
+    }
+
+    /**
+     * Start a new race, with the robots ranked in the order of their lanes.
+     */
+    void reset() {
+        for (int i = 0; i < robotCount; i++) {
+            ranking[i] = i;
+            positions[i] = i;
+        }
+        java.util.Arrays.fill(progress, 0);
+        java.util.Arrays.fill(sectors, 0);
+        java.util.Arrays.fill(sectorStartTimes, 0);
+        java.util.Arrays.fill(lapStartTimes, 0);
+        java.util.Arrays.fill(splitTimes, Double.NaN);
+        java.util.Arrays.fill(lastLapTimes, Double.NaN);
+        java.util.Arrays.fill(bestLapTimes, Double.NaN);
+        raceTime = 0;
+    }
+
+    /**
+     * Record the sectors and laps completed during a tick, and update the ranking.
+     *
+     * @param timeDiff length of the tick in nanoseconds
+     * @param robots the robots, after they were moved
+     * @param track the track they are running on
+     */
+    void update(long timeDiff, Robot[] robots, RaceTrack track) {
+        double tickStart = raceTime;
+        raceTime += timeDiff / 1e9;
+
+        for (int i = 0; i < robotCount; i++) {
+            double before = progress[i];
+            double after = robots[i].distCovered / track.getLaneLength(robots[i].getLane());
+
+            // Every sector boundary passed during this tick, which at normal speeds is at most one.
+            while ((sectors[i] + 1) / (double) SPLITS_PER_LAP <= after) {
+                double boundary = (sectors[i] + 1) / (double) SPLITS_PER_LAP;
+                double crossing = tickStart + (raceTime - tickStart) * (boundary - before) / (after - before);
+                completeSector(i, crossing);
+            }
+
+            progress[i] = after;
+        }
+
+        sortRanking();
+    }
+
+    /**
+     * @return the robots from the leader to the last one. The array is owned by the standings.
+     */
+    int[] ranking() {
+        return ranking;
+    }
+
+    /**
+     * @return the position of the robot in the race, 0 for the leader.
+     */
+    int position(int robot) {
+        return positions[robot];
+    }
+
+    int leader() {
+        return ranking[0];
+    }
+
+    int last() {
+        return ranking[robotCount - 1];
+    }
+
+    /**
+     * @return the number of laps the robot completed.
+     */
+    int laps(int robot) {
+        return sectors[robot] / SPLITS_PER_LAP;
+    }
+
+    /**
+     * @return the time of the robot's last completed lap in seconds, NaN if it did not complete one yet.
+     */
+    double lastLapTime(int robot) {
+        return lastLapTimes[robot];
+    }
+
+    /**
+     * @return the time of the robot's fastest lap in seconds, NaN if it did not complete one yet.
+     */
+    double bestLapTime(int robot) {
+        return bestLapTimes[robot];
+    }
+
+    /**
+     * @param sector sector within the lap, from 0 to SPLITS_PER_LAP - 1
+     * @return the time the robot needed for the sector the last time it completed it, NaN if it never did.
+     */
+    double splitTime(int robot, int sector) {
+        return splitTimes[robot * SPLITS_PER_LAP + sector];
+    }
+
+    /**
+     * @return the time since the start of the race in seconds.
+     */
+    double raceTime() {
+        return raceTime;
+    }
+
+    private void completeSector(int robot, double time) {
+        int sector = sectors[robot] % SPLITS_PER_LAP;
+        splitTimes[robot * SPLITS_PER_LAP + sector] = time - sectorStartTimes[robot];
+        sectorStartTimes[robot] = time;
+        sectors[robot]++;
+
+        if (sector == SPLITS_PER_LAP - 1) {
+            double lapTime = time - lapStartTimes[robot];
+            lapStartTimes[robot] = time;
+            lastLapTimes[robot] = lapTime;
+            if (!(lapTime >= bestLapTimes[robot])) {
+                bestLapTimes[robot] = lapTime;
+            }
+        }
+    }
+
+    /**
+     * Insertion sort the ranking by progress, most progress first. Robots with equal progress keep their order.
+     */
+    private void sortRanking() {
+        for (int i = 1; i < robotCount; i++) {
+            int robot = ranking[i];
+            double robotProgress = progress[robot];
+            int j = i - 1;
+            while (j >= 0 && progress[ranking[j]] < robotProgress) {
+                ranking[j + 1] = ranking[j];
+                positions[ranking[j + 1]] = j + 1;
+                j--;
+            }
+            ranking[j + 1] = robot;
+            positions[robot] = j + 1;
+        }
+    }
+}
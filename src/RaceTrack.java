@@ -4,7 +4,12 @@ import robotrace.Vector;
 
 import javax.media.opengl.GL2;
 
-import static javax.media.opengl.GL.GL_TRIANGLE_STRIP;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Implementation of a race track that is made from Bezier segments and straight road segments, or the test track.
@@ -16,85 +21,289 @@ public class RaceTrack {
     private GlobalState gs;
 
     /**
-     * Variable point to the display-list reserved for this object.
+     * The first of the display-lists reserved for this object, two per piece of the drawn track: the walls of every
+     * piece, followed by the road of every piece. And the number of pieces.
      */
-    private int displayList;
+    private int displayLists;
+    private int pieceCount;
 
     /**
-     * Array containing the 5 different track objects.
+     * Bounding volume hierarchy over the pieces of the drawn track, and room for the numbers of the visible ones.
      */
-    private Track[] trackList = {
-            new TestTrack(), new GenericTrack(TrackCoordinates.OTRACK), new GenericTrack(TrackCoordinates.LTRACK),
-            new GenericTrack(TrackCoordinates.CTRACK), new GenericTrack(TrackCoordinates.CUSTOMTRACK)
-    };
+    private BoundingVolumeHierarchy pieceBounds;
+    private int[] visiblePieces;
 
     /**
-     * Keep track of which track this instance is to draw.
+     * The number and width of the lanes, the same on every track.
      */
-    int trackNr;
+    private final LaneLayout layout;
+
+    /**
+     * Array containing the 5 built-in track objects, followed by the tracks loaded from files.
+     */
+    private final Track[] trackList;
+
+    /**
+     * Largest number of tracks, as a replay log stores the selected track in a byte.
+     */
+    static final int MAX_TRACKS = 256;
+
+    /**
+     * Keep track of which track the robots are running on. Only changed by the simulation, through selectTrack, and
+     * only after the track's distance tables are complete.
+     */
+    volatile int trackNr = -1;
+
+    /**
+     * Keep track of which track is compiled in the display-list.
+     */
+    private int drawnTrackNr = -1;
 
 
     /**
-     * Constructs the race track, sets up display lists.
+     * Constructs the race track with the lane layout given on the command line, adding the tracks from the track
+     * file or directory of track files given on the command line (-Drobotrace.tracks=path) after the built-in ones.
      */
     public RaceTrack(GlobalState gs) {
+        this(gs, LaneLayout.fromProperties(), System.getProperty("robotrace.tracks"));
+    }
+
+    /**
+     * Constructs the race track with the given number and width of lanes.
+     * @param trackPath Track file or directory of track files to add after the built-in tracks, or null.
+     */
+    RaceTrack(GlobalState gs, LaneLayout layout, String trackPath) {
         this.gs = gs;
+        this.layout = layout;
+        List<Track> tracks = new ArrayList<Track>(Arrays.asList(
+                new TestTrack(layout), new GenericTrack(TrackCoordinates.OTRACK, layout),
+                new GenericTrack(TrackCoordinates.LTRACK, layout), new GenericTrack(TrackCoordinates.CTRACK, layout),
+                new GenericTrack(TrackCoordinates.CUSTOMTRACK, layout)));
+        if (trackPath != null) {
+            for (File file : TrackFile.list(new File(trackPath))) {
+                if (tracks.size() == MAX_TRACKS) {
+                    System.err.println("Only the first " + MAX_TRACKS + " tracks are used");
+                    break;
+                }
+                try {
+                    tracks.add(new GenericTrack(TrackFile.load(file, layout), layout));
+                } catch (IOException e) {
+                    System.err.println("Unable to load track: " + e.getMessage());
+                }
+            }
+        }
+        trackList = tracks.toArray(new Track[tracks.size()]);
     }
 
     /**
-     * Method that draws the currently selected track.
-     * @param gl OpenGL context
+     * @return the number of tracks, built-in and loaded.
+     */
+    int getTrackCount() {
+        return trackList.length;
+    }
+
+    /**
+     * @return the number and width of the lanes.
+     */
+    LaneLayout getLaneLayout() {
+        return layout;
+    }
+
+    /**
+     * Select the track the robots run on, preparing its distance tables if it was not selected before. Does not need
+     * an OpenGL context, such that it can be called from the simulation thread.
+     * @param nr Number of the track to select.
      */
-    public void draw(GL2 gl) {
-        if (displayList == 0) {     //If display-list hasn't been reserved yet, reserve a new display-list.
-            displayList = gl.glGenLists(1);
-            this.trackNr = -1;      //Set trackNr to -1 to make sure the display-list gets generated for the first time.
+    void selectTrack(int nr) {
+        if (nr != trackNr) {
+            trackList[nr].prepare();
+            trackNr = nr;
         }
+    }
+
+    /**
+     * Method that draws the pieces of the given track that may be visible in a view.
+     * @param gl OpenGL context
+     * @param state Tracker through which the colour and the textures are set.
+     * @param nr Number of the track to draw, normally the track of the snapshot being rendered.
+     * @param frustum What the view sees.
+     * @return The number of pieces drawn, out of getPieceCount().
+     */
+    int draw(GL2 gl, GLState state, int nr, Frustum frustum) {
+        prepare(gl, nr);
+        int visible = pieceBounds.visible(frustum, visiblePieces);
+        draw(gl, state, visiblePieces, visible);
+        return visible;
+    }
+
+    /**
+     * Make sure the given track is the one compiled into the display-lists, such that its pieces can be culled and
+     * drawn.
+     * @param gl OpenGL context
+     * @param nr Number of the track to draw, normally the track of the snapshot being rendered.
+     */
+    void prepare(GL2 gl, int nr) {
         /**
-         * Check if the selected track has changed. If so, update the local trackNr and generate a new display-list.
-         * Otherwise just draw the already generated displaylist.
+         * Check if the track to draw has changed. If so, update drawnTrackNr and compile a display-list per piece of the
+         * new track.
          */
-        if ( this.trackNr != gs.trackNr) {
-            this.trackNr = gs.trackNr;
-            gl.glNewList(displayList, GL2.GL_COMPILE_AND_EXECUTE);
-            trackList[trackNr].draw(gl);
+        if (drawnTrackNr != nr) {
+            TrackSwitchEvent switchEvent = new TrackSwitchEvent();
+            switchEvent.begin();
+            long allocatedBefore = switchEvent.isEnabled() ? RaceEvents.allocatedBytes() : 0;
+            switchEvent.fromTrack = drawnTrackNr;
+
+            drawnTrackNr = nr;
+            compile(gl, trackList[nr]);
+
+            // Building a track is where most of the garbage of a track switch is made, make it visible in a recording.
+            if (switchEvent.shouldCommit()) {
+                switchEvent.toTrack = nr;
+                switchEvent.allocated = RaceEvents.allocatedBytes() - allocatedBefore;
+                switchEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * Find the pieces of the prepared track that may be visible in a view. Does not need an OpenGL context and may be
+     * called for several views at the same time, each with its own buffers.
+     * @param frustum What the view sees.
+     * @param visible Receives the numbers of the visible pieces; at least getPieceCount() long.
+     * @param stack Room for the search; at least getCullStackSize() long.
+     * @return The number of visible pieces.
+     */
+    int cull(Frustum frustum, int[] visible, int[] stack) {
+        return pieceBounds.visible(frustum, visible, stack);
+    }
+
+    /**
+     * Draw pieces of the prepared track: first the walls of all of them, then the road, such that each texture is only
+     * bound once.
+     * @param gl OpenGL context
+     * @param state Tracker through which the colour and the textures are set.
+     * @param pieces Numbers of the pieces to draw, as found by cull.
+     * @param count Number of pieces to draw.
+     */
+    void draw(GL2 gl, GLState state, int[] pieces, int count) {
+        state.color(gl, 1f, 1f, 1f);        //Set color to white to avoid interfering with texture.
+        state.enableTexture(gl, Track.brick);
+        for (int i = 0; i < count; i++) {
+            state.callGeometryList(gl, displayLists + pieces[i]);
+        }
+        state.enableTexture(gl, Track.track);
+        for (int i = 0; i < count; i++) {
+            state.callGeometryList(gl, displayLists + pieceCount + pieces[i]);
+        }
+        state.disableTexture(gl, Track.track);
+    }
+
+    /**
+     * @return The length of the stack cull needs for the prepared track.
+     */
+    int getCullStackSize() {
+        return pieceBounds.stackSize();
+    }
+
+    /**
+     * @return The number of pieces the drawn track consists of, which are culled separately.
+     */
+    int getPieceCount() {
+        return pieceCount;
+    }
+
+    /**
+     * Build the mesh of a track and compile the walls and the road of every piece of it into display-lists of their
+     * own, such that the pieces that are out of view can be skipped. The lists only hold geometry.
+     */
+    private void compile(GL2 gl, Track track) {
+        TrackMesh mesh = TrackMesh.build(track.tessellate());
+        if (pieceCount != mesh.pieces()) {
+            if (pieceCount > 0) {
+                gl.glDeleteLists(displayLists, 2 * pieceCount);
+            }
+            pieceCount = mesh.pieces();
+            displayLists = gl.glGenLists(2 * pieceCount);
+        }
+        for (int p = 0; p < mesh.pieces(); p++) {
+            gl.glNewList(displayLists + p, GL2.GL_COMPILE);
+            mesh.drawWalls(gl, p);
+            gl.glEndList();
+            gl.glNewList(displayLists + pieceCount + p, GL2.GL_COMPILE);
+            mesh.drawRoad(gl, p);
             gl.glEndList();
-        } else {
-            gl.glCallList(displayList);
         }
+        pieceBounds = new BoundingVolumeHierarchy(mesh.bounds());
+        visiblePieces = new int[mesh.pieces()];
     }
 
     /**
      * Method that returns a position vector on the track, corresponding to a certain lane and distance travelled.
      * @param s Distance travelled.
      * @param laneNr Lanenumber the distance was travelled on.
-     * @return Vector pointing to the position corresponding to the parameters.
+     * @param out Vector receiving the position.
+     * @return out, pointing to the position corresponding to the parameters.
      */
-    Vector getPositionOnLane(double s, int laneNr) {
+    Vec3 getPositionOnLane(double s, int laneNr, Vec3 out) {
         //The request gets deferred to the currently selected track object.
-        return trackList[trackNr].getPositionOnLane(s, laneNr);
+        return trackList[trackNr].getPositionOnLane(s, laneNr, out);
+    }
+
+    /**
+     * Method that returns a position vector on the track for a robot moving sideways, e.g. while changing lanes.
+     * @param s Distance travelled on lane laneNr.
+     * @param laneNr Lanenumber the distance was travelled on.
+     * @param lanePosition Sideways position on the track in lanes, e.g. 1.5 for halfway lanes 1 and 2.
+     * @param out Vector receiving the position.
+     * @return out, pointing to the position corresponding to the parameters.
+     */
+    Vec3 getPositionOnLane(double s, int laneNr, double lanePosition, Vec3 out) {
+        return trackList[trackNr].getPositionOnLane(s, laneNr, lanePosition, out);
+    }
+
+    /**
+     * Method that converts a distance travelled on one lane into the distance on another lane at the same point of the
+     * track, i.e. at the same cross-section.
+     * @param s Distance travelled on lane fromLane, within one lap.
+     * @param fromLane Lane the distance was travelled on.
+     * @param toLane Lane to convert the distance to.
+     * @return Distance on lane toLane.
+     */
+    double convertDistance(double s, int fromLane, int toLane) {
+        return trackList[trackNr].convertDistance(s, fromLane, toLane);
     }
 
     /**
      * Method that returns the tangent vector corresponding to a certain lane and distance travelled.
      * @param s Distance travelled.
      * @param laneNr Lanenumber the distance was travelled on.
-     * @return Tangent vector.
+     * @param out Vector receiving the tangent.
+     * @return out, the tangent vector.
      */
-    public Vector getTangent(double s, int laneNr) {
+    Vec3 getTangent(double s, int laneNr, Vec3 out) {
         //The request gets deferred to the currently selected track object.
-        return trackList[trackNr].getTangent(s, laneNr);
+        return trackList[trackNr].getTangent(s, laneNr, out);
     }
 
     /**
      * Method that returns the normal vector corresponding to a certain lane and distance travelled.
      * @param s Distance travelled.
      * @param laneNr Lanenumber the distance was travelled on.
-     * @return Normal vector.
+     * @param out Vector receiving the normal.
+     * @return out, the normal vector.
      */
-    public Vector getNormal(double s, int laneNr) {
+    Vec3 getNormal(double s, int laneNr, Vec3 out) {
         //The request gets deferred to the currently selected track object.
-        return trackList[trackNr].getNormal(s, laneNr);
+        return trackList[trackNr].getNormal(s, laneNr, out);
+    }
+
+    /**
+     * Method that returns the length of a lap on a lane of the selected track.
+     * @param laneNr Lanenumber.
+     * @return Length of the lane in meters.
+     */
+    double getLaneLength(int laneNr) {
+        return trackList[trackNr].getLaneLength(laneNr);
     }
 }
 
@@ -102,6 +311,11 @@ public class RaceTrack {
  * Abstract class defining the common features between the GenericTrack and the TestTrack classes.
  */
 abstract class Track {
+    /**
+     * The number and width of the lanes of the track.
+     */
+    final LaneLayout layout;
+
     /**
      * Texture object used for the brick on the sides of the track.
      */
@@ -112,13 +326,52 @@ abstract class Track {
      */
     static Texture track;
 
-    abstract void draw(GL2 gl);
+    Track(LaneLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Cut the track into the cross-sections it is drawn with.
+     */
+    abstract TrackTessellation tessellate();
+
+    /**
+     * Compute whatever is needed to answer the position, tangent and normal queries. Called before the track is
+     * used by the robots, and independent of OpenGL.
+     */
+    abstract void prepare();
+
+    Vec3 getPositionOnLane(double s, int laneNr, Vec3 out) {
+        return getPositionOnLane(s, laneNr, laneNr, out);
+    }
+
+    /**
+     * The queries of a track store their result in a vector given by the caller, such that the robots can ask for
+     * their position every tick without allocating. A track may be queried from several threads at once, each with
+     * its own vectors.
+     * @param s Distance travelled on lane laneNr.
+     * @param laneNr Lane the distance was travelled on.
+     * @param lanePosition Sideways position on the track, in lanes.
+     * @param out Vector receiving the result.
+     * @return out, the position at the cross-section reached on lane laneNr, moved sideways to lanePosition.
+     */
+    abstract Vec3 getPositionOnLane(double s, int laneNr, double lanePosition, Vec3 out);
 
-    abstract Vector getPositionOnLane(double s, int laneNr);
+    /**
+     * @param s Distance travelled on lane fromLane, within one lap.
+     * @return The distance travelled on lane toLane up to the same cross-section.
+     */
+    abstract double convertDistance(double s, int fromLane, int toLane);
 
-    abstract Vector getTangent(double s, int laneNr);
+    abstract Vec3 getTangent(double s, int laneNr, Vec3 out);
 
-    abstract Vector getNormal(double s, int laneNr);
+    abstract Vec3 getNormal(double s, int laneNr, Vec3 out);
+
+    /**
+     * @param laneNr Lane number.
+     * @return The length of one lap on the given lane. The track must be prepared.
+     */
+    abstract double getLaneLength(int laneNr);
 
 }
 
@@ -131,25 +384,52 @@ class GenericTrack extends Track {
     RoadSegment[] roadSegments;                 //The array of all the individual roadSegments of which the track consists.
     double[][] distancesTablePerLane;           //Table holding the length of each roadSegment, on a per lane basis.
 
-    GenericTrack(TrackCoordinates track) {
-        this.roadSegments = track.roadSegments;
+    GenericTrack(TrackCoordinates track, LaneLayout layout) {
+        this(track.roadSegments, layout);
+    }
+
+    GenericTrack(RoadSegment[] roadSegments, LaneLayout layout) {
+        super(layout);
+        this.roadSegments = roadSegments;
     }
 
     /**
-     * Method that calls each roadSegment to draw itself. These segments return an array containing the length of the segment
-     * on a per lane basis. Record these in the distancesTablePerLane array.
-     * @param gl OpenGL context
+     * Method that lets each roadSegment cut itself into cross-sections, each segment becoming a piece of the track.
+     */
+    @Override
+    TrackTessellation tessellate() {
+        //Every segment is cut into cross-sections on its own, all segments at the same time.
+        List<Callable<TrackTessellation.Piece>> tasks = new ArrayList<Callable<TrackTessellation.Piece>>();
+        for (final RoadSegment segment : roadSegments) {
+            tasks.add(new Callable<TrackTessellation.Piece>() {
+                @Override
+                public TrackTessellation.Piece call() {
+                    return segment.tessellate(layout);
+                }
+            });
+        }
+        return TrackTessellation.build(layout, tasks);
+    }
+
+    /**
+     * Method that calls each roadSegment to prepare itself. These segments return an array containing the length of the
+     * segment on a per lane basis. Record these in the distancesTablePerLane array.
      */
     @Override
-    void draw(GL2 gl) {
-        TrackDrawingData data = new TrackDrawingData();
-        distancesTablePerLane = new double[roadSegments.length + 1][4];
+    void prepare() {
+        double[][] table = new double[roadSegments.length + 1][layout.lanes];
         for (int i = 0; i < roadSegments.length; i++) {
-            roadSegments[i].draw(gl, data);
-            for (int j = 0; j < 4; j++) {
-                distancesTablePerLane[i + 1][j] = data.distanceData[j]  + distancesTablePerLane[i][j];
+            double[] laneLengths = roadSegments[i].prepare(layout);
+            for (int j = 0; j < layout.lanes; j++) {
+                table[i + 1][j] = laneLengths[j] + table[i][j];
             }
         }
+        distancesTablePerLane = table;
+    }
+
+    @Override
+    double getLaneLength(int laneNr) {
+        return distancesTablePerLane[distancesTablePerLane.length - 1][laneNr];
     }
 
     /**
@@ -157,35 +437,54 @@ class GenericTrack extends Track {
      * which RoadSegment to pass the call to, giving that RoadSegment a relative distance on that segment.
      * @param s Distance travelled on the track.
      * @param laneNr Lane the robot is on.
-     * @return Vector pointing to the position of the robot on the track.
+     * @param lanePosition Sideways position of the robot, in lanes.
+     * @param out Vector receiving the position.
+     * @return out, pointing to the position of the robot on the track.
      */
     @Override
-    Vector getPositionOnLane(double s, int laneNr) {
+    Vec3 getPositionOnLane(double s, int laneNr, double lanePosition, Vec3 out) {
         s = s % distancesTablePerLane[distancesTablePerLane.length - 1][laneNr];
         //Since there are only a few roadsegments per track we use a naive loop to find the needed segment.
         for (int i = 0; i < distancesTablePerLane.length; i++) {
             if (s < distancesTablePerLane[i][laneNr]) {
                 s -= distancesTablePerLane[i - 1][laneNr];
-                return roadSegments[i - 1].getCoordinate(s, laneNr);
+                return roadSegments[i - 1].getCoordinate(s, laneNr, lanePosition, out);
             }
         }
         return null;
     }
 
+    /**
+     * Method that converts a distance on one lane to the distance on another lane, by finding the segment holding
+     * the distance and letting it convert the distance within the segment.
+     */
+    @Override
+    double convertDistance(double s, int fromLane, int toLane) {
+        s = s % distancesTablePerLane[distancesTablePerLane.length - 1][fromLane];
+        for (int i = 1; i < distancesTablePerLane.length; i++) {
+            if (s < distancesTablePerLane[i][fromLane]) {
+                s -= distancesTablePerLane[i - 1][fromLane];
+                return distancesTablePerLane[i - 1][toLane] + roadSegments[i - 1].convertDistance(s, fromLane, toLane);
+            }
+        }
+        return 0;
+    }
+
     /**
      * Method for returning a tangent vector, given a distance and lane number. Use the distancesTablePerLane array to
      * decide which RoadSegment to pass the call to, giving that RoadSegment a relative distance on that segment.
      * @param s Distance travelled on the track.
      * @param laneNr Lane the robot is on.
-     * @return Tangent vector corresponding to the given parameters.
+     * @param out Vector receiving the tangent.
+     * @return out, the tangent vector corresponding to the given parameters.
      */
     @Override
-    Vector getTangent(double s, int laneNr) {
+    Vec3 getTangent(double s, int laneNr, Vec3 out) {
         s = s % distancesTablePerLane[distancesTablePerLane.length - 1][laneNr];
         for (int i = 0; i < distancesTablePerLane.length; i++) {
             if (s < distancesTablePerLane[i][laneNr]) {
                 s -= distancesTablePerLane[i - 1][laneNr];
-                return roadSegments[i - 1].getTangent(s, laneNr);
+                return roadSegments[i - 1].getTangent(s, laneNr, out);
             }
         }
         return null;
@@ -196,37 +495,79 @@ class GenericTrack extends Track {
      * decide which RoadSegment to pass the call to, giving that RoadSegment a relative distance on that segment.
      * @param s Distance travelled on the track.
      * @param laneNr Lane the robot is on.
-     * @return Normal vector corresponding to the parameters.
+     * @param out Vector receiving the normal.
+     * @return out, the normal vector corresponding to the parameters.
      */
     @Override
-    Vector getNormal(double s, int laneNr) {
+    Vec3 getNormal(double s, int laneNr, Vec3 out) {
         s = s % distancesTablePerLane[distancesTablePerLane.length - 1][laneNr];
         for (int i = 0; i < distancesTablePerLane.length; i++) {
             if (s < distancesTablePerLane[i][laneNr]) {
                 s -= distancesTablePerLane[i - 1][laneNr];
-                return roadSegments[i - 1].getNormal(s, laneNr);
+                return roadSegments[i - 1].getNormal(s, laneNr, out);
             }
         }
         return null;
     }
 }
 
-//Track class for drawing the test track from the assignment.
+//Track class for drawing the test track from the assignment, an oval with configurable radii.
 class TestTrack extends Track {
     // Dimension of the basic oval track specified in the assignment.
-    final double ovalTrackCosRadius = 10;
-    final double ovalTrackSinRadius = 14;
-    double trackWidth = 4;
-    double dt = 0.01;   //step size.
+    static final double ASSIGNMENT_COS_RADIUS = 10;
+    static final double ASSIGNMENT_SIN_RADIUS = 14;
+    // Number of steps of t in the arc length table. Every step is integrated accurately, so only the linear
+    // interpolation within a step remains, which keeps the speed of a robot on the oval within 0.1% of its own.
+    static final int ARC_LENGTH_STEPS = 2048;
+    // Number of pieces the oval is drawn in, each culled on its own.
+    static final int PIECES = 16;
+
+    final double ovalTrackCosRadius;
+    final double ovalTrackSinRadius;
+    // The distance travelled on each lane up to each step of t, filled by prepare.
+    private ArcLengthTable arcLengths;
+
+    TestTrack(LaneLayout layout) {
+        this(layout, ASSIGNMENT_COS_RADIUS, ASSIGNMENT_SIN_RADIUS);
+    }
+
+    /**
+     * @param cosRadius Radius of the oval along the x-axis.
+     * @param sinRadius Radius of the oval along the y-axis.
+     */
+    TestTrack(LaneLayout layout, double cosRadius, double sinRadius) {
+        super(layout);
+        this.ovalTrackCosRadius = cosRadius;
+        this.ovalTrackSinRadius = sinRadius;
+    }
 
     /**
      * @param t Parameter corresponding running from 0 to 1.
      * @return Point on the centre line of the track.
      */
     public Vector getPoint(double t) {
+        return getPoint(t, new Vec3()).toVector();
+    }
+
+    /**
+     * @param t Parameter corresponding running from 0 to 1.
+     * @param out Vector receiving the point.
+     * @return out, the point on the centre line of the track.
+     */
+    private Vec3 getPoint(double t, Vec3 out) {
         double x = ovalTrackCosRadius * Math.cos(Math.PI * 2 * t);
         double y = ovalTrackSinRadius * Math.sin(Math.PI * 2 * t);
-        return new Vector(x, y, 1);
+        return out.set(x, y, 1);
+    }
+
+    /**
+     * Offset of a sideways position from the centre line, to the left. Note that on the test track lane 0 is the
+     * rightmost lane, so the lanes lie mirrored compared to the other tracks.
+     * @param lanePosition Sideways position in lanes.
+     * @return Distance to the left of the centre line, in meters.
+     */
+    private double offset(double lanePosition) {
+        return -layout.offset(lanePosition);
     }
 
     /**
@@ -235,380 +576,218 @@ class TestTrack extends Track {
      * in order to create the appropriate offset for each lane.
      * @param s Distance travelled on the track.
      * @param laneNr the robot is on.
-     * @return Vector pointing to the position of the robot.
+     * @param lanePosition Sideways position of the robot, in lanes.
+     * @param out Vector receiving the position.
+     * @return out, pointing to the position of the robot.
      **/
-    public Vector getPositionOnLane(double s, int laneNr) {
-        double t;
-
-        //Since tangent already converts a distance to a value t on the track itself, call this method before conversion.
-        Vector tangent = getTangent(s, laneNr);
-
-        //Convert a given distance s to a corresponding t, using the precalulated circumference of each track. Note
-        // that since the curvature is not constant, this is an approximation.
-        if (laneNr == 3) {
-            t = s / 67.16;
-        } else if (laneNr == 2) {
-            t = s / 73.34;
-        } else if (laneNr == 1) {
-            t = s / 79.54;
-        } else {
-            t = s / 85.75;
-        }
-        Vector position = getPoint(t);
-        Vector toLeft = Vector.Z.cross(tangent).normalized();
-
-        position = position.add(toLeft.scale(-3.0/8.0*trackWidth + laneNr));
-        return position;
+    Vec3 getPositionOnLane(double s, int laneNr, double lanePosition, Vec3 out) {
+        //Convert the distance s to the t at which it is reached on the lane, using the arc length table.
+        double t = getT(s, laneNr);
+        //The offset to the left is kept while the point is computed in the same vector.
+        out.cross(Vector.Z, getTangent(t, out)).normalize().scale(offset(lanePosition));
+        double leftX = out.x;
+        double leftY = out.y;
+        double leftZ = out.z;
+        return getPoint(t, out).add(leftX, leftY, leftZ);
     }
 
     /**
      * A tangent to a 2D outline of oval shape. The below functions are obtained by taking dx/dt and dy/dt of the
-     * function in getPoint. First converts a given distance s to a corresponding t used in the formula by approximation,
-     * using the circumfence of the of each track.
+     * function in getPoint. First converts a given distance s to a corresponding t used in the formula, using the arc
+     * length table of the lane.
      * @param s Distance travelled on the track.
      * @param laneNr Lane the robot is on.
-     * @return Tangent vector corresponding to the parameters.
+     * @param out Vector receiving the tangent.
+     * @return out, the tangent vector corresponding to the parameters.
      **/
-    public Vector getTangent(double s, int laneNr) {
-
-        double t;
-        if (laneNr ==3){
-            t = s / 67.16;
-        } else if (laneNr == 2) {
-            t = s / 73.34;
-        } else if (laneNr == 1) {
-            t = s / 79.54;
-        } else {
-            t = s / 85.75;
-        }
-        double x = -2 * Math.PI * ovalTrackCosRadius * Math.sin(2 * Math.PI * t);
-        double y = 2 * Math.PI * ovalTrackSinRadius * Math.cos(2 * Math.PI * t);
-
-        return new Vector(x, y, 0).normalized();
+    Vec3 getTangent(double s, int laneNr, Vec3 out) {
+        return getTangent(getT(s, laneNr), out);
     }
 
     /**
      * Overloads the getTangent vector for class-local calculations, taking t as an argument instead of a distance s.
      * @param t Parameter of the used formula of the track, from 0 to 1.
-     * @return Tangent vector corresponding to the parameter.
+     * @param out Vector receiving the tangent.
+     * @return out, the tangent vector corresponding to the parameter.
      */
-    private Vector getTangent(double t) {
+    private Vec3 getTangent(double t, Vec3 out) {
         double x = -2 * Math.PI * ovalTrackCosRadius * Math.sin(2 * Math.PI * t);
         double y = 2 * Math.PI * ovalTrackSinRadius * Math.cos(2 * Math.PI * t);
 
-        return new Vector(x, y, 0).normalized();
+        return out.set(x, y, 0).normalize();
     }
 
-    //Method returning a normal vector.
-    public Vector getNormal(double s, int laneNr) {
-        // The surface of the basic oval track is always coplanar with the XOY plane therefore the normal is
-        // along the z-axis.
-        return Vector.Z;
+    //Convert a distance travelled on a lane, possibly over several laps, to the t within the lap.
+    private double getT(double s, int laneNr) {
+        return arcLengths.t(s % arcLengths.length(laneNr), laneNr);
     }
 
     /**
-     * Method that draws the test track.
+     * The speed at which a point at a fixed offset from the centre line moves with t, i.e. the derivative of the arc
+     * length of the offset curve. For a curve with speed |P'| and curvature k, the curve at offset o to the left moves
+     * at |P'| (1 - k o); for the oval both follow from q = (a sin)^2 + (b cos)^2 as |P'| = 2 pi sqrt(q) and
+     * k = a b / q^(3/2), giving 2 pi (sqrt(q) - a b o / q). Past the centre of curvature the offset curve turns back,
+     * which still covers distance, hence the absolute value.
+     * @param t Parameter of the used formula of the track, from 0 to 1.
+     * @param offset Distance to the left of the centre line.
      */
-    public void draw(GL2 gl) {
-        TrackDrawingData data = new TrackDrawingData();
-        gl.glColor3f(1f, 1f, 1f);
+    private double offsetSpeed(double t, double offset) {
+        double a = ovalTrackCosRadius * Math.sin(2 * Math.PI * t);
+        double b = ovalTrackSinRadius * Math.cos(2 * Math.PI * t);
+        double q = a * a + b * b;
+        return 2 * Math.PI * Math.abs(Math.sqrt(q) - ovalTrackCosRadius * ovalTrackSinRadius * offset / q);
+    }
 
-        /**
-         * We loop over the entire segment, generating 2 points every iteration, and then use the TrackCrossSectionDrawer
-         * to draw a cross-section connecting these 2 points. In each loop the previous secondPoint and secondPointTangent
-         * get passed on to the firstPoint and firstPointTangent variables respectively, therefore before we begin we
-         * pre-calculate these for the first iteration.
-         */
-        Vector secondPoint = getPoint(0);
-        Vector secondPointTangent = getTangent(0);
-
-        for (double t = 0; t < 1; t = t + dt) {
-            //Pass on values from the "next" variables to the "current" variables. Calculate new "next" variables.
-            Vector firstPointTangent = secondPointTangent;
-            secondPointTangent = getTangent(t + dt);
-            Vector firstPoint = secondPoint;
-            secondPoint = getPoint(t + dt);
-
-            //Draw the cross-section, storing the distance travelled on this cross-section in an array.
-            TrackCrossSectionDrawer.drawCrossSection(gl, data, firstPoint, firstPointTangent, secondPoint,
-                    secondPointTangent);
+    /**
+     * Fill the arc length table of the lanes, integrating the speed along each lane's offset curve over every step
+     * with Simpson's rule.
+     */
+    void prepare() {
+        if (arcLengths != null) {
+            return;
         }
-
+        ArcLengthTable table = new ArcLengthTable(layout.lanes, ARC_LENGTH_STEPS);
+        double step = 1 / (double) ARC_LENGTH_STEPS;
+        double[] stepDistances = new double[layout.lanes];
+        for (int i = 0; i < ARC_LENGTH_STEPS; i++) {
+            double t = i * step;
+            for (int lane = 0; lane < layout.lanes; lane++) {
+                double offset = offset(lane);
+                stepDistances[lane] = step / 6 * (offsetSpeed(t, offset) + 4 * offsetSpeed(t + step / 2, offset)
+                        + offsetSpeed(t + step, offset));
+            }
+            table.add(i, stepDistances);
+        }
+        arcLengths = table;
     }
-}
 
+    //Distances are converted through the t at which they are reached, i.e. at the same cross-section.
+    double convertDistance(double s, int fromLane, int toLane) {
+        return arcLengths.convert(s % arcLengths.length(fromLane), fromLane, toLane);
+    }
 
-/**
- * Class holding the relevant data during drawing of a track.
- */
-class TrackDrawingData {
-    double leftEdgeTexCoorFirstPoint;
-    double leftEdgeTexCoorSecondPoint;
-    double rightEdgeTexCoorFirstPoint;
-    double rightEdgeTexCoorSecondPoint;
-    double[][] roadTexCoors = new double[4][2];
-    double[] distanceData;
-}
+    //The length of each lane's offset curve.
+    double getLaneLength(int laneNr) {
+        return arcLengths.length(laneNr);
+    }
 
-/**
- * Class that draws a cross section of the track, with a depth of 1 polygon spanning between firstPoint and secondPoint.
- */
-class TrackCrossSectionDrawer{
-    static double trackWidth = 4.0;
-    static int numberOfLanes = 4;
+    //Method returning a normal vector.
+    Vec3 getNormal(double s, int laneNr, Vec3 out) {
+        // The surface of the basic oval track is always coplanar with the XOY plane therefore the normal is
+        // along the z-axis.
+        return out.set(Vector.Z);
+    }
 
     /**
-     * Draws a cross section of the track, going from a firstPointPos to a secondPointPos.
-     * @param gl OpenGL context
-     * @param data TrackDrawingData class holding the texture data used in this cross section
-     * @param firstPointPos The position of the first point.
-     * @param firstPointTangent The tangent to the track at the first point.
-     * @param secondPointPos The position of the second point.
-     * @param secondPointTangent The tangent of the track at the second point.
-     * @return An array holding the distance travelled on this cross section from point 1 to point 2, for each lane.
-     */
-    static double[] drawCrossSection(GL2 gl, TrackDrawingData data, Vector firstPointPos, Vector firstPointTangent,
-                          Vector secondPointPos, Vector secondPointTangent) {
-        /**
-         * First calculate the vectors pointing to the left (relative to the tangent) for the first and second points,
-         * as well as the normals corresponding to those points:
-         **/
-        Vector firstPointToLeftVector = Vector.Z.cross(firstPointTangent).normalized();
-        Vector secondPointToLeftVector = Vector.Z.cross(secondPointTangent).normalized();
-        Vector firstPointNormal = firstPointTangent.cross(firstPointToLeftVector).normalized();
-        Vector secondPointNormal = secondPointTangent.cross(secondPointToLeftVector).normalized();
-
-        /**
-         * Calculate the vectors pointing to the left and right edges of the road, at the first and second point.
-         */
-        Vector firstPointLeftEdge = firstPointPos.add(firstPointToLeftVector.scale(trackWidth / 2.0));
-        Vector firstPointRightEdge = firstPointPos.add(firstPointToLeftVector.scale(-trackWidth / 2.0));
-        Vector secondPointLeftEdge = secondPointPos.add(secondPointToLeftVector.scale(trackWidth / 2.0));
-        Vector secondPointRightEdge = secondPointPos.add(secondPointToLeftVector.scale(-trackWidth / 2.0));
-
-        //First set the texture for drawing the walls.
-        Track.brick.enable(gl);
-        Track.brick.bind(gl);
-
-
-        /**
-         * Draw the left edge of the road.
-         */
-        //Calculate the height of terrain at the left edge for the first and second point:
-        float firstPointHeightAtLeftEdge = Terrain.heightAt((float) firstPointLeftEdge.x(), (float) firstPointLeftEdge.y());
-        float secondPointHeightAtLeftEdge = Terrain.heightAt((float) secondPointLeftEdge.x(), (float) secondPointLeftEdge.y());
-        /**
-         * Calculate the new texture coordinates for the left edge of the road. If there is an overflow so we reach a
-         * coordinate higher than 1.0, we reset the first coordinate back to 0 and calculate the second coordinate from there.
-         */
-        data.leftEdgeTexCoorFirstPoint = data.leftEdgeTexCoorSecondPoint;
-        data.leftEdgeTexCoorSecondPoint += secondPointLeftEdge.subtract(firstPointLeftEdge).length() / 8.0;
-        if (data.leftEdgeTexCoorSecondPoint > 1.0) {
-            data.leftEdgeTexCoorFirstPoint = 0;
-            data.leftEdgeTexCoorSecondPoint = secondPointLeftEdge.subtract(firstPointLeftEdge).length() / 8.0;
-        }
-        /**
-         * Finally draw the left edge of the track. Set the normal vector in the same direction as the vector pointing to
-         * the left.
-         */
-        gl.glBegin(GL_TRIANGLE_STRIP);
-        for (double z = 1; z >= -1; z -= 0.25) {
-            gl.glNormal3d(firstPointToLeftVector.x(), firstPointToLeftVector.y(), firstPointToLeftVector.z());
-            gl.glTexCoord2d((z + 1) / 2.0, data.leftEdgeTexCoorFirstPoint);
-            gl.glVertex3d(firstPointLeftEdge.x(), firstPointLeftEdge.y(), firstPointLeftEdge.z() - 1 + z);
-
-            gl.glNormal3d(secondPointToLeftVector.x(), secondPointToLeftVector.y(), secondPointToLeftVector.z());
-            gl.glTexCoord2d((z + 1) / 2.0, data.leftEdgeTexCoorSecondPoint);
-            gl.glVertex3d(secondPointLeftEdge.x(), secondPointLeftEdge.y(), secondPointLeftEdge.z() - 1 + z);
-
-            //If at any point both the vertex coordinates are below the terrain we can stop drawing.
-            if (firstPointLeftEdge.z() - 1 + z < firstPointHeightAtLeftEdge &&
-                    secondPointLeftEdge.z() - 1 + z < secondPointHeightAtLeftEdge) {
-                break;
+     * Method that cuts the test track where it bends, the ends of the oval needing more cross-sections than its sides.
+     * The oval is a single curve, which is divided into PIECES pieces of about as many cross-sections, such that the
+     * parts of it that are out of view can be culled.
+     */
+    TrackTessellation tessellate() {
+        Tessellator.Curve curve = new Tessellator.Curve() {
+            @Override
+            public Vector point(double t) {
+                return getPoint(t);
             }
-        }
-        gl.glEnd();
 
-        /**
-         * Draw right edge of the road.
-         */
-        //Calculate the height of the terrain af the right edge for the first and second point:
-        float firstPointHeightAtRightEdge = Terrain.heightAt((float) firstPointRightEdge.x(), (float) firstPointRightEdge.y());
-        float secondPointHeightAtRightEdge = Terrain.heightAt((float) secondPointRightEdge.x(), (float) secondPointRightEdge.y());
-        /**
-         * Calculate the new texture coordinates for the right edge of the road. If there is an overflow so we reach a
-         * coordinate higher than 1.0, we reset the first coordinate back to 0 and calculate the second coordinate from there.
-         */
-        data.rightEdgeTexCoorFirstPoint = data.rightEdgeTexCoorSecondPoint;
-        data.rightEdgeTexCoorSecondPoint += secondPointRightEdge.subtract(firstPointRightEdge).length() / 8.0;
-        if (data.rightEdgeTexCoorSecondPoint > 1.0) {
-            data.rightEdgeTexCoorFirstPoint = 0;
-            data.rightEdgeTexCoorSecondPoint = secondPointRightEdge.subtract(firstPointRightEdge).length() / 8.0;
-        }
-        /**
-         * Finally draw the right edge of the track. Set the normal vector in the same direction as the vector pointing to
-         * the left, scaled with -1.
-         */
-        gl.glBegin(GL_TRIANGLE_STRIP);
-        for (double z = 1; z >= -1; z -= 0.25) {
-            gl.glNormal3d(-firstPointToLeftVector.x(), -firstPointToLeftVector.y(), -firstPointToLeftVector.z());
-            gl.glTexCoord2d((z + 1) / 2.0, data.rightEdgeTexCoorFirstPoint);
-            gl.glVertex3d(firstPointRightEdge.x(), firstPointRightEdge.y(), firstPointRightEdge.z() - 1 + z);
-
-            gl.glNormal3d(-secondPointToLeftVector.x(), -secondPointToLeftVector.y(), -secondPointToLeftVector.z());
-            gl.glTexCoord2d((z + 1) / 2.0, data.rightEdgeTexCoorSecondPoint);
-            gl.glVertex3d(secondPointRightEdge.x(), secondPointRightEdge.y(), secondPointLeftEdge.z() - 1 + z);
-
-            //If at any point both the vertex coordinates are below the terrain we can stop drawing.
-            if (firstPointRightEdge.z() - 1 + z < firstPointHeightAtRightEdge &&
-                    secondPointRightEdge.z() - 1 + z < secondPointHeightAtRightEdge) {
-                break;
+            @Override
+            public Vector tangent(double t) {
+                return getTangent(t, new Vec3()).toVector();
             }
+        };
+        double[] ts = Tessellator.tessellate(curve, layout.width() / 2.0, Tessellator.TOLERANCE);
+        List<Callable<TrackTessellation.Piece>> tasks = new ArrayList<Callable<TrackTessellation.Piece>>();
+        int crossSections = ts.length - 1;
+        for (int i = 0; i < PIECES; i++) {
+            final TrackTessellation.Piece piece = TrackTessellation.Piece.of(curve, Arrays.copyOfRange(ts,
+                    i * crossSections / PIECES, (i + 1) * crossSections / PIECES + 1));
+            tasks.add(new Callable<TrackTessellation.Piece>() {
+                @Override
+                public TrackTessellation.Piece call() {
+                    return piece;
+                }
+            });
         }
-        gl.glEnd();
-        Track.brick.disable(gl);
+        return TrackTessellation.build(layout, tasks);
+    }
+}
 
 
-        /**
-         * Draw the top and bottom of the track. We draw the track per lane, using the middle of the lane distances to
-         * keep track of texture coordinates on a per-lane basis, to reduce distortion.
-         */
-        //Initialize the track texture.
-        Track.track.enable(gl);
-        Track.track.bind(gl);
-        //Define an array containing the distances travelled on this piece of track, one for each lane:
-        double[] distancesTravelled = new double[numberOfLanes];
-        //Loop running over the 4 lanes.
-        for (int i = 0; i < numberOfLanes; i++) {
-            /**
-             * We specify 6 points on this small piece of the track. It looks as follows, taking the tangent vector
-             * as the x axis and ToLeftVector as the y-axis:
-             *  topLeft      0000000000000000000   topRight
-             *               0                 0
-             *               0                 0
-             *               0                 0
-             *  middleLeft   0000000000000000000   middleRight
-             *               0                 0
-             *               0                 0
-             *               0                 0
-             *  bottomLeft   0000000000000000000   bottomRight
-             *
-             *  We use these points as coordinates for our triangle strip.
-             */
-            Vector topLeft = firstPointLeftEdge.add(firstPointToLeftVector.scale(-trackWidth * (double) i / 4.0));
-            Vector topRight = secondPointLeftEdge.add(secondPointToLeftVector.scale(-trackWidth * (double) i / 4.0));
-            Vector middleLeft = firstPointLeftEdge.add(firstPointToLeftVector.scale(-trackWidth * (double) i / 4.0 - 0.5));
-            Vector middleRight = secondPointLeftEdge.add(secondPointToLeftVector.scale(-trackWidth * (double) i / 4.0 - 0.5));
-            Vector bottomLeft = firstPointLeftEdge.add(firstPointToLeftVector.scale(-trackWidth * (double) i / 4.0 - 1.0));
-            Vector bottomRight = secondPointLeftEdge.add(secondPointToLeftVector.scale(-trackWidth * (double) i / 4.0 - 1.0));
-            /**
-             * As distance travelled on this segment of track, we take the distance from middleLeft to middleRight points,
-             * we also keep a distance value normalized to texture coordinates:
-             */
-            distancesTravelled[i] = (middleRight.subtract(middleLeft)).length();
-            double distanceNormalized = distancesTravelled[i] / 12.0;
-            /**
-             * In the data object we kept the previous texture coordinates. Since the texture is 12 long, and we want
-             * distance markers every 10 meters, we check if the texture coordinate of the right of the track exceeds
-             * 10/12. If so, we restart at zero. Otherwise add the normalized distance to the right coordinate.
-             */
-            if (data.roadTexCoors[i][1] + distanceNormalized > 0.833333) {
-                data.roadTexCoors[i][0] = 0;
-                data.roadTexCoors[i][1] = distanceNormalized;
-            } else {
-                data.roadTexCoors[i][0] = data.roadTexCoors[i][1];
-                data.roadTexCoors[i][1] += distanceNormalized;
-            }
-            //We finished all pre-calculations, draw the top of the track:
-            gl.glBegin(GL_TRIANGLE_STRIP);
-            gl.glTexCoord2d((double) i / 4.0, data.roadTexCoors[i][0]);
-            gl.glNormal3d(firstPointNormal.x(), firstPointNormal.y(), firstPointNormal.z());
-            gl.glVertex3d(topLeft.x(), topLeft.y(), topLeft.z());
-
-            gl.glTexCoord2d((double) i / 4.0, data.roadTexCoors[i][1]);
-            gl.glNormal3d(secondPointNormal.x(), secondPointNormal.y(), secondPointNormal.z());
-            gl.glVertex3d(topRight.x(), topRight.y(), topRight.z());
-
-            gl.glTexCoord2d((double) i / 4.0 + 0.125, data.roadTexCoors[i][0]);
-            gl.glNormal3d(firstPointNormal.x(), firstPointNormal.y(), firstPointNormal.z());
-            gl.glVertex3d(middleLeft.x(), middleLeft.y(), middleLeft.z());
-
-            gl.glTexCoord2d((double) i / 4.0 + 0.125, data.roadTexCoors[i][1]);
-            gl.glNormal3d(secondPointNormal.x(), secondPointNormal.y(), secondPointNormal.z());
-            gl.glVertex3d(middleRight.x(), middleRight.y(), middleRight.z());
-
-
-            gl.glTexCoord2d((double) i / 4.0 + 0.250, data.roadTexCoors[i][0]);
-            gl.glNormal3d(firstPointNormal.x(), firstPointNormal.y(), firstPointNormal.z());
-            gl.glVertex3d(bottomLeft.x(), bottomLeft.y(), bottomLeft.z());
-
-            gl.glTexCoord2d((double) i / 4.0 + 0.25, data.roadTexCoors[i][1]);
-            gl.glNormal3d(secondPointNormal.x(), secondPointNormal.y(), secondPointNormal.z());
-            gl.glVertex3d(bottomRight.x(), bottomRight.y(), bottomRight.z());
-            gl.glEnd();
-
-            //We only draw the bottom of the track if the first point or second point given is above 1, since otherwise
-            //we are assured that the bottom is not visible anyways.
-            if (firstPointPos.z() > 1.001 || secondPointPos.z() > 1.001) {
-                gl.glPushMatrix();
-                gl.glTranslated(0, 0, -2);         //Translate 2 meters downwards.
-                //Draw the 6 calculated points, with inverted normals:
-                gl.glBegin(GL_TRIANGLE_STRIP);
-                gl.glTexCoord2d((double) i / 4.0, data.roadTexCoors[i][0]);
-                gl.glNormal3d(-firstPointNormal.x(), -firstPointNormal.y(), -firstPointNormal.z());
-                gl.glVertex3d(topLeft.x(), topLeft.y(), topLeft.z());
-
-                gl.glTexCoord2d((double) i / 4.0, data.roadTexCoors[i][1]);
-                gl.glNormal3d(-secondPointNormal.x(), -secondPointNormal.y(), -secondPointNormal.z());
-                gl.glVertex3d(topRight.x(), topRight.y(), topRight.z());
-
-                gl.glTexCoord2d((double) i / 4.0 + 0.125, data.roadTexCoors[i][0]);
-                gl.glNormal3d(-firstPointNormal.x(), -firstPointNormal.y(), -firstPointNormal.z());
-                gl.glVertex3d(middleLeft.x(), middleLeft.y(), middleLeft.z());
-
-                gl.glTexCoord2d((double) i / 4.0 + 0.125, data.roadTexCoors[i][1]);
-                gl.glNormal3d(-secondPointNormal.x(), -secondPointNormal.y(), -secondPointNormal.z());
-                gl.glVertex3d(middleRight.x(), middleRight.y(), middleRight.z());
-
-
-                gl.glTexCoord2d((double) i / 4.0 + 0.250, data.roadTexCoors[i][0]);
-                gl.glNormal3d(-firstPointNormal.x(), -firstPointNormal.y(), -firstPointNormal.z());
-                gl.glVertex3d(bottomLeft.x(), bottomLeft.y(), bottomLeft.z());
-
-                gl.glTexCoord2d((double) i / 4.0 + 0.25, data.roadTexCoors[i][1]);
-                gl.glNormal3d(-secondPointNormal.x(), -secondPointNormal.y(), -secondPointNormal.z());
-                gl.glVertex3d(bottomRight.x(), bottomRight.y(), bottomRight.z());
-                gl.glEnd();
-                gl.glPopMatrix();
-            }
+/**
+ * Class that measures a cross section of the track, with a depth of 1 polygon spanning between firstPoint and
+ * secondPoint. The track is drawn by TrackMesh.
+ */
+class TrackCrossSectionDrawer{
+    /**
+     * Compute the distance travelled from the first point to the second point along the middle of each lane, without
+     * drawing anything or allocating.
+     * @param layout The number and width of the lanes.
+     * @param firstPos The position of the first point.
+     * @param firstToLeft The unit vector pointing to the left of the track at the first point, Z x tangent.
+     * @param secondPos The position of the second point.
+     * @param secondToLeft The unit vector pointing to the left of the track at the second point.
+     * @param distances Array receiving the distance travelled for each lane.
+     */
+    static void laneDistances(LaneLayout layout, Vec3 firstPos, Vec3 firstToLeft, Vec3 secondPos,
+                              Vec3 secondToLeft, double[] distances) {
+        for (int i = 0; i < layout.lanes; i++) {
+            double offset = layout.offset(i);
+            //The vector from the middle of the lane at the first point to the middle at the second point.
+            double dx = (secondPos.x + secondToLeft.x * offset) - (firstPos.x + firstToLeft.x * offset);
+            double dy = (secondPos.y + secondToLeft.y * offset) - (firstPos.y + firstToLeft.y * offset);
+            double dz = (secondPos.z + secondToLeft.z * offset) - (firstPos.z + firstToLeft.z * offset);
+            distances[i] = Math.sqrt(dx * dx + dy * dy + dz * dz);
         }
-        return distancesTravelled;   //Return the array holding the distances travelled on this cross-section.
     }
 }
 
 abstract class RoadSegment {
-    //Give a relative distance traveled starting from the start point of this segment. Returns a vector with the coordinate
-    // corresponding to that distance traveled.
-    public abstract Vector getCoordinate(double s, int LaneNr);
+    //The number and width of the lanes, as given to prepare.
+    LaneLayout layout;
+
+    //Give a relative distance traveled starting from the start point of this segment. Sets out to the coordinate
+    // corresponding to that distance traveled and returns it. Like the tracks, segments store every result in a vector
+    // of the caller and may be queried from several threads at once.
+    public Vec3 getCoordinate(double s, int laneNr, Vec3 out) {
+        return getCoordinate(s, laneNr, laneNr, out);
+    }
+
+    //The same, but moved sideways to lanePosition (in lanes, possibly in between two), for robots changing lanes.
+    public abstract Vec3 getCoordinate(double s, int laneNr, double lanePosition, Vec3 out);
 
+    //Convert a relative distance travelled on one lane to the relative distance on another lane at the same cross-section.
+    abstract double convertDistance(double s, int fromLane, int toLane);
 
 
-    //Every road segment is able to draw itself. Returns the distance of the lanes in an array.
-    abstract void draw(GL2 gl, TrackDrawingData data);
+    //Every road segment is able to cut itself into the cross-sections it is drawn with. Called from several threads at
+    // once, one per segment.
+    abstract TrackTessellation.Piece tessellate(LaneLayout layout);
+
+    //Every road segment is able to compute its distance tables for a lane layout without drawing. Returns the distance of
+    // the lanes in an array.
+    abstract double[] prepare(LaneLayout layout);
 
     //Every road segment is able to return a tangent vector, when given a relative distance travelled on the segment.
-    abstract Vector getTangent(double s, int laneNr);
+    abstract Vec3 getTangent(double s, int laneNr, Vec3 out);
 
     //Every road segment is able to return a normal vector, when given a relative distance travelled on the segment.
-    abstract Vector getNormal(double s, int laneNr);
+    abstract Vec3 getNormal(double s, int laneNr, Vec3 out);
+
+    //The points where the centre line of the segment starts and ends, and the direction (not normalized) of the centre
+    // line there, used to check that segments join smoothly.
+    abstract Vector getStartPoint();
+
+    abstract Vector getEndPoint();
+
+    abstract Vector getStartDirection();
+
+    abstract Vector getEndDirection();
 }
 
 class StraightRoadSegment extends RoadSegment {
     Vector startPoint;
     Vector endPoint;
     int resolution;                         //Resolution of the road segment.
-    double trackWidth = 4.0;
-    double dt;
     Vector toLeft;                          //Vector pointing to the left in regard to the tangent vector.
     Vector differenceVector;                //Vector pointing from start point to end point.
     Vector normalVector;
@@ -629,75 +808,99 @@ class StraightRoadSegment extends RoadSegment {
      * When given a distance s and laneNr give the appropriate coordinate.
      * @param s Distance travelled on this road segment.
      * @param laneNr The lane the robot is in.
-     * @return
+     * @param lanePosition Sideways position of the robot, in lanes.
+     * @param out Vector receiving the coordinate.
+     * @return out
      */
-    public Vector getCoordinate(double s, int laneNr) {
+    public Vec3 getCoordinate(double s, int laneNr, double lanePosition, Vec3 out) {
         /**
          * Use the difference vector the find
          * the appropriate point, by adding the differenceVector scaled with a factor s / differenceVector.length to the
          * startPoint. Then move to the side to account for the lane.
          */
-        Vector centrePointOnTrack = startPoint.add(differenceVector.scale(s / differenceVector.length()));
-        return centrePointOnTrack.add(toLeft.scale(0.375 * trackWidth - (double)laneNr));
+        return out.set(startPoint).addScaled(differenceVector, s / differenceVector.length())
+                .addScaled(toLeft, layout.offset(lanePosition));
+    }
+
+    //All lanes of a straight segment have the same length.
+    @Override
+    double convertDistance(double s, int fromLane, int toLane) {
+        return s;
     }
 
 
 
     /**
-     * Method that draws the straight road segment.
-     * @param gl OpenGL context.
-     * @param data TrackDrawingData object, containing texture data of previous road-segments.
+     * Method that cuts the straight road segment into cross-sections of equal length, at least resolution of them and
+     * none longer than Tessellator.MAX_LENGTH, which keeps the walls following the terrain.
+     * @param layout The number and width of the lanes.
      */
     @Override
-    void draw(GL2 gl, TrackDrawingData data) {
-        dt = 1 / (double) resolution;       //Step size is dependant on resolution.
-        gl.glColor3f(1f, 1f, 1f);           //Set color to white to avoid interfering with texture.
-
-        /**
-         * We loop over the entire segment, generating 2 points every iteration, and then use the TrackCrossSectionDrawer
-         * to draw a cross-section connecting these 2 points. In each loop the previous secondPoint gets passed on to the
-         * firstPoint, so we precalculate this for the first iteration.
-         */
-        Vector secondPoint = startPoint;
-        for (double t = 0; t < 1; t+=dt){
-            /**
-             * Pass on the value of the secondPoint to firstPoint, and calculate a new secondPoint.
-             */
-            Vector firstPoint = secondPoint;
-            secondPoint = startPoint.add(differenceVector.scale((t+dt)/1.0));
-
-            //Draw the cross-section.
-            TrackCrossSectionDrawer.drawCrossSection(gl,data,firstPoint,differenceVector,secondPoint,differenceVector);
+    TrackTessellation.Piece tessellate(LaneLayout layout) {
+        int steps = Math.max(resolution, (int) Math.ceil(differenceVector.length() / Tessellator.MAX_LENGTH));
+        Vector[] points = new Vector[steps + 1];
+        Vector[] tangents = new Vector[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            points[i] = startPoint.add(differenceVector.scale(i / (double) steps));
+            tangents[i] = differenceVector;
         }
-        /**
-         * We generate an array holding the distance travelled on each lane (which is needed by the caller to keep track
-         * of distances of each segment.). For the case of the straight segment, the distance of each lane is just the
-         * length of the difference vector
-         */
-        double distance = differenceVector.length();
-        data.distanceData = new double[]{distance,distance,distance,distance};
+        return new TrackTessellation.Piece(points, tangents);
+    }
 
+    /**
+     * We generate an array holding the distance travelled on each lane (which is needed by the caller to keep track
+     * of distances of each segment.). For the case of the straight segment, the distance of each lane is just the
+     * length of the difference vector
+     */
+    @Override
+    double[] prepare(LaneLayout layout) {
+        this.layout = layout;
+        double[] distances = new double[layout.lanes];
+        java.util.Arrays.fill(distances, differenceVector.length());
+        return distances;
     }
 
 
     /**
      * @param s Distance travelled on the lane.
      * @param laneNr Lane number the robot is on.
-     * @return The tangent vector.
+     * @param out Vector receiving the tangent.
+     * @return out, the tangent vector.
      */
     @Override
-    Vector getTangent(double s, int laneNr) {
-        return differenceVector.normalized();
+    Vec3 getTangent(double s, int laneNr, Vec3 out) {
+        return out.set(differenceVector).normalize();
     }
 
     /**
      * @param s Distance travelled on this road segment.
      * @param LaneNr Lane number the robot is on.
-     * @return The normal vector.
+     * @param out Vector receiving the normal.
+     * @return out, the normal vector.
      */
     @Override
-    Vector getNormal(double s, int LaneNr) {
-        return normalVector;
+    Vec3 getNormal(double s, int LaneNr, Vec3 out) {
+        return out.set(normalVector);
+    }
+
+    @Override
+    Vector getStartPoint() {
+        return startPoint;
+    }
+
+    @Override
+    Vector getEndPoint() {
+        return endPoint;
+    }
+
+    @Override
+    Vector getStartDirection() {
+        return differenceVector;
+    }
+
+    @Override
+    Vector getEndDirection() {
+        return differenceVector;
     }
 
 }
@@ -716,18 +919,11 @@ class BezierRoadSegment extends RoadSegment {
     private Vector point3;
     private int resolution;
     /**
-     * Table containing the distance travelled in each cross-section of the track, first index is the lane number, second
-     * index is the distance at t = index number * dt (where t is the variable from 0 to 1 over the bezier curve).
+     * Table containing the distance travelled up to each cross-section of the track on each lane, at t = step * dt
+     * (where t is the variable from 0 to 1 over the bezier curve).
      */
-    private double[][] segmentDistances;
-    double trackWidth = 4;
+    private ArcLengthTable arcLengths;
     double dt;              //Interval size
-    /**
-     * Array holding the index in the segmentDistances array corresponding to the previous getDistance request on a per
-     * lane basic. It always points to the first index in the segmentDistances that holds a bigger distance than the
-     * previous request. Since the first element of that array is distance 0, we initialize it to 1.
-     */
-    int[] previousDistanceIndex = {1,1,1,1};
 
 
     BezierRoadSegment(Vector point0, Vector point1, Vector point2, Vector point3, int resolution) {
@@ -736,49 +932,128 @@ class BezierRoadSegment extends RoadSegment {
         this.point2 = point2;
         this.point3 = point3;
         this.resolution = resolution;
-        segmentDistances = new double[4][resolution + 1];
     }
 
 
     /**
-     * Method that draws the Bezier segment of the track.
-     * @param data TrackDrawingData object
-     * @param gl OpenGL context.
+     * Method that cuts the Bezier segment where it bends, rather than at every step of the resolution, which only sets
+     * the arc length table.
+     * @param layout The number and width of the lanes.
      */
     @Override
-    void draw(GL2 gl, TrackDrawingData data) {
-        dt = 1 / (double) resolution;    //Step size is determined by resolution.
-        gl.glColor3f(1f, 1f, 1f);        //Set color to white to avoid interfering with texture.
-
+    TrackTessellation.Piece tessellate(LaneLayout layout) {
+        Tessellator.Curve curve = new Tessellator.Curve() {
+            @Override
+            public Vector point(double t) {
+                return Util.getCubicBezierPnt(t, point0, point1, point2, point3);
+            }
 
-        /**
-         * We loop over the entire segment, generating 2 points every iteration, and then use the TrackCrossSectionDrawer
-         * to draw a cross-section connecting these 2 points. In each loop the previous secondPoint and secondPointTangent
-         * get passed on to the firstPoint and firstPointTangent variables respectively, therefore before we begin we
-         * pre-calculate these for the first iteration.
-         */
-        Vector secondPointTangent = Util.getCubicBezierTng(0, point0, point1, point2, point3);
-        Vector secondPoint = point0;
-        for (double t = 0; t < 1; t = t + dt) {
-            //Pass on values from the "next" variables to the "current" variables. Calculate new "next" variables.
-            Vector firstPointTangent = secondPointTangent;
-            secondPointTangent = Util.getCubicBezierTng(t+dt, point0, point1, point2, point3);
-            Vector firstPoint = secondPoint;
-            secondPoint = Util.getCubicBezierPnt(t + dt, point0, point1, point2, point3);
-
-            //Draw the cross-section, storing the distance travelled on this cross-section in an array.
-            double[] distancesCrossSection = TrackCrossSectionDrawer.drawCrossSection(gl, data,firstPoint, firstPointTangent, secondPoint,
-                    secondPointTangent);
-            for (int i = 0; i<4; i++) {
-                segmentDistances[i][(int)Math.round(t/dt) + 1] = segmentDistances[i][(int)Math.round(t/dt)] + distancesCrossSection[i];
+            @Override
+            public Vector tangent(double t) {
+                return Util.getCubicBezierTng(t, point0, point1, point2, point3);
             }
+        };
+        return TrackTessellation.Piece.of(curve, Tessellator.tessellate(curve, layout.width() / 2.0,
+                Tessellator.TOLERANCE));
+    }
+
+    /**
+     * Method that fills the table of distances travelled in each cross-section, walking over the curve at every step of
+     * the resolution.
+     * @return The total length of each lane.
+     */
+    @Override
+    double[] prepare(LaneLayout layout) {
+        //The table only depends on the lane layout, so it is kept when the track is selected again or was loaded.
+        if (arcLengths != null && layout.equals(this.layout)) {
+            return arcLengths.lengths();
         }
+        this.layout = layout;
+        dt = 1 / (double) resolution;
+        ArcLengthTable table = new ArcLengthTable(layout.lanes, resolution);
+        double[] distancesCrossSection = new double[layout.lanes];
+
+        //The points and the vectors to the left at both ends of a step, the end of a step being the start of the next.
+        Vec3 firstPoint = new Vec3();
+        Vec3 firstPointToLeft = new Vec3();
+        Vec3 secondPoint = new Vec3().set(point0);
+        Vec3 secondPointToLeft = toLeft(0, new Vec3());
+        for (int step = 0; step < resolution; step++) {
+            double t = step * dt;
+            Vec3 swap = firstPointToLeft;
+            firstPointToLeft = secondPointToLeft;
+            secondPointToLeft = toLeft(t + dt, swap);
+            swap = firstPoint;
+            firstPoint = secondPoint;
+            secondPoint = Util.getCubicBezierPnt(t + dt, point0, point1, point2, point3, swap);
+
+            TrackCrossSectionDrawer.laneDistances(layout, firstPoint, firstPointToLeft, secondPoint, secondPointToLeft,
+                    distancesCrossSection);
+            table.add(step, distancesCrossSection);
+        }
+        arcLengths = table;
+
+        //We return the final total length of each lane to the calling object.
+        return table.lengths();
+    }
 
-        //When drawing the top surface, we recorded the distance values of each lane. We return the final total length
-        //of each lane to the calling object, by storing it in the data object.
-        double[] distances = {segmentDistances[0][resolution], segmentDistances[1][resolution],
-                segmentDistances[2][resolution], segmentDistances[3][resolution]};
-        data.distanceData = distances;
+    /**
+     * @param t Parameter of the curve, from 0 to 1.
+     * @param out Vector receiving the unit vector pointing to the left of the curve.
+     * @return out
+     */
+    private Vec3 toLeft(double t, Vec3 out) {
+        Util.getCubicBezierTng(t, point0, point1, point2, point3, out);
+        return out.cross(Vector.Z, out).normalize();
+    }
+
+    /**
+     * @return The table of distances filled by prepare, null if the segment was not prepared yet.
+     */
+    ArcLengthTable getArcLengths() {
+        return arcLengths;
+    }
+
+    /**
+     * Use a table of distances computed before for the given lane layout, e.g. read from a track file, instead of
+     * computing it in prepare.
+     */
+    void setArcLengths(LaneLayout layout, ArcLengthTable table) {
+        this.layout = layout;
+        this.dt = 1 / (double) resolution;
+        this.arcLengths = table;
+    }
+
+    /**
+     * @return The four control points of the curve.
+     */
+    Vector[] getControlPoints() {
+        return new Vector[]{point0, point1, point2, point3};
+    }
+
+    int getResolution() {
+        return resolution;
+    }
+
+    @Override
+    Vector getStartPoint() {
+        return point0;
+    }
+
+    @Override
+    Vector getEndPoint() {
+        return point3;
+    }
+
+    //The derivative of a cubic bezier curve at its ends points to the neighbouring control point.
+    @Override
+    Vector getStartDirection() {
+        return Util.getCubicBezierTng(0, point0, point1, point2, point3);
+    }
+
+    @Override
+    Vector getEndDirection() {
+        return Util.getCubicBezierTng(1, point0, point1, point2, point3);
     }
 
     /**
@@ -789,31 +1064,16 @@ class BezierRoadSegment extends RoadSegment {
      * @return the value t corresponding
      */
     private double getT(double s, int laneNr) {
-        /**
-         * previousDistanceIndex always points to the first stored distance that is bigger than the last distance travelled.
-         * First we check if this is still the case, otherwise we start the index back at 1. This should only happen when
-         * a robot is finished walking on the segment, and at some point later returns to the start of it.
-         */
-        if (s < segmentDistances[laneNr][previousDistanceIndex[laneNr]-1]){
-            previousDistanceIndex[laneNr] = 1;
-        }
-        /**
-         * Find the first element in the segmentDistancesArray that is bigger than the given distance. Since we start looking
-         * at previousDistanceIndex, this should only be 0 or 1 step (assuming normal frame-rate / track resolution).
-         */
-        while (s >= segmentDistances[laneNr][previousDistanceIndex[laneNr]]) {
-            previousDistanceIndex[laneNr]++;
-        }
-        /**
-         * We now know that previousDistanceIndex points to the first stored distance that is greater than the request one.
-         * Therefore we know that the required t is on the segment corresponding to (previousIndex-1)*dt and previousIndex*dt.
-         * First calculate the size of this segment:
-         */
-        double sizeSegment = segmentDistances[laneNr][previousDistanceIndex[laneNr]] - segmentDistances[laneNr][previousDistanceIndex[laneNr] - 1];
-        //Then calculate how much bigger s is than previousIndex-1:
-        double overflow = s - segmentDistances[laneNr][previousDistanceIndex[laneNr]-1];
-        //Now we use the overflow and sizeSegment to interpolate the requested t.
-        return (previousDistanceIndex[laneNr] - 1 + overflow / sizeSegment) * dt;
+        return arcLengths.t(s, laneNr);
+    }
+
+    /**
+     * Method that converts a distance on one lane to the distance on another lane at the same t, i.e. at the same
+     * cross-section of the track.
+     */
+    @Override
+    double convertDistance(double s, int fromLane, int toLane) {
+        return arcLengths.convert(s, fromLane, toLane);
     }
 
     /**
@@ -821,34 +1081,39 @@ class BezierRoadSegment extends RoadSegment {
      * of stored distances created during drawing to calculate the position.
      * @param s Distance travelled on this road segment.
      * @param laneNr Lane the robot is in.
-     * @return The coordinates of the robot on the track.
+     * @param lanePosition Sideways position of the robot, in lanes.
+     * @param out Vector receiving the coordinates.
+     * @return out, the coordinates of the robot on the track.
      */
     @Override
-    public Vector getCoordinate(double s, int laneNr) {
+    public Vec3 getCoordinate(double s, int laneNr, double lanePosition, Vec3 out) {
         //Use the getT method to find the t used in the bezier curve formula corresponding to the given s and laneNr.
         double t=getT(s, laneNr);
 
         /**
          * Find the coordinate  of the given distance and laneNr at the middle line of the track, use the tangent
-         * vector to move the robot an appropiate amount to the left, in order to put him in the correct lane.
+         * vector to move the robot an appropiate amount to the left, in order to put him in the correct lane. The
+         * offset to the left is kept while the coordinate is computed in the same vector.
          */
-        Vector coordinate = Util.getCubicBezierPnt(t, point0, point1, point2, point3);
-        Vector tangent = Util.getCubicBezierTng(t, point0, point1, point2, point3);
-        Vector toLeft = Vector.Z.cross(tangent).normalized();
-        return coordinate.add(toLeft.scale(trackWidth / 8.0 * 3.0 - (double) laneNr));
+        toLeft(t, out).scale(layout.offset(lanePosition));
+        double leftX = out.x;
+        double leftY = out.y;
+        double leftZ = out.z;
+        return Util.getCubicBezierPnt(t, point0, point1, point2, point3, out).add(leftX, leftY, leftZ);
     }
 
     /**
      * Method that returns the tangent vector at a given s and laneNr.
      * @param s The distance travelled on this road segment.
      * @param laneNr The lane the robot is in.
-     * @return The tangent vector corresponding to these parameters.
+     * @param out Vector receiving the tangent.
+     * @return out, the tangent vector corresponding to these parameters.
      */
     @Override
-    Vector getTangent(double s, int laneNr) {
+    Vec3 getTangent(double s, int laneNr, Vec3 out) {
         //Use the getT method to find the t used in the bezier curve formula corresponding to the given s and laneNr.
         double t = getT(s, laneNr);
-        return Util.getCubicBezierTng(t, point0, point1, point2, point3).normalized();
+        return Util.getCubicBezierTng(t, point0, point1, point2, point3, out).normalize();
     }
 
 
@@ -856,14 +1121,19 @@ class BezierRoadSegment extends RoadSegment {
      * Method that returns the normal vector at a given s and laneNr.
      * @param s The distance travelled on this road segment.
      * @param laneNr The lane the robot is in.
-     * @return The normal vector corresponding to the parameters.
+     * @param out Vector receiving the normal.
+     * @return out, the normal vector corresponding to the parameters.
      */
     @Override
-    public Vector getNormal(double s, int laneNr) {
+    public Vec3 getNormal(double s, int laneNr, Vec3 out) {
         //Use the getT method to find the t used in the bezier curve formula corresponding to the given s and laneNr.
         double t = getT(s, laneNr);
-        Vector tangent = Util.getCubicBezierTng(t, point0, point1, point2, point3);
-        return tangent.cross(Vector.Z.cross(tangent)).normalized();
+        Util.getCubicBezierTng(t, point0, point1, point2, point3, out);
+        double tangentX = out.x;
+        double tangentY = out.y;
+        double tangentZ = out.z;
+        //The tangent crossed with the vector to its left.
+        return out.cross(Vector.Z, out).cross(tangentX, tangentY, tangentZ, out).normalize();
     }
 }
 
@@ -0,0 +1,127 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary log from which a race can be reproduced exactly.
+ *
+ * With a fixed seed and a fixed time step the only thing that influences a race is the track selected at each tick,
+ * so that is all that is logged: a header followed by one byte per tick. The layout (big-endian) is:
+ * <pre>
+ *  int   magic          'RRRP'
+ *  int   version        1
+ *  long  seed           seed of the random generator the robots are created with
+ *  long  tickNanos      length of a tick in nanoseconds
+ *  int   robots         number of robots
+ *  int   initialTrack   track selected when the race started
+ *  long  tickCount      number of ticks, -1 if the log was not closed properly
+ *  byte  track[tickCount]
+ * </pre>
+ */
+class ReplayLog {
+    static final int MAGIC = 0x52525250;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+
+    // Offset of the tick count in the header, which is only known (and written) when the log is closed.
+    private static final int TICK_COUNT_OFFSET = 32;
+
+    /**
+     * Writes a replay log while a race is running. Not thread-safe, it is meant to be fed by the simulation thread.
+     */
+    static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long tickCount;
+
+        Writer(File file, long seed, int robots, int initialTrack) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(seed);
+            buffer.putLong(Simulation.TICK_NANOS);
+            buffer.putInt(robots);
+            buffer.putInt(initialTrack);
+            buffer.putLong(-1);
+        }
+
+        /**
+         * Append the input of one tick.
+         *
+         * @param trackNr the track selected during the tick
+         */
+        void write(int trackNr) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) trackNr);
+            tickCount++;
+        }
+
+        /**
+         * Write the remaining ticks and fill in the tick count.
+         */
+        void close() throws IOException {
+            flush();
+            ByteBuffer count = ByteBuffer.allocate(8);
+            count.putLong(0, tickCount);
+            channel.write(count, TICK_COUNT_OFFSET);
+            channel.close();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads a replay log from start to end.
+     */
+    static class Reader {
+        final long seed;
+        final long tickNanos;
+        final int robots;
+        final int initialTrack;
+        final long tickCount;
+
+        private final DataInputStream in;
+
+        Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                in.close();
+                throw new IOException(file + " is not a replay log");
+            }
+            seed = in.readLong();
+            tickNanos = in.readLong();
+            robots = in.readInt();
+            initialTrack = in.readInt();
+            long count = in.readLong();
+            // A log of a race that was not ended properly still holds every tick that was flushed.
+            tickCount = count >= 0 ? count : file.length() - HEADER_SIZE;
+        }
+
+        /**
+         * @return the track selected during the next tick.
+         * @throws EOFException if all ticks have been read
+         */
+        int next() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -38,6 +38,10 @@ class Robot {
     // Calculate the height defined by the previous dimensions, used by the camera.
     static final double height = torsoTrans.z() + (neck.z() - rightHip.z()) / 2 + neck.z() + headHeight;
 
+    // Radius of a sphere halfway up the robot that holds all of it, used to skip robots that are out of view. Half the
+    // head's width is added to half the height, which also leaves room for the antennae and the swinging limbs.
+    static final double boundingRadius = height / 2 + headWidth / 2;
+
     // Head colors
     float[] neckColor;
     float[] headColor;
@@ -69,8 +73,15 @@ class Robot {
     GlobalState gs;
     // Keep a reference to the track the robot is on.
     private RaceTrack track;
-    // Maintain in which lane the robot is running.
+    // Maintain in which lane the robot is running. While changing lanes, this is the lane it is moving to.
     private int trackLane;
+    // The lane the robot starts a race in.
+    private final int startLane;
+    // Sideways position of the robot in lanes, which only differs from trackLane while changing lanes.
+    private double lanePosition;
+
+    // Distance in meters a robot runs while moving over by one lane.
+    static final double LANE_CHANGE_DISTANCE = 3;
 
     //Maintain which track is currently selected.
     private int trackNr;
@@ -86,9 +97,29 @@ class Robot {
 
     double distCovered = 0; // In meters, since the start of the current race.
 
+    // The speed (in m/s) and inclination (in [-1, 1]) used in the last tick, kept for the telemetry.
+    double speed;
+    double inclination;
+
+    // The speed the robot may not exceed in the next tick, set by the Traffic to not run into the robot ahead.
+    double speedLimit = Double.POSITIVE_INFINITY;
+
     // Keep track of the last position, last tangent and last normal.
     // This information along with the speed and frame time allow us to calculate the robot's new position and direction.
-    private Vector pos;
+    // Computed once per tick and shared with the cameras and the renderer.
+    private RobotKinematics kinematics;
+
+    // The vectors the track answers the queries of computeKinematics in, kept such that a tick does not allocate them.
+    // The tangent is that of the last kinematics.
+    private final Vec3 position = new Vec3();
+    private final Vec3 tangent = new Vec3();
+    private final Vec3 normal = new Vec3();
+
+    // The state being drawn, set by drawAtPos. Only used on the rendering thread.
+    private RobotKinematics pose;
+
+    // The tracker through which the OpenGL state is set while drawing, set by drawAtPos.
+    private GLState state;
 
     // Objects which abstract the calculations of linear front-to-back-to-front rotation of the limbs.
     LimbRotation upperArmRotate = new LimbRotation(upperToLowerArm.length(), -22.5, 37.5);
@@ -115,35 +146,80 @@ class Robot {
 
     /**
      * Constructs the robot with initial parameters.
+     *
+     * @param random source of the robot's speed properties, shared by all robots of a race such that a race is
+     *               reproduced exactly by using the same seed
      */
-    public Robot(Material material, RaceTrack track, int trackLane, GlobalState gs) {
+    public Robot(Material material, RaceTrack track, int trackLane, GlobalState gs, Random random) {
         this.material = material;
+        setColors();
         this.track = track;
         this.trackLane = trackLane;
+        this.startLane = trackLane;
+        this.lanePosition = trackLane;
         this.gs = gs;
 
         // Set a random speed of the robot on horizontal paths relative to common base speed of 15 m/s.
-        baseSpeed = 15 + 4 * (new Random().nextDouble() - 0.5); // m/s
+        baseSpeed = baseSpeed(random.nextDouble()); // m/s
         // Set the factor with which the robot's speed varies depending on the inclination angle.
-        inclinationFactor = 0.5 + 0.5 * new Random().nextDouble();
+        inclinationFactor = inclinationFactor(random.nextDouble());
 
         // Add phase shift of 1/8 period as offset to the upper leg rotation for more natural looking movement.
         lowerLegRotate.addAngle(0.25 * lowerLegRotate.getMaxDelta());
     }
 
+    // Getter for the position, orientation and limb angles of the robot as computed in the last tick.
+    public RobotKinematics getKinematics() {
+        return kinematics;
+    }
+
+    // Getter for the lane the robot is running in.
+    public int getLane() {
+        return trackLane;
+    }
+
+    // Getter for the lane the robot starts a race in.
+    public int getStartLane() {
+        return startLane;
+    }
+
+    // Getter for the sideways position of the robot, in lanes.
+    public double getLanePosition() {
+        return lanePosition;
+    }
+
+    // Whether the robot is still moving sideways to its lane.
+    public boolean isChangingLane() {
+        return lanePosition != trackLane;
+    }
+
+    /**
+     * Start moving to another lane. The distance covered is converted to the new lane right away, such that the robot
+     * stays at the same point of the track; its sideways position follows over the next LANE_CHANGE_DISTANCE meters.
+     *
+     * @param lane the lane to move to
+     */
+    public void changeLane(int lane) {
+        double laneLength = track.getLaneLength(trackLane);
+        double laps = Math.floor(distCovered / laneLength);
+        double s = distCovered - laps * laneLength;
+        distCovered = laps * track.getLaneLength(lane) + track.convertDistance(s, trackLane, lane);
+        trackLane = lane;
+    }
+
     // Getter for position of the robot
     public Vector getPosition() {
-        return pos;
+        return kinematics.position;
     }
 
-    // Calculate the tangent to the current path of the robot.
+    // The tangent to the current path of the robot.
     public Vector getTangent() {
-        return track.getTangent(distCovered, trackLane);
+        return kinematics.tangent;
     }
 
-    // Calculate the normal to the current path of the robot.
+    // The normal to the current path of the robot.
     public Vector getNormal() {
-        return track.getNormal(distCovered, trackLane);
+        return kinematics.normal;
     }
 
     /**
@@ -156,27 +232,28 @@ class Robot {
         final double minimizeSlipCoEfficient = 0.33;
 
         //If a new track is selected, reset the start distance so the robots start back at the start line.
-        if (this.trackNr != track.trackNr) {
+        if (this.trackNr != track.trackNr || kinematics == null) {
             this.distCovered = 0;
             this.trackNr = track.trackNr;
+            this.trackLane = startLane;
+            this.lanePosition = startLane;
+            kinematics = computeKinematics();
         }
 
-        // Get the previous tangent to calculate the incline
-        Vector tangent = track.getTangent(distCovered, trackLane);
-
-        // Calculate an incline factor by dividing the angle between the tangent and the projection of the tangent on
-        // the XOY plane by PI / 2. The z coord will specify whether we are moving up an incline or down.
-        // The final value of inclination will be in [-1, 1], from straight down to straight up.
-        Vector projectedTangent = new Vector(tangent.x(), tangent.y(), 0).normalized();
-
-        double posNegIncline = tangent.z() >= 0 ? 1 : -1;
-        double inclination = posNegIncline * Math.asin(tangent.cross(projectedTangent).length()) / (0.5 * Math.PI);
-
-        double speed = (1 + (-1) * inclinationFactor * inclination) * baseSpeed;
-        double dist = (timeDiff / 10e9) * speed;
+        // Use the previous tangent to calculate the incline
+        inclination = inclination(tangent);
+        speed = Math.min(speed(baseSpeed, inclinationFactor, inclination), speedLimit);
+        double dist = distance(timeDiff, speed);
 
         distCovered += dist;
 
+        // Move sideways towards the lane the robot is changing to, if any.
+        if (lanePosition < trackLane) {
+            lanePosition = Math.min(trackLane, lanePosition + dist / LANE_CHANGE_DISTANCE);
+        } else if (lanePosition > trackLane) {
+            lanePosition = Math.max(trackLane, lanePosition - dist / LANE_CHANGE_DISTANCE);
+        }
+
         // Tell the end of upper arm to travel a distance
         double angle = upperArmRotate.rotateDist(minimizeSlipCoEfficient * dist);
 
@@ -185,20 +262,107 @@ class Robot {
         upperLegRotate.addAngle(angle / upperArmRotate.getMaxDelta() * upperLegRotate.getMaxDelta());
         lowerLegRotate.addAngle(angle / upperArmRotate.getMaxDelta() * lowerLegRotate.getMaxDelta());
 
-        pos = track.getPositionOnLane(distCovered, trackLane);
+        kinematics = computeKinematics();
+    }
+
+    /**
+     * @param uniform a random number in [0, 1)
+     * @return the base speed it corresponds to, 15 m/s give or take 2 m/s
+     */
+    static double baseSpeed(double uniform) {
+        return 15 + 4 * (uniform - 0.5);
+    }
+
+    /**
+     * @param uniform a random number in [0, 1)
+     * @return the inclination factor it corresponds to, in [0.5, 1)
+     */
+    static double inclinationFactor(double uniform) {
+        return 0.5 + 0.5 * uniform;
+    }
+
+    /**
+     * Calculate an incline factor by dividing the angle between the tangent and the projection of the tangent on
+     * the XOY plane by PI / 2. The z coord will specify whether we are moving up an incline or down.
+     *
+     * @param tangent unit tangent of the path
+     * @return the inclination, in [-1, 1], from straight down to straight up
+     */
+    static double inclination(Vec3 tangent) {
+        // The projected tangent, normalized. Its z-coordinate is 0, which leaves out terms of the cross product.
+        double scale = 1 / Math.sqrt(tangent.x * tangent.x + tangent.y * tangent.y);
+        double projectedX = tangent.x * scale;
+        double projectedY = tangent.y * scale;
+        double crossX = -tangent.z * projectedY;
+        double crossY = tangent.z * projectedX;
+        double crossZ = tangent.x * projectedY - tangent.y * projectedX;
+
+        double posNegIncline = tangent.z >= 0 ? 1 : -1;
+        return posNegIncline * Math.asin(Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ))
+                / (0.5 * Math.PI);
+    }
+
+    /**
+     * @return the speed of a robot with the given properties on a path with the given inclination, slower uphill
+     * and faster downhill
+     */
+    static double speed(double baseSpeed, double inclinationFactor, double inclination) {
+        return (1 + (-1) * inclinationFactor * inclination) * baseSpeed;
     }
 
     /**
-     * Draw the robot at the last calculated position and with the appropriate direction.
+     * @param timeDiff time in nanoseconds
+     * @param speed speed as returned by speed()
+     * @return the distance in meters covered in that time at that speed
      */
-    public void drawAtPos(GL2 gl, GLUT glut) {
-        Vector normal = track.getNormal(distCovered, trackLane);
-        Vector tangent = track.getTangent(distCovered, trackLane);
+    static double distance(long timeDiff, double speed) {
+        return (timeDiff / 10e9) * speed;
+    }
 
+    /**
+     * Query the track for the position, tangent and normal at the current distance. This is the only place where the
+     * robot asks the track for them, everything else reads the resulting snapshot.
+     */
+    private RobotKinematics computeKinematics() {
+        double[] limbAngles = new double[RobotKinematics.LIMB_ANGLE_COUNT];
+        limbAngles[RobotKinematics.UPPER_ARM] = upperArmRotate.getAngle();
+        limbAngles[RobotKinematics.UPPER_ARM + 1] = upperArmRotate.getAngleHalfPhaseShift();
+        limbAngles[RobotKinematics.LOWER_ARM] = lowerArmRotate.getAngle();
+        limbAngles[RobotKinematics.LOWER_ARM + 1] = lowerArmRotate.getAngleHalfPhaseShift();
+        limbAngles[RobotKinematics.UPPER_LEG] = upperLegRotate.getAngle();
+        limbAngles[RobotKinematics.UPPER_LEG + 1] = upperLegRotate.getAngleHalfPhaseShift();
+        limbAngles[RobotKinematics.LOWER_LEG] = lowerLegRotate.getAngle();
+        limbAngles[RobotKinematics.LOWER_LEG + 1] = lowerLegRotate.getAngleHalfPhaseShift();
+
+        // The snapshot is shared with other threads, so it gets immutable copies.
+        track.getPositionOnLane(distCovered, trackLane, lanePosition, position);
+        track.getTangent(distCovered, trackLane, tangent);
+        track.getNormal(distCovered, trackLane, normal);
+        return new RobotKinematics(position.toVector(), tangent.toVector(), normal.toVector(), distCovered, limbAngles);
+    }
+
+    /**
+     * @return whether the bounding sphere of a robot, halfway up the robot, lies at least partly within a frustum.
+     */
+    static boolean inView(Frustum frustum, RobotKinematics pose) {
+        double up = height / 2;
+        return frustum.intersectsSphere(pose.position.x() + up * pose.normal.x(),
+                pose.position.y() + up * pose.normal.y(), pose.position.z() + up * pose.normal.z(), boundingRadius);
+    }
+
+    /**
+     * Draw the robot at the given position, with the appropriate direction and limb angles. The robot's own state may
+     * be a tick further along by now, as the simulation runs on another thread.
+     *
+     * @param state tracker through which the OpenGL state is set
+     * @param pose the robot's state in the snapshot being rendered
+     */
+    public void drawAtPos(GL2 gl, GLUT glut, GLState state, RobotKinematics pose) {
         gl.glPushMatrix();
 
-        Util.translate(gl, pos);
-        Util.rotate(gl, normal.cross(tangent), tangent, normal);
+        this.pose = pose;
+        this.state = state;
+        pose.applyTransform(gl);
         draw(gl, glut);
 
         gl.glPopMatrix();
@@ -218,16 +382,16 @@ class Robot {
         double neckAngle = 10;
 
         if (gs.showStick) {                                         //If gs.showStick is true, draw only stick-figure.
-            gl.glColor3f(0, 0, 0);                                  //Stick-figure is always black.
+            state.color(gl, 0, 0, 0);                                  //Stick-figure is always black.
             gl.glTranslated(0, 0, 0.5 * neckSize + 0.5 * headHeight);     //Translate up, to about the centre of the head
             glut.glutSolidSphere(stickSphereRadius, 10, 10);           //Draw a stickSphere-radius sphere
             gl.glTranslated(0, 0, -(0.5 * neckSize + 0.5 * headHeight));  //Translate back to the joint connecting neck and body
 
             //Draw a line from the base of the head to the stick figure sphere in the centre of the head.
-            gl.glBegin(gl.GL_LINES);
+            state.begin(gl, gl.GL_LINES);
             gl.glVertex3d(0, 0, 0);
             gl.glVertex3d(0, 0, 0.5 * neckSize + 0.5 * headHeight);
-            gl.glEnd();
+            state.end(gl);
 
         } else {
             double texHeightOffset = 0;
@@ -236,7 +400,7 @@ class Robot {
             double texHeight = 0.5d;
 
             //Draw the neck
-            gl.glColor3d(neckColor[0], neckColor[1], neckColor[2]);         //Set the color to the neck color.
+            state.color(gl, neckColor[0], neckColor[1], neckColor[2]);         //Set the color to the neck color.
             gl.glPushMatrix();                                              //Push new matrix
             gl.glRotated(-neckAngle, 1, 0, 0);                      //Rotate around x axis with appropiate angle
             gl.glTranslated(0, 0, -0.05);           //Translate a bit downwards so entire cylinder is inside body
@@ -247,22 +411,21 @@ class Robot {
                 /* Draw the head. The head is built from 6 quads, together forming a figure like a frustum. We use the
                 method makeFaceVertex4 to draw the quads, which automatically does the normal vectors, as long as we
                 make sure to define the vertices in a counterclockwise fashion (otherwise normal is inverted). */
-            gl.glColor3f(headColor[0], headColor[1], headColor[2]);         //Set color to color of head.
+            state.color(gl, headColor[0], headColor[1], headColor[2]);         //Set color to color of head.
             /**
              * If a displayList for head is already generated, we call it. Otherwise we generate and compile it.
              */
             if (headDisplayList != 0) {
-                gl.glCallList(headDisplayList);
+                state.callList(gl, headDisplayList);
             } else {
                 headDisplayList = gl.glGenLists(1);
-                gl.glNewList(headDisplayList, gl.GL_COMPILE_AND_EXECUTE);
+                state.newList(gl, headDisplayList, gl.GL_COMPILE_AND_EXECUTE);
 
                 // The head texture image is split into four square the first (top left) is the front of the head,
                 // top right is the back side, bottom left is one of the sides and bottom right is the top of the head.
-                headTex.enable(gl);
-                headTex.bind(gl);
+                state.enableTexture(gl, headTex);
 
-                gl.glBegin(gl.GL_QUADS);                                           //Start drawing quads.
+                state.begin(gl, gl.GL_QUADS);                                           //Start drawing quads.
 
                 final int FRONT = 0, BACK = 1, TOP_LEFT = 0, TOP_RIGHT = 1, BOTTOM_LEFT = 2, BOTTOM_RIGHT = 3;
                 double[][][] coords = { /* coords of front face: */ {
@@ -280,7 +443,7 @@ class Robot {
                 };
 
                 //Draw front side of head
-                Util.setNormalVertex3(gl,
+                Util.setNormalVertex3(gl, state,
                         coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2],
                         coords[FRONT][TOP_RIGHT][0], coords[FRONT][TOP_RIGHT][1], coords[FRONT][TOP_RIGHT][2],
                         coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2]);
@@ -295,7 +458,7 @@ class Robot {
                 gl.glVertex3d(coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2]);
 
                 //Draw back side of head
-                Util.setNormalVertex3(gl,
+                Util.setNormalVertex3(gl, state,
                         coords[BACK][TOP_LEFT][0], coords[BACK][TOP_LEFT][1], coords[BACK][TOP_LEFT][2],
                         coords[BACK][BOTTOM_LEFT][0], coords[BACK][BOTTOM_LEFT][1], coords[BACK][BOTTOM_LEFT][2],
                         coords[BACK][TOP_RIGHT][0], coords[BACK][TOP_RIGHT][1], coords[BACK][TOP_RIGHT][2]);
@@ -310,7 +473,7 @@ class Robot {
                 gl.glVertex3d(coords[BACK][BOTTOM_LEFT][0], coords[BACK][BOTTOM_LEFT][1], coords[BACK][BOTTOM_LEFT][2]);
 
                 //Draw left side of head
-                Util.setNormalVertex3(gl,
+                Util.setNormalVertex3(gl, state,
                         coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2],
                         coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2],
                         coords[BACK][TOP_LEFT][0], coords[BACK][TOP_LEFT][1], coords[BACK][TOP_LEFT][2]);
@@ -325,7 +488,7 @@ class Robot {
                 gl.glVertex3d(coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2]);
 
                 //Draw right side of head
-                Util.setNormalVertex3(gl,
+                Util.setNormalVertex3(gl, state,
                         coords[FRONT][TOP_RIGHT][0], coords[FRONT][TOP_RIGHT][1], coords[FRONT][TOP_RIGHT][2],
                         coords[BACK][TOP_RIGHT][0], coords[BACK][TOP_RIGHT][1], coords[BACK][TOP_RIGHT][2],
                         coords[FRONT][BOTTOM_RIGHT][0], coords[FRONT][BOTTOM_RIGHT][1], coords[FRONT][BOTTOM_RIGHT][2]);
@@ -340,7 +503,7 @@ class Robot {
                 gl.glVertex3d(coords[FRONT][BOTTOM_RIGHT][0], coords[FRONT][BOTTOM_RIGHT][1], coords[FRONT][BOTTOM_RIGHT][2]);
 
                 //Draw top of head
-                Util.setNormalVertex3(gl,
+                Util.setNormalVertex3(gl, state,
                         coords[FRONT][TOP_RIGHT][0], coords[FRONT][TOP_RIGHT][1], coords[FRONT][TOP_RIGHT][2],
                         coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2],
                         coords[BACK][TOP_RIGHT][0], coords[BACK][TOP_RIGHT][1], coords[BACK][TOP_RIGHT][2]);
@@ -355,13 +518,13 @@ class Robot {
                 gl.glVertex3d(coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2]);
 
                 //draw bottom of head
-                Util.makeFaceVertex4(gl, 0.5 * headWidth, headDepth, 0.5 * neckSize,
+                Util.makeFaceVertex4(gl, state, 0.5 * headWidth, headDepth, 0.5 * neckSize,
                         0.3 * headWidth, -headDepth, neckSize,
                         -0.3 * headWidth, -headDepth, neckSize,
                         -0.5 * headWidth, headDepth, 0.5 * neckSize);
 
-                gl.glEnd();             //We are done drawing quads.
-                headTex.disable(gl);
+                state.end(gl);             //We are done drawing quads.
+                state.disableTexture(gl, headTex);
 
                 //Draw antenna.
                 gl.glPushMatrix();                  //Push a new matrix.
@@ -373,32 +536,32 @@ class Robot {
 
                 //Draw right eye
                 gl.glPushMatrix();                                              //Push a matrix to store current position.
-                gl.glColor3d(scleraColor[0], scleraColor[1], scleraColor[2]);   //Set color to sclera color.
+                state.color(gl, scleraColor[0], scleraColor[1], scleraColor[2]);   //Set color to sclera color.
                 gl.glTranslated(0.2 * headWidth, headDepth, 0.5 * neckSize + 0.6 * headHeight); //Translate to eye position.
                 gl.glRotated(-90, 1, 0, 0);                                     //Rotate around x axis.
                 glut.glutSolidCylinder(eyeRadius, eyeDepth, 100, 5);                //Draw the cylinder forming the sclera.
                 gl.glTranslated(-0.3 * eyeRadius, 0, eyeDepth);                     //Translate to surface of sclera.
-                gl.glColor3d(irisColor[0], irisColor[0], irisColor[0]);             //Set color to iriscolor.
+                state.color(gl, irisColor[0], irisColor[0], irisColor[0]);             //Set color to iriscolor.
                 glut.glutSolidCylinder(0.7 * eyeRadius, irisDepth, 100, 5);         //Draw the iris.
                 gl.glTranslated(0.3 * eyeRadius, 0, -eyeDepth);                     //Translate back to centre of eye.
 
                 //Draw left eye
-                gl.glColor3d(scleraColor[0], scleraColor[1], scleraColor[2]);   //Set color to sclera color.
+                state.color(gl, scleraColor[0], scleraColor[1], scleraColor[2]);   //Set color to sclera color.
                 gl.glTranslated(-0.4 * headWidth, 0, 0);                        //Translate to opposite side of head.
                 glut.glutSolidCylinder(eyeRadius, eyeDepth, 100, 5);            //Draw the cylinder forming the sclera.
-                gl.glColor3d(irisColor[0], irisColor[1], irisColor[2]);         //Set color to iris color.
+                state.color(gl, irisColor[0], irisColor[1], irisColor[2]);         //Set color to iris color.
                 gl.glTranslated(-0.3 * eyeRadius, 0, eyeDepth);                 //Translate to surface of sclera.
                 glut.glutSolidCylinder(0.7 * eyeRadius, irisDepth, 100, 5);     //Draw the iris.
                 gl.glPopMatrix();              //Done drawing eyes, pop the matrix.
 
 
                 gl.glPushMatrix();              //Push a new matrix to store current position.
-                gl.glColor3f(mouthColor[0], mouthColor[1], mouthColor[2]);          //Set color to mouth color.
+                state.color(gl, mouthColor[0], mouthColor[1], mouthColor[2]);          //Set color to mouth color.
                 gl.glTranslated(0, headDepth + 0.015, 0.5 * neckSize + 0.3 * headHeight);   //Translate to mouth position.
 
                 //The mouth is a polygon of which the top side is a straight line, and the bottom side are points on a circle.
-                gl.glBegin(gl.GL_POLYGON);             //Begin drawing a polygon.
-                gl.glNormal3d(0, 1, 0);               //Set normal vector
+                state.begin(gl, gl.GL_POLYGON);             //Begin drawing a polygon.
+                state.normal(gl, 0, 1, 0);               //Set normal vector
                 //Draw the top side of the mouth.
                 gl.glVertex3d(-0.15 * headWidth, 0, 0);
                 gl.glVertex3d(0.15 * headWidth, 0, 0);
@@ -412,11 +575,11 @@ class Robot {
                             0,
                             zOffsetCentre - Math.cos(Math.toRadians(75 - 3 * i)) * radius);
                 }
-                gl.glEnd();                     //We are finished generating points for the polygon.
+                state.end(gl);                     //We are finished generating points for the polygon.
                 gl.glPopMatrix();               //Return to original matrix.
 
 
-                gl.glEndList();
+                state.endList(gl);
             }
         }
     }
@@ -435,17 +598,17 @@ class Robot {
 
         if (gs.showStick) {
             // The stick figure arm is a black line from the shoulder joint to a black sphere at the elbow joint
-            gl.glColor3f(0, 0, 0);
+            state.color(gl, 0, 0, 0);
             Util.drawSphere(gl, glut, stickSphereRadius, upperToLowerArm);
             Util.drawLine(gl, Vector.O, upperToLowerArm);
         } else {
             // set elbow joint color
-            gl.glColor3f(elbowColor[0], elbowColor[1], elbowColor[2]);
+            state.color(gl, elbowColor[0], elbowColor[1], elbowColor[2]);
             // Draw the sphere of the elbow joint
             gl.glTranslated(0, 0, -1 * upperToLowerArm.length());
             glut.glutSolidSphere(elbowRadius, 10, 10);
             // Draw the cylinder representing the upper arm
-            gl.glColor3f(armColor[0], armColor[1], armColor[2]);
+            state.color(gl, armColor[0], armColor[1], armColor[2]);
             glut.glutSolidCylinder(armRadius, upperToLowerArm.length(), 10, 10);
             gl.glTranslated(0, 0, upperToLowerArm.length());
         }
@@ -458,7 +621,7 @@ class Robot {
 
         // Retrieve the current angle determined for the animation of the lower arm relative to the upper arm.
         // The two arms are exactly half a period out of phase with each other.
-        double angle = side == Side.Right ? lowerArmRotate.getAngle() : lowerArmRotate.getAngleHalfPhaseShift();
+        double angle = pose.limbAngle(RobotKinematics.LOWER_ARM, side != Side.Right);
         gl.glRotated(angle, 1, 0, 0);
         drawLowerArm(gl, glut, side);
         gl.glPopMatrix();
@@ -487,30 +650,30 @@ class Robot {
 
         if (gs.showStick) {
             // the lower arm stick figure is a black line connected to a black sphere
-            gl.glColor3f(0, 0, 0);
+            state.color(gl, 0, 0, 0);
             Util.drawSphere(gl, glut, stickSphereRadius, lowerArmToHand);
             Util.drawLine(gl, Vector.O, lowerArmToHand);
         } else {
             // translate to make the lower arm "hang" from the origin
             gl.glTranslated(lowerArmToHand.x(), lowerArmToHand.y(), lowerArmToHand.z());
 
-            gl.glColor3f(lowerArmColor[0], lowerArmColor[1], lowerArmColor[2]);
+            state.color(gl, lowerArmColor[0], lowerArmColor[1], lowerArmColor[2]);
 
             /**
              * If lowerArmConeDisplayList is already generated, we call it. Otherwise, we generate and compile the list.
              */
             if (lowerArmConeDisplayList != 0) {
-                gl.glCallList(lowerArmConeDisplayList);
+                state.callList(gl, lowerArmConeDisplayList);
             } else {
                 lowerArmConeDisplayList = gl.glGenLists(1);
-                gl.glNewList(lowerArmConeDisplayList, gl.GL_COMPILE_AND_EXECUTE);
+                state.newList(gl, lowerArmConeDisplayList, gl.GL_COMPILE_AND_EXECUTE);
 
 
                 // draw the circle which closes of the top of the "cut-off" cone
-                gl.glBegin(gl.GL_TRIANGLE_FAN);
+                state.begin(gl, gl.GL_TRIANGLE_FAN);
 
                 // the normal for the top face is directed along z-axis
-                gl.glNormal3d(0, 0, 1);
+                state.normal(gl, 0, 0, 1);
 
                 // Initial vertex is the center of the circle
                 gl.glVertex3d(topCirclePos.x(), topCirclePos.y(), topCirclePos.z());
@@ -524,13 +687,13 @@ class Robot {
                             topCircleRadius * Math.sin(angle) + topCirclePos.y(),
                             topCirclePos.z());
                 }
-                gl.glEnd();
+                state.end(gl);
 
                 // draw the circle which closes of the bottom of the "cut-off" cone
-                gl.glBegin(gl.GL_TRIANGLE_FAN);
+                state.begin(gl, gl.GL_TRIANGLE_FAN);
 
                 // the normal for the bottom face is directed along negative z-axis
-                gl.glNormal3d(0, 0, -1);
+                state.normal(gl, 0, 0, -1);
 
                 gl.glVertex3d(bottomCirclePos.x(), bottomCirclePos.y(), bottomCirclePos.z());
 
@@ -540,7 +703,7 @@ class Robot {
                             bottomCircleRadius * Math.sin(angle) + bottomCirclePos.y(),
                             bottomCirclePos.z());
                 }
-                gl.glEnd();
+                state.end(gl);
 
                 /*
                 Draw "cut-off"-cone formed by the two circles. To draw this cone we use a triangle strip,
@@ -580,7 +743,7 @@ class Robot {
                  TopCur and BotCur, TopCur and BotNext and between TopNext and BotNext can be reused as well.
                  We calculate these parameters for the iteration i=-1 before the loop starts.
                 */
-                gl.glBegin(gl.GL_TRIANGLE_STRIP);
+                state.begin(gl, gl.GL_TRIANGLE_STRIP);
 
 
                 /*
@@ -644,19 +807,19 @@ class Robot {
 
 
                     // Draw the bottom vertex using the calculated normal.
-                    gl.glNormal3d(normalVectorBottom.x(), normalVectorBottom.y(), normalVectorBottom.z());
+                    state.normal(gl, normalVectorBottom.x(), normalVectorBottom.y(), normalVectorBottom.z());
                     gl.glVertex3d(bottomCircleRadius * Math.cos(angle) + bottomCirclePos.x(),
                             bottomCircleRadius * Math.sin(angle) + bottomCirclePos.y(),
                             bottomCirclePos.z());
                     // Draw the top vertex using the calculated normal.
-                    gl.glNormal3d(normalVectorTop.x(), normalVectorTop.y(), normalVectorTop.z());
+                    state.normal(gl, normalVectorTop.x(), normalVectorTop.y(), normalVectorTop.z());
                     gl.glVertex3d(topCircleRadius * Math.cos(angle) + topCirclePos.x(),
                             topCircleRadius * Math.sin(angle) + topCirclePos.y(),
                             topCirclePos.z());
                 }
 
-                gl.glEnd();                 //Finished drawing lower arm.
-                gl.glEndList();
+                state.end(gl);                 //Finished drawing lower arm.
+                state.endList(gl);
             }
 
                 /* Now we draw the "hex part", connecting the lower arm to the elbow joint. The technique we use for
@@ -665,18 +828,18 @@ class Robot {
                 * of this circle are called topCircle, which might be confusing). We use 60 degree steps, so we have 12
                 * triangles total.
                 */
-            gl.glColor3f(hexPartColor[0], hexPartColor[1], hexPartColor[2]);        //Set color
+            state.color(gl, hexPartColor[0], hexPartColor[1], hexPartColor[2]);        //Set color
 
             /**
              * If lowerArmHexPartDisplayList is already generated, we call it. Otherwise we generate and compile the list.
              */
             if (lowerArmHexPartDisplayList != 0) {
-                gl.glCallList(lowerArmHexPartDisplayList);
+                state.callList(gl, lowerArmHexPartDisplayList);
             } else {
                 lowerArmHexPartDisplayList = gl.glGenLists(1);
-                gl.glNewList(lowerArmHexPartDisplayList, gl.GL_COMPILE_AND_EXECUTE);
+                state.newList(gl, lowerArmHexPartDisplayList, gl.GL_COMPILE_AND_EXECUTE);
 
-                gl.glBegin(gl.GL_TRIANGLE_STRIP);
+                state.begin(gl, gl.GL_TRIANGLE_STRIP);
 
                 //Again we calculate the vectors and normals that the loop reuses from the previous iteration i=-60:
                 double angle = Math.toRadians(-60);
@@ -728,20 +891,20 @@ class Robot {
                     Vector normalVectorHexPart = n2.add(n3.add(n4));
 
                     //Use the calculated normals and draw the bottom coordinate.
-                    gl.glNormal3d(normalVectorTopCircle.x(), normalVectorTopCircle.y(), normalVectorTopCircle.z());
+                    state.normal(gl, normalVectorTopCircle.x(), normalVectorTopCircle.y(), normalVectorTopCircle.z());
                     gl.glVertex3d(topCircleRadius * Math.cos(angle) + topCirclePos.x(),
                             topCircleRadius * Math.sin(angle) + topCirclePos.y(),
                             topCirclePos.z());
                     //Use the calculated normal and draw the top coordinate.
-                    gl.glNormal3d(normalVectorHexPart.x(), normalVectorHexPart.y(), normalVectorHexPart.z());
+                    state.normal(gl, normalVectorHexPart.x(), normalVectorHexPart.y(), normalVectorHexPart.z());
                     gl.glVertex3d(hexPartRadius * Math.cos(angle) + hexPartPos.x(),
                             hexPartRadius * Math.sin(angle) + hexPartPos.y(),
                             hexPartPos.z());
                 }
 
-                gl.glEnd();                 //Finish drawing *phew*.
+                state.end(gl);                 //Finish drawing *phew*.
 
-                gl.glEndList();
+                state.endList(gl);
             }
         }
 
@@ -765,7 +928,7 @@ class Robot {
             gl.glPushMatrix();
 
             // The hand consists of a cylinder and the claws, start the cylinder drawing
-            gl.glColor3f(handCylinderColor[0], handCylinderColor[1], handCylinderColor[2]);
+            state.color(gl, handCylinderColor[0], handCylinderColor[1], handCylinderColor[2]);
 
             // "hang" the cylinder below the origin
             gl.glTranslated(0, 0, -diskHeight);
@@ -773,19 +936,19 @@ class Robot {
 
             // position the claw such that it clips the the cylinder
             gl.glPushMatrix();
-            gl.glColor3f(clawColor[0], clawColor[1], clawColor[2]);
+            state.color(gl, clawColor[0], clawColor[1], clawColor[2]);
             gl.glTranslated(-diskRadius + 0.005, 0, 0.5 * diskHeight);
 
             /**
              * If clawDisplayList is already generated we call it. Otherwise we generate and compile the list.
              */
             if (clawDisplayList != 0){
-                gl.glCallList(clawDisplayList);
+                state.callList(gl, clawDisplayList);
             } else {
                 clawDisplayList = gl.glGenLists(1);
-                gl.glNewList(clawDisplayList, gl.GL_COMPILE_AND_EXECUTE);
+                state.newList(gl, clawDisplayList, gl.GL_COMPILE_AND_EXECUTE);
                 drawClaw(gl);
-                gl.glEndList();
+                state.endList(gl);
             }
             gl.glPopMatrix();
 
@@ -793,13 +956,13 @@ class Robot {
             gl.glPushMatrix();
             gl.glRotated(120, 0, 0, 1);
             gl.glTranslated(-diskRadius + 0.005, 0, 0.5 * diskHeight);
-            gl.glCallList(clawDisplayList);
+            state.callList(gl, clawDisplayList);
             gl.glPopMatrix();
 
             gl.glPushMatrix();
             gl.glRotated(240, 0, 0, 1);
             gl.glTranslated(-diskRadius + 0.005, 0, 0.5 * diskHeight);
-            gl.glCallList(clawDisplayList);
+            state.callList(gl, clawDisplayList);
             gl.glPopMatrix();
 
             gl.glPopMatrix();
@@ -837,7 +1000,7 @@ class Robot {
                 gl.glRotated(-angles[angle_idx - 1], 0, 1, 0);
                 gl.glTranslated(radii[angle_idx - 1] - radii[angle_idx], 0, 0);
             }
-            gl.glBegin(gl.GL_QUADS);
+            state.begin(gl, gl.GL_QUADS);
 
             // Split up the angle into 2 degree pieces and draw quads to realize the curvature
             for (int i = 0; i < angles[angle_idx]; i += 2) {
@@ -855,40 +1018,40 @@ class Robot {
                 vertices[3][1] = (radii[angle_idx] + width) * Math.sin(Math.toRadians(i + 2));
 
                 // front face with the normal along the y-axis
-                gl.glNormal3d(0, 1, 0);
+                state.normal(gl, 0, 1, 0);
                 gl.glVertex3d(vertices[0][0], depth, vertices[0][1]);
                 gl.glVertex3d(vertices[1][0], depth, vertices[1][1]);
                 gl.glVertex3d(vertices[3][0], depth, vertices[3][1]);
                 gl.glVertex3d(vertices[2][0], depth, vertices[2][1]);
                 // back face
-                gl.glNormal3d(0, -1, 0);
+                state.normal(gl, 0, -1, 0);
                 gl.glVertex3d(vertices[0][0], -depth, vertices[0][1]);
                 gl.glVertex3d(vertices[1][0], -depth, vertices[1][1]);
                 gl.glVertex3d(vertices[3][0], -depth, vertices[3][1]);
                 gl.glVertex3d(vertices[2][0], -depth, vertices[2][1]);
                 // inner facing side
-                Util.makeFaceVertex4(gl, vertices[0][0], depth, vertices[0][1],
+                Util.makeFaceVertex4(gl, state, vertices[0][0], depth, vertices[0][1],
                         vertices[0][0], -depth, vertices[0][1],
                         vertices[2][0], -depth, vertices[2][1],
                         vertices[2][0], depth, vertices[2][1]);
 
                 // outer facing side
-                Util.makeFaceVertex4(gl, vertices[1][0], depth, vertices[1][1],
+                Util.makeFaceVertex4(gl, state, vertices[1][0], depth, vertices[1][1],
                         vertices[3][0], depth, vertices[3][1],
                         vertices[3][0], -depth, vertices[3][1],
                         vertices[1][0], -depth, vertices[1][1]);
             }
 
-            gl.glEnd();
+            state.end(gl);
         }
 
         // close off the claw. The last coordinates in vertices are coordinates for the final piece of the final segment
-        gl.glBegin(gl.GL_QUADS);
-        Util.makeFaceVertex4(gl, vertices[2][0], -depth, vertices[2][1],
+        state.begin(gl, gl.GL_QUADS);
+        Util.makeFaceVertex4(gl, state, vertices[2][0], -depth, vertices[2][1],
                 vertices[3][0], -depth, vertices[3][1],
                 vertices[3][0], depth, vertices[3][1],
                 vertices[2][0], depth, vertices[2][1]);
-        gl.glEnd();
+        state.end(gl);
 
         gl.glPopMatrix();
 
@@ -911,19 +1074,19 @@ class Robot {
 
         // Retrieve the current angle determined for the animation of the upper leg relative to the torso.
         // The two legs are exactly half a period out of phase with each other.
-        gl.glRotated(side == Side.Left ? upperLegRotate.getAngle() : upperLegRotate.getAngleHalfPhaseShift(), 1, 0, 0);
+        gl.glRotated(pose.limbAngle(RobotKinematics.UPPER_LEG, side != Side.Left), 1, 0, 0);
 
         if (gs.showStick) {
-            gl.glColor3d(0, 0, 0);                            //Set color to black for stick figure.
+            state.color(gl, 0, 0, 0);                            //Set color to black for stick figure.
             Util.drawSphere(gl, glut, stickSphereRadius, upperToLowerLeg);  //Draw a sphere on the knee joint using the upperToLowLeg vector.
             Util.drawLine(gl, Vector.O, upperToLowerLeg);          //Draw a line to the knee joint sphere.
         } else {
             //Set color to torsoJointColor and draw the sphere forming the joint.
-            gl.glColor3f(torsoJointColor[0], torsoJointColor[1], torsoJointColor[2]);
+            state.color(gl, torsoJointColor[0], torsoJointColor[1], torsoJointColor[2]);
             glut.glutSolidSphere(torsoJointRadius, 50, 50);
 
             //Draw the upper leg.
-            gl.glColor3f(upperLegColor[0], upperLegColor[1], upperLegColor[2]);   //Set the color to upper leg color.
+            state.color(gl, upperLegColor[0], upperLegColor[1], upperLegColor[2]);   //Set the color to upper leg color.
             gl.glPushMatrix();                                                  //Store the current matrix.
             gl.glTranslated(0, 0.0, -0.5 * upperToLowerLeg.length());           //Translate to centre of upper leg.
             gl.glScaled(upperLegWidth, upperLegWidth, upperToLowerLeg.length());//Scale coordinate system to leg size.
@@ -950,10 +1113,10 @@ class Robot {
         double angleFootLowerLeg = 10;
         // Retrieve the current angle determined for the animation of the lower leg relative to the upper leg.
         // The two legs are exactly half a period out of phase with each other.
-        double kneeAngle = side == Side.Left ? lowerLegRotate.getAngle() : lowerLegRotate.getAngleHalfPhaseShift();
+        double kneeAngle = pose.limbAngle(RobotKinematics.LOWER_LEG, side != Side.Left);
 
         if (gs.showStick) {
-            gl.glColor3d(0, 0, 0);                    //Set color to black for stick figure.
+            state.color(gl, 0, 0, 0);                    //Set color to black for stick figure.
             gl.glRotated(kneeAngle, 1, 0, 0);      //Rotate around the lowerLegAngle
             //Draw a sphere using the lowerLegToFoot vector on the joint connecting the foot and the lower leg,
             // and a line to it.
@@ -976,31 +1139,31 @@ class Robot {
             gl.glRotated(0.5 * kneeAngle, 1, 0, 0);
 
             //Set color, calculate the median and base lengths of triangle using leg width and kneeAngle between legs.
-            gl.glColor3f(jointUpperLowerLegColor[0], jointUpperLowerLegColor[1], jointUpperLowerLegColor[2]);
+            state.color(gl, jointUpperLowerLegColor[0], jointUpperLowerLegColor[1], jointUpperLowerLegColor[2]);
             double medianLength = lowerLegWidth * Math.cos(Math.toRadians(0.5 * kneeAngle));
             double baseLength = 2 * lowerLegWidth * Math.sin(Math.toRadians(-0.5 * kneeAngle));
             //Draw the right side of the joint.
-            gl.glBegin(gl.GL_TRIANGLES);
-            Util.makeFaceVertex3(gl, 0.5 * lowerLegWidth, 0, 0,
+            state.begin(gl, gl.GL_TRIANGLES);
+            Util.makeFaceVertex3(gl, state, 0.5 * lowerLegWidth, 0, 0,
                     0.5 * lowerLegWidth, medianLength, -0.5 * baseLength,
                     0.5 * lowerLegWidth, medianLength, 0.5 * baseLength);
             //Draw the left side of the joint.
-            Util.makeFaceVertex3(gl, -0.5 * lowerLegWidth, 0, 0,
+            Util.makeFaceVertex3(gl, state, -0.5 * lowerLegWidth, 0, 0,
                     -0.5 * lowerLegWidth, medianLength, 0.5 * baseLength,
                     -0.5 * lowerLegWidth, medianLength, -0.5 * baseLength);
-            gl.glEnd();
+            state.end(gl);
 
             //Draw the front side of the joint.
-            gl.glBegin(gl.GL_QUADS);
-            Util.makeFaceVertex4(gl, -0.5 * lowerLegWidth, medianLength, 0.5 * baseLength,
+            state.begin(gl, gl.GL_QUADS);
+            Util.makeFaceVertex4(gl, state, -0.5 * lowerLegWidth, medianLength, 0.5 * baseLength,
                     0.5 * lowerLegWidth, medianLength, 0.5 * baseLength,
                     0.5 * lowerLegWidth, medianLength, -0.5 * baseLength,
                     -0.5 * lowerLegWidth, medianLength, -0.5 * baseLength);
-            gl.glEnd();
+            state.end(gl);
 
             //Now we have drawn the joint, we continue by drawing the actual lower leg itself.
             gl.glRotated(0.5 * kneeAngle, 1, 0, 0);                  //Rotate the remaining half kneeAngle.
-            gl.glColor3f(lowerLegColor[0], lowerLegColor[1], lowerLegColor[2]);      //Set color to lower leg color.
+            state.color(gl, lowerLegColor[0], lowerLegColor[1], lowerLegColor[2]);      //Set color to lower leg color.
             gl.glTranslated(0, 0.5 * lowerLegWidth, -0.5 * lowerLegToFoot.length());    //Translate to the centre of the lower leg.
             gl.glPushMatrix();                                                      //Store current matrix.
             gl.glScaled(lowerLegWidth, lowerLegWidth, lowerLegToFoot.length());        //Scale to the leg size.
@@ -1019,23 +1182,23 @@ class Robot {
             //Calculate y and z coordinates of lower leg edge. Add 2mm to zOffsetLowerLeg to combat rounding errors.
             double yOffsetLowerLeg = -lowerLegWidth * Math.cos(Math.toRadians(angleFootLowerLeg));
             double zOffsetLowerLeg = lowerLegWidth * Math.sin(Math.toRadians(angleFootLowerLeg)) + 0.002;
-            gl.glBegin(gl.GL_TRIANGLES);
+            state.begin(gl, gl.GL_TRIANGLES);
             //Draw right side of joint
-            Util.makeFaceVertex3(gl, 0.5 * lowerLegWidth, 0, 0,
+            Util.makeFaceVertex3(gl, state, 0.5 * lowerLegWidth, 0, 0,
                     0.5 * lowerLegWidth, yOffsetLowerLeg, zOffsetLowerLeg,
                     0.5 * lowerLegWidth, -lowerLegWidth, 0);
             //Draw left side of joint
-            Util.makeFaceVertex3(gl, -0.5 * lowerLegWidth, 0, 0,
+            Util.makeFaceVertex3(gl, state, -0.5 * lowerLegWidth, 0, 0,
                     -0.5 * lowerLegWidth, -lowerLegWidth, 0,
                     -0.5 * lowerLegWidth, yOffsetLowerLeg, zOffsetLowerLeg);
-            gl.glEnd();
+            state.end(gl);
             //Draw back side of joint
-            gl.glBegin(gl.GL_QUADS);
-            Util.makeFaceVertex4(gl, 0.5 * lowerLegWidth, -lowerLegWidth, 0,
+            state.begin(gl, gl.GL_QUADS);
+            Util.makeFaceVertex4(gl, state, 0.5 * lowerLegWidth, -lowerLegWidth, 0,
                     0.5 * lowerLegWidth, yOffsetLowerLeg, zOffsetLowerLeg,
                     -0.5 * lowerLegWidth, yOffsetLowerLeg, zOffsetLowerLeg,
                     -0.5 * lowerLegWidth, -lowerLegWidth, 0);
-            gl.glEnd();
+            state.end(gl);
 
             gl.glTranslated(0, -0.5 * lowerLegWidth, 0);        //Translate to centre of leg.
             drawFoot(gl);                                     //Draw foot.
@@ -1054,74 +1217,74 @@ class Robot {
     private void drawFoot(GL2 gl) {
         double width = 0.2;
 
-        gl.glColor3f(footColor[0], footColor[1], footColor[2]);        //Set color to foot color.
+        state.color(gl, footColor[0], footColor[1], footColor[2]);        //Set color to foot color.
 
         //Draw right side of foot
-        gl.glBegin(gl.GL_QUADS);
-        Util.makeFaceVertex4(gl, 0.5 * width, -0.5 * width, 0,
+        state.begin(gl, gl.GL_QUADS);
+        Util.makeFaceVertex4(gl, state, 0.5 * width, -0.5 * width, 0,
                 0.5 * width, -0.5 * width, -0.07,
                 0.5 * width, 0.65 * width, -0.07,
                 0.5 * width, 0.5 * width, 0);
 
 
         //Draw left side of foot
-        Util.makeFaceVertex4(gl, -0.5 * width, -0.5 * width, 0,
+        Util.makeFaceVertex4(gl, state, -0.5 * width, -0.5 * width, 0,
                 -0.5 * width, 0.5 * width, 0,
                 -0.5 * width, 0.65 * width, -0.07,
                 -0.5 * width, -0.5 * width, -0.07);
 
 
         //Draw back of foot
-        Util.makeFaceVertex4(gl, -0.5 * width, -0.5 * width, 0,
+        Util.makeFaceVertex4(gl, state, -0.5 * width, -0.5 * width, 0,
                 -0.5 * width, -0.5 * width, -0.07,
                 0.5 * width, -0.5 * width, -0.07,
                 0.5 * width, -0.5 * width, 0);
 
         //Draw front of foot.
-        Util.makeFaceVertex4(gl, 0.5 * width, 0.65 * width, -0.07,
+        Util.makeFaceVertex4(gl, state, 0.5 * width, 0.65 * width, -0.07,
                 -0.5 * width, 0.65 * width, -0.07,
                 -0.5 * width, 0.5 * width, 0,
                 0.5 * width, 0.5 * width, 0);
 
         //Draw bottom of foot.
-        Util.makeFaceVertex4(gl, 0.5 * width, -0.5 * width, -0.07,
+        Util.makeFaceVertex4(gl, state, 0.5 * width, -0.5 * width, -0.07,
                 -0.5 * width, -0.5 * width, -0.07,
                 -0.5 * width, 0.65 * width, -0.07,
                 0.5 * width, 0.65 * width, -0.07);
-        gl.glEnd();
+        state.end(gl);
 
     }
 
     // Draw a simple angular shoulder centered round the origin with an offset to line up with the shoulder joint of the torso.
     private void drawShoulder(GL2 gl) {
-        gl.glBegin(gl.GL_TRIANGLES);
+        state.begin(gl, gl.GL_TRIANGLES);
         // front face
-        gl.glNormal3d(0, 1, 0);
+        state.normal(gl, 0, 1, 0);
         gl.glVertex3d(-0.05, 0.075, 0.05);
         gl.glVertex3d(0.1, 0.075, 0.05);
         gl.glVertex3d(-0.05, 0.075, -0.1);
 
         // back face
-        gl.glNormal3d(0, -1, 0);
+        state.normal(gl, 0, -1, 0);
         gl.glVertex3d(-0.05, -0.075, 0.05);
         gl.glVertex3d(0.1, -0.075, 0.05);
         gl.glVertex3d(-0.05, -0.075, -0.1);
-        gl.glEnd();
+        state.end(gl);
 
-        gl.glBegin(gl.GL_QUADS);
+        state.begin(gl, gl.GL_QUADS);
         // top face
-        gl.glNormal3d(0, 0, 1);
+        state.normal(gl, 0, 0, 1);
         gl.glVertex3d(-0.05, -0.075, 0.05);
         gl.glVertex3d(0.1, -0.075, 0.05);
         gl.glVertex3d(0.1, 0.075, 0.05);
         gl.glVertex3d(-0.05, 0.075, 0.05);
 
         // face connected to arm
-        Util.makeFaceVertex4(gl, 0.1, -0.075, 0.05,
+        Util.makeFaceVertex4(gl, state, 0.1, -0.075, 0.05,
                 -0.05, -0.075, -0.1,
                 -0.05, 0.075, -0.1,
                 0.1, 0.075, 0.05);
-        gl.glEnd();
+        state.end(gl);
     }
 
     // Draw the main component of the robot
@@ -1133,7 +1296,7 @@ class Robot {
 
         if (gs.showStick) {
             // Draw the several joints connected to the torso. The stick figure is black
-            gl.glColor3f(0, 0, 0);
+            state.color(gl, 0, 0, 0);
             Util.drawSphere(gl, glut, stickSphereRadius, neck);
             Util.drawSphere(gl, glut, stickSphereRadius, rightShoulder);
             Util.drawSphere(gl, glut, stickSphereRadius, leftShoulder);
@@ -1147,7 +1310,7 @@ class Robot {
             Util.drawLine(gl, rightHip, leftHip);
         } else {
             gl.glPushMatrix();
-            gl.glColor3f(torsoColor[0], torsoColor[1], torsoColor[2]);
+            state.color(gl, torsoColor[0], torsoColor[1], torsoColor[2]);
 
             // draw the right shoulder
             Util.translate(gl, rightShoulder);
@@ -1182,12 +1345,11 @@ class Robot {
 
             // The torso texture image is split into four square the first (top left) is the front of the torso,
             // top right is the back side, bottom left is one of the sides and bottom right is the top of the torso.
-            torsoTex.enable(gl);
-            torsoTex.bind(gl);
-            gl.glBegin(gl.GL_QUADS);
+            state.enableTexture(gl, torsoTex);
+            state.begin(gl, gl.GL_QUADS);
 
             //Draw front side of head
-            Util.setNormalVertex3(gl,
+            Util.setNormalVertex3(gl, state,
                     coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2],
                     coords[FRONT][TOP_RIGHT][0], coords[FRONT][TOP_RIGHT][1], coords[FRONT][TOP_RIGHT][2],
                     coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2]);
@@ -1201,7 +1363,7 @@ class Robot {
             gl.glVertex3d(coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2]);
 
             //Draw back side of head
-            Util.setNormalVertex3(gl,
+            Util.setNormalVertex3(gl, state,
                     coords[BACK][TOP_LEFT][0], coords[BACK][TOP_LEFT][1], coords[BACK][TOP_LEFT][2],
                     coords[BACK][BOTTOM_LEFT][0], coords[BACK][BOTTOM_LEFT][1], coords[BACK][BOTTOM_LEFT][2],
                     coords[BACK][TOP_RIGHT][0], coords[BACK][TOP_RIGHT][1], coords[BACK][TOP_RIGHT][2]);
@@ -1216,7 +1378,7 @@ class Robot {
             gl.glVertex3d(coords[BACK][BOTTOM_LEFT][0], coords[BACK][BOTTOM_LEFT][1], coords[BACK][BOTTOM_LEFT][2]);
 
             //Draw left side of head
-            Util.setNormalVertex3(gl,
+            Util.setNormalVertex3(gl, state,
                     coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2],
                     coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2],
                     coords[BACK][TOP_LEFT][0], coords[BACK][TOP_LEFT][1], coords[BACK][TOP_LEFT][2]);
@@ -1231,7 +1393,7 @@ class Robot {
             gl.glVertex3d(coords[FRONT][BOTTOM_LEFT][0], coords[FRONT][BOTTOM_LEFT][1], coords[FRONT][BOTTOM_LEFT][2]);
 
             //Draw right side of head
-            Util.setNormalVertex3(gl,
+            Util.setNormalVertex3(gl, state,
                     coords[FRONT][TOP_RIGHT][0], coords[FRONT][TOP_RIGHT][1], coords[FRONT][TOP_RIGHT][2],
                     coords[BACK][TOP_RIGHT][0], coords[BACK][TOP_RIGHT][1], coords[BACK][TOP_RIGHT][2],
                     coords[FRONT][BOTTOM_RIGHT][0], coords[FRONT][BOTTOM_RIGHT][1], coords[FRONT][BOTTOM_RIGHT][2]);
@@ -1246,7 +1408,7 @@ class Robot {
             gl.glVertex3d(coords[FRONT][BOTTOM_RIGHT][0], coords[FRONT][BOTTOM_RIGHT][1], coords[FRONT][BOTTOM_RIGHT][2]);
 
             //Draw top of head
-            Util.setNormalVertex3(gl,
+            Util.setNormalVertex3(gl, state,
                     coords[FRONT][TOP_RIGHT][0], coords[FRONT][TOP_RIGHT][1], coords[FRONT][TOP_RIGHT][2],
                     coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2],
                     coords[BACK][TOP_RIGHT][0], coords[BACK][TOP_RIGHT][1], coords[BACK][TOP_RIGHT][2]);
@@ -1259,13 +1421,13 @@ class Robot {
             gl.glVertex3d(coords[BACK][TOP_LEFT][0], coords[BACK][TOP_LEFT][1], coords[BACK][TOP_LEFT][2]);
             gl.glTexCoord2d(1.0, 0.5);
             gl.glVertex3d(coords[FRONT][TOP_LEFT][0], coords[FRONT][TOP_LEFT][1], coords[FRONT][TOP_LEFT][2]);
-            gl.glEnd();
+            state.end(gl);
 
-            torsoTex.disable(gl);
+            state.disableTexture(gl, torsoTex);
 
             // Place a "screen" on the front face
             gl.glPushMatrix();
-            gl.glColor3f(torsoScreenColor[0], torsoScreenColor[1], torsoScreenColor[2]);
+            state.color(gl, torsoScreenColor[0], torsoScreenColor[1], torsoScreenColor[2]);
 
             // Scale and translate relative to torso specification
             gl.glTranslated(0, depth, -0.75 * Math.abs(rightHip.z()) + neck.z());
@@ -1285,9 +1447,9 @@ class Robot {
         }
     }
 
-    //Sets color scheme and material properties, depending on material chosen during object construction. A base,
-    //highlight and joint color are chosen depending on material, and assigned to different parts of the robot.
-    void setMaterialProperties(GL2 gl) {
+    //Sets the color scheme, depending on material chosen during object construction. A base, highlight and joint color
+    //are chosen depending on material, and assigned to different parts of the robot.
+    private void setColors() {
         float[] baseColor = new float[3];
         float[] highlightColor = new float[3];
         float[] jointColor = new float[3];
@@ -1338,12 +1500,20 @@ class Robot {
         jointUpperLowerLegColor = jointColor;
         lowerLegColor = baseColor;
         footColor = highlightColor;
+    }
 
+    //Color of the robot's marker in the picture-in-picture overview, the base color of its material.
+    float[] getMarkerColor() {
+        return torsoColor;
+    }
+
+    //Sets material properties, depending on material chosen during object construction.
+    void setMaterialProperties(GL2 gl) {
         //Set lighting properties depending on chosen material.
-        gl.glMaterialfv(gl.GL_FRONT_AND_BACK, gl.GL_AMBIENT, material.ambient, 0);
-        gl.glMaterialfv(gl.GL_FRONT_AND_BACK, gl.GL_SPECULAR, material.specular, 0);
-        gl.glMaterialfv(gl.GL_FRONT_AND_BACK, gl.GL_DIFFUSE, material.diffuse, 0);
-        gl.glMaterialf(gl.GL_FRONT_AND_BACK, gl.GL_SHININESS, material.shininess);
+        state.material(gl, gl.GL_FRONT_AND_BACK, gl.GL_AMBIENT, material.ambient);
+        state.material(gl, gl.GL_FRONT_AND_BACK, gl.GL_SPECULAR, material.specular);
+        state.material(gl, gl.GL_FRONT_AND_BACK, gl.GL_DIFFUSE, material.diffuse);
+        state.material(gl, gl.GL_FRONT_AND_BACK, gl.GL_SHININESS, material.shininess);
     }
 
     /**
@@ -1365,7 +1535,7 @@ class Robot {
         gl.glPushMatrix();
         gl.glTranslated(rightShoulder.x(), rightShoulder.y(), rightShoulder.z());
         gl.glRotated(-20, 0, 1, 0);
-        gl.glRotated(upperArmRotate.getAngle(), 1, 0, 0);
+        gl.glRotated(pose.limbAngle(RobotKinematics.UPPER_ARM, false), 1, 0, 0);
         drawArm(gl, glut, Side.Right);
         gl.glPopMatrix();
         // For the left arm mirror the right one
@@ -1373,7 +1543,7 @@ class Robot {
         gl.glScaled(-1, 1, 1);
         gl.glTranslated(rightShoulder.x(), rightShoulder.y(), rightShoulder.z());
         gl.glRotated(-20, 0, 1, 0);
-        gl.glRotated(upperArmRotate.getAngleHalfPhaseShift(), 1, 0, 0);
+        gl.glRotated(pose.limbAngle(RobotKinematics.UPPER_ARM, true), 1, 0, 0);
 //        gl.glRotated(calcAngleBetween(upperArmAngle - upperArmAngleDelta, upperArmAngleMin + upperArmAngleDelta, upperArmAngleMin), 1, 0, 0);
         drawArm(gl, glut, Side.Left);
         gl.glPopMatrix();
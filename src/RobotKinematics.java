@@ -0,0 +1,71 @@
+import robotrace.Vector;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Immutable snapshot of where a robot is, how it is oriented and how its limbs are bent, computed once per
+ * simulation tick.
+ *
+ * Querying the track for a position, tangent or normal is not free (it has to find the segment and the parameter
+ * belonging to a distance), so the robot does it once per tick and the cameras and the renderer all read the result
+ * from here instead of asking the track again.
+ */
+final class RobotKinematics {
+    // Position of the robot on its lane.
+    final Vector position;
+    // Unit tangent of the lane at the robot's position, i.e. the direction the robot is facing.
+    final Vector tangent;
+    // Unit normal of the track surface at the robot's position.
+    final Vector normal;
+    // Distance covered since the start of the race, in meters.
+    final double distCovered;
+
+    // Indices of the limbs in limbAngles. Each limb has its angle followed by the angle shifted by half a period.
+    static final int UPPER_ARM = 0;
+    static final int LOWER_ARM = 2;
+    static final int UPPER_LEG = 4;
+    static final int LOWER_LEG = 6;
+    static final int LIMB_ANGLE_COUNT = 8;
+
+    // Rotation angles of the limbs in degrees, as returned by LimbRotation.getAngle and getAngleHalfPhaseShift.
+    private final double[] limbAngles;
+
+    // Column-major model matrix placing the robot's local axis system (x to the side, y forward, z up) at its position.
+    private final double[] basis;
+
+    RobotKinematics(Vector position, Vector tangent, Vector normal, double distCovered, double[] limbAngles) {
+        this.position = position;
+        this.tangent = tangent;
+        this.normal = normal;
+        this.distCovered = distCovered;
+        this.limbAngles = limbAngles.clone();
+
+        // The side is the cross product of the normal and the tangent, computed in place rather than as a new vector.
+        double sideX = normal.y() * tangent.z() - normal.z() * tangent.y();
+        double sideY = normal.z() * tangent.x() - normal.x() * tangent.z();
+        double sideZ = normal.x() * tangent.y() - normal.y() * tangent.x();
+        basis = new double[]{
+                sideX, sideY, sideZ, 0,
+                tangent.x(), tangent.y(), tangent.z(), 0,
+                normal.x(), normal.y(), normal.z(), 0,
+                position.x(), position.y(), position.z(), 1};
+    }
+
+    /**
+     * @param limb one of UPPER_ARM, LOWER_ARM, UPPER_LEG and LOWER_LEG
+     * @param halfPhaseShifted whether to return the angle shifted by half a period, used for the limbs on the other side
+     * @return rotation angle of the limb in degrees
+     */
+    double limbAngle(int limb, boolean halfPhaseShifted) {
+        return limbAngles[halfPhaseShifted ? limb + 1 : limb];
+    }
+
+    /**
+     * Multiply the current matrix with the robot's model matrix, such that the robot can be drawn around the origin.
+     *
+     * @param gl OpenGL context
+     */
+    void applyTransform(GL2 gl) {
+        gl.glMultMatrixd(basis, 0);
+    }
+}
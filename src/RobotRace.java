@@ -6,9 +6,19 @@
  * Noud de Kroon
  */
 
+import com.jogamp.opengl.util.gl2.GLUT;
 import com.jogamp.opengl.util.texture.Texture;
 import robotrace.Base;
-import robotrace.Vector;
+
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+import javax.media.opengl.glu.GLU;
+import java.io.File;
+import java.io.IOException;
 
 import static javax.media.opengl.GL2.*;
 
@@ -68,7 +78,7 @@ import static javax.media.opengl.GL2.*;
 public class RobotRace extends Base {
 
     /**
-     * Array of the four robots.
+     * Array of the robots, one per lane.
      */
     private final Robot[] robots;
 
@@ -77,8 +87,20 @@ public class RobotRace extends Base {
      */
     private final Camera camera;
 
-    int robotsDisplayList;
-    boolean robotsInitialized;
+    /**
+     * What the main view sees.
+     */
+    private final Frustum mainFrustum = new Frustum();
+
+    /**
+     * The views shown side by side instead of the main view when asked for on the command line, otherwise null.
+     */
+    private final ViewportManager views;
+
+    /**
+     * The picture-in-picture overview, showing the whole track from above.
+     */
+    private final PictureInPicture pictureInPicture;
 
     /**
      * Instance of the race track.
@@ -90,6 +112,32 @@ public class RobotRace extends Base {
      */
     private final Terrain terrain;
 
+    /**
+     * The simulation moving the robots, running on its own thread. Null when a recorded race is played back.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The playback of a recorded race, null when the race is simulated.
+     */
+    private final Playback playback;
+
+    /**
+     * Writes the frames to disk instead of showing them in a window, when asked for on the command line; otherwise
+     * null.
+     */
+    private final FrameExporter exporter;
+
+    /**
+     * Where the snapshots to render come from: the simulation or the playback.
+     */
+    private final SnapshotSource source;
+
+    /**
+     * The snapshot of the world drawn in the current frame, taken at the start of setView.
+     */
+    private WorldSnapshot world;
+
     /**
      * Keep track of last time the scene was drawn.
      */
@@ -104,6 +152,21 @@ public class RobotRace extends Base {
 
     private Texture landscape;
 
+    /**
+     * Per-stage frame timings, readable on screen and over JMX.
+     */
+    private final FrameStatistics frameStatistics;
+
+    /**
+     * Tracker of the OpenGL state set while drawing the track, the robots and the terrain, skipping redundant changes.
+     */
+    private final GLState glState = new GLState();
+
+    /**
+     * Index of the picture-in-picture in the frame statistics, after the other views.
+     */
+    private final int pipStatistics;
+
     /**
      * Constructs this robot race by initializing robots,
      * camera, track, and terrain.
@@ -112,29 +175,158 @@ public class RobotRace extends Base {
         // Initialize the race track.
         raceTrack = new RaceTrack(gs);
 
-        // Create a new array of four robots
-        robots = new Robot[4];
+        // Start on the track given on the command line (-Drobotrace.track=nr), e.g. one loaded from a track file.
+        gs.trackNr = Math.max(0, Math.min(raceTrack.getTrackCount() - 1, Integer.getInteger("robotrace.track",
+                gs.trackNr)));
 
-        // Initialize robot 0, telling it material (from which it takes its color), on which track it is and in which
-        // lane on the track.
-        robots[0] = new Robot(Material.GOLD, raceTrack, 0, gs);
+        // Use the seed given on the command line (-Drobotrace.seed=...) to reproduce a race, otherwise a fresh one.
+        long seed = Long.getLong("robotrace.seed", System.nanoTime());
 
-        // Initialize robot 1
-        robots[1] = new Robot(Material.SILVER, raceTrack, 1, gs);
+        // Create the robots from the seed, one per lane.
+        robots = Simulation.createRobots(raceTrack, gs, seed);
 
-        // Initialize robot 2
-        robots[2] = new Robot(Material.WOOD, raceTrack, 2, gs);
+        // Render to image files instead of a window if asked to (-Drobotrace.export=directory).
+        try {
+            exporter = FrameExporter.fromProperties();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to export frames: " + e.getMessage(), e);
+        }
 
-        // Initialize robot 3
-        robots[3] = new Robot(Material.ORANGE, raceTrack, 3, gs);
+        // Watch a recorded race if asked to (-Drobotrace.playback=file), in which case the robots only provide their
+        // materials and are not simulated.
+        String playbackFile = System.getProperty("robotrace.playback");
+        Playback recorded = playbackFile != null ? openPlayback(new File(playbackFile)) : null;
+        if (recorded != null) {
+            playback = recorded;
+            simulation = null;
+            source = playback;
+        } else {
+            playback = null;
+            simulation = createSimulation(seed);
+            source = simulation;
+        }
 
         // Initialize the camera
         camera = new Camera(gs, robots);
+        pictureInPicture = new PictureInPicture(robots.length);
+
+        // Show several views side by side if asked to (-Drobotrace.views=helicopter:0,motorcycle:1,...).
+        views = ViewportManager.fromProperties(gs, robots.length);
+        if (views != null) {
+            frameStatistics = new FrameStatistics(views.names("PiP"));
+            pipStatistics = views.size();
+        } else {
+            frameStatistics = new FrameStatistics(FrameStatistics.DEFAULT_VIEWS);
+            pipStatistics = FrameStatistics.PIP_VIEW;
+        }
 
         // Initialize the terrain
         terrain = new Terrain();
     }
 
+    /**
+     * Create the simulation of a new race, recording it as asked for on the command line.
+     *
+     * @param seed seed from which the robots were created
+     */
+    private Simulation createSimulation(long seed) {
+        // Initialize the simulation, which places the robots at the start of the track.
+        final Simulation simulation = new Simulation(gs, raceTrack, robots);
+
+        // Record the race if asked to (-Drobotrace.replayLog=file), such that it can be replayed with RaceReplay.
+        String replayLogFile = System.getProperty("robotrace.replayLog");
+        if (replayLogFile != null) {
+            try {
+                simulation.setReplayLog(new ReplayLog.Writer(new File(replayLogFile), seed, robots.length, gs.trackNr));
+            } catch (IOException e) {
+                System.err.println("Unable to record replay log: " + e);
+            }
+        }
+
+        // Record the telemetry of every robot if asked to (-Drobotrace.telemetry=file).
+        String telemetryFile = System.getProperty("robotrace.telemetry");
+        if (telemetryFile != null) {
+            try {
+                simulation.setTelemetry(new TelemetryRecorder(new File(telemetryFile), robots.length));
+            } catch (IOException e) {
+                System.err.println("Unable to record telemetry: " + e);
+            }
+        }
+
+        // Record the poses of the robots if asked to (-Drobotrace.poses=file), such that the race can be watched again
+        // with -Drobotrace.playback=file.
+        String posesFile = System.getProperty("robotrace.poses");
+        if (posesFile != null) {
+            try {
+                simulation.setPoseRecording(new PoseRecording.Writer(new File(posesFile), robots.length));
+            } catch (IOException e) {
+                System.err.println("Unable to record poses: " + e);
+            }
+        }
+
+        // Finish the recordings when the application is closed.
+        Runtime.getRuntime().addShutdownHook(new Thread("Simulation shutdown") {
+            @Override
+            public void run() {
+                try {
+                    simulation.close();
+                } catch (Exception e) {
+                    System.err.println("Unable to close the recordings: " + e);
+                }
+            }
+        });
+        return simulation;
+    }
+
+    /**
+     * Open a pose recording for playback and show its controls.
+     *
+     * @return the playback, or null if the recording could not be used
+     */
+    private Playback openPlayback(File file) {
+        try {
+            PoseRecording.Reader recording = new PoseRecording.Reader(file);
+            if (recording.robots != robots.length) {
+                System.err.println(file + " holds " + recording.robots + " robots instead of " + robots.length);
+                recording.close();
+                return null;
+            }
+            // A recording made with tracks loaded through robotrace.tracks needs the same tracks to be drawn.
+            int trackNr;
+            try {
+                trackNr = recording.highestTrackNr();
+            } catch (IOException e) {
+                recording.close();
+                throw e;
+            }
+            if (trackNr >= raceTrack.getTrackCount()) {
+                System.err.println(file + " uses track " + trackNr + " but only " + raceTrack.getTrackCount()
+                        + " tracks are available");
+                recording.close();
+                return null;
+            }
+            final Playback playback = new Playback(recording);
+            // Exported frames follow the clock of the export, there is nothing to control.
+            if (exporter == null) {
+                new PlaybackControls(playback).setVisible(true);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread("Playback shutdown") {
+                @Override
+                public void run() {
+                    try {
+                        playback.close();
+                    } catch (IOException e) {
+                        System.err.println("Unable to close the pose recording: " + e);
+                    }
+                }
+            });
+            return playback;
+        } catch (IOException e) {
+            System.err.println("Unable to play back " + file + ": " + e);
+            return null;
+        }
+    }
+
     /**
      * Called upon the start of the application.
      * Primarily used to configure OpenGL.
@@ -187,12 +379,22 @@ public class RobotRace extends Base {
         Track.track = track;
         Terrain.landscape = landscape;
 
-        // Retrieve an id for the display list which is used to draw a second time for the Picture in Picture view
-        robotsDisplayList = gl.glGenLists(1);
+        // Allocate the GPU timer queries, if supported.
+        frameStatistics.initialize(gl);
 
         // Set to the current time such that when it is used for the first time to
         // calculate the time difference between frames it results in a minimal difference.
         lastTimeSceneDrawn = System.nanoTime();
+
+        // Start the race, or its playback. When exporting they are advanced frame by frame instead.
+        if (exporter != null) {
+            return;
+        }
+        if (simulation != null) {
+            simulation.start();
+        } else {
+            playback.start();
+        }
     }
 
     /**
@@ -202,14 +404,15 @@ public class RobotRace extends Base {
     public void setView() {
         // Calculate the difference in time since the previous moment (last frame) we were here.
         long currentTime = System.nanoTime();
-        long diffTimeFrames = currentTime - lastTimeSceneDrawn;
+        long diffTimeFrames = exporter != null ? exporter.frameNanos() : currentTime - lastTimeSceneDrawn;
         lastTimeSceneDrawn = currentTime;
 
-        // Update the position of the robots here, which means that the camera can use the
-        // correct position of the robots to position itself and is not a frame behind.
-        for (int i = 0; i < robots.length; i++) {
-            robots[i].updatePos(diffTimeFrames);
-        }
+        frameStatistics.beginFrame(gl, diffTimeFrames);
+        frameStatistics.begin(gl, FrameStatistics.Stage.SET_VIEW);
+
+        // Take the latest state of the robots here and use it for the whole frame, which means that the camera and
+        // the robots are drawn from the same tick, while the simulation thread is already computing the next one.
+        world = source.latest();
 
         // Select part of window.
         gl.glViewport(0, 0, gs.w, gs.h);
@@ -227,13 +430,16 @@ public class RobotRace extends Base {
         */
 
         double fovAngley = Math.toDegrees(2 * Math.atan(gs.vWidth * ((float) gs.h / (float) gs.w) / (2 * gs.vDist)));
-        glu.gluPerspective(fovAngley, (float) gs.w / (float) gs.h, 0.1 * gs.vDist, 10.0 * gs.vDist);
+        float aspect = (float) gs.w / (float) gs.h;
+        glu.gluPerspective(fovAngley, aspect, 0.1 * gs.vDist, 10.0 * gs.vDist);
 
         // Let the camera check if camMode changed and change its mode accordingly.
-        camera.setCamMode(gs.camMode);
+        frameStatistics.begin(gl, FrameStatistics.Stage.CAMERA);
+        camera.setCamMode(gs.camMode, world);
         // The animation should be as smooth as possible and should not depend on the framerate, therefore use the time
         // delta between the frames to calculated the animations.
-        camera.update(diffTimeFrames);
+        camera.update(diffTimeFrames, world);
+        frameStatistics.end(gl, FrameStatistics.Stage.CAMERA);
 
         // Set camera.
         gl.glMatrixMode(GL_MODELVIEW);
@@ -256,9 +462,13 @@ public class RobotRace extends Base {
         }
 
         // Update the view according to the camera mode
-        glu.gluLookAt(camera.eye.x(), camera.eye.y(), camera.eye.z(),
-                camera.center.x(), camera.center.y(), camera.center.z(),
-                camera.up.x(), camera.up.y(), camera.up.z());
+        glu.gluLookAt(camera.eye[0], camera.eye[1], camera.eye[2],
+                camera.center[0], camera.center[1], camera.center[2],
+                camera.up[0], camera.up[1], camera.up[2]);
+        // Keep what the camera sees, to skip what lies outside of it.
+        mainFrustum.set(fovAngley, aspect, 0.1 * gs.vDist, 10.0 * gs.vDist, camera.eye, camera.center, camera.up);
+
+        frameStatistics.end(gl, FrameStatistics.Stage.SET_VIEW);
     }
 
 
@@ -267,6 +477,8 @@ public class RobotRace extends Base {
      */
     @Override
     public void drawScene() {
+        frameStatistics.begin(gl, FrameStatistics.Stage.DRAW_SCENE);
+
         // Background color.
         gl.glClearColor(1f, 1f, 1f, 0f);
 
@@ -281,39 +493,78 @@ public class RobotRace extends Base {
 
         gl.glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
 
+        // The state is carried from view to view, but not from the previous frame, whose overlay bypassed the tracker.
+        glState.invalidate();
+        glState.resetCounts();
+        if (views != null) {
+            drawViews();
+        } else {
+            drawMainView();
+        }
+
+        //Finally draw the overview in the picture-in-picture frame.
+        frameStatistics.begin(gl, FrameStatistics.Stage.PICTURE_IN_PICTURE);
+        drawPictureInPicture();
+        frameStatistics.end(gl, FrameStatistics.Stage.PICTURE_IN_PICTURE);
+        frameStatistics.countVisible(pipStatistics, pictureInPicture.piecesDrawn,
+                raceTrack.getPieceCount(), pictureInPicture.robotsDrawn, robots.length);
+        frameStatistics.countStateChanges(glState.getIssued(), glState.getSkipped());
+
+        frameStatistics.end(gl, FrameStatistics.Stage.DRAW_SCENE);
+
+        // Show the timings (if enabled) on top of everything else.
+        frameStatistics.drawOverlay(gl, glut, gs.w, gs.h);
+        frameStatistics.endFrame(gl);
+    }
+
+    /**
+     * Draws the scene as the main camera sees it, over the whole window.
+     */
+    private void drawMainView() {
         // Draw the axis frame
         if (gs.showAxes) {
             drawAxisFrame();
+            glState.invalidate();
         }
 
-        // Draw race track
-        raceTrack.draw(gl);
-
-        /**
-         * We want to generate a display-list of the robots, which we call again for the picture in picture. However,
-         * since inside the robots also display-lists are being generated, and you are not allowed to do a glNewList
-         * call while compiling a display-list, we use the boolean robotsInitialized in order to make sure that for the first
-         * frame the robots are drawn normally (without generating a dispaylist of them). Afterwards robotsInitialized will
-         * always be true, and each frame we compile a new displaylist of the robots (which we then call again for the PiP).
-         */
-        if (!robotsInitialized) {
-            for (int i = 0; i < robots.length; i++) {   //Draw each robot.
-                robots[i].drawAtPos(gl, glut);
-            }
-            robotsInitialized = true;
-        } else {
-            gl.glNewList(robotsDisplayList, GL_COMPILE_AND_EXECUTE);
-            for (int i = 0; i < robots.length; i++) {           //Draw each robot.
-                robots[i].drawAtPos(gl, glut);
+        // Draw the pieces of the race track that are in view
+        frameStatistics.begin(gl, FrameStatistics.Stage.TRACK);
+        int piecesDrawn = raceTrack.draw(gl, glState, world.trackNr, mainFrustum);
+        frameStatistics.end(gl, FrameStatistics.Stage.TRACK);
+
+        // Draw the robots that are in view. The picture-in-picture shows them as markers, so they are only drawn once.
+        frameStatistics.begin(gl, FrameStatistics.Stage.ROBOTS);
+        int robotsInMainView = 0;
+        for (int i = 0; i < robots.length; i++) {
+            if (Robot.inView(mainFrustum, world.robots[i])) {
+                robots[i].drawAtPos(gl, glut, glState, world.robots[i]);
+                robotsInMainView++;
             }
-            gl.glEndList();
         }
+        frameStatistics.end(gl, FrameStatistics.Stage.ROBOTS);
+        frameStatistics.countVisible(FrameStatistics.MAIN_VIEW, piecesDrawn, raceTrack.getPieceCount(),
+                robotsInMainView, robots.length);
 
         // Draw terrain
-        terrain.draw(gl);
+        frameStatistics.begin(gl, FrameStatistics.Stage.TERRAIN);
+        terrain.draw(gl, glState);
+        frameStatistics.end(gl, FrameStatistics.Stage.TERRAIN);
+    }
 
-        //Finally draw the same scene but in the picture-in-picture frame.
-        drawPictureInPicture();
+    /**
+     * Draws the scene once per view given on the command line, culling all views in parallel first.
+     */
+    private void drawViews() {
+        raceTrack.prepare(gl, world.trackNr);
+
+        frameStatistics.begin(gl, FrameStatistics.Stage.CULL);
+        views.cull(world, raceTrack, gs.w, gs.h);
+        frameStatistics.end(gl, FrameStatistics.Stage.CULL);
+
+        frameStatistics.begin(gl, FrameStatistics.Stage.VIEWS);
+        views.draw(gl, glu, glut, glState, raceTrack, terrain, world, robots);
+        frameStatistics.end(gl, FrameStatistics.Stage.VIEWS);
+        views.countVisible(frameStatistics, raceTrack.getPieceCount(), robots.length);
     }
 
     /**
@@ -330,47 +581,90 @@ public class RobotRace extends Base {
         //Define a new, square viewport, in the top-right corner, with a width that is 1/3th of the smallest of the length
         //and height of the window.
         int width = Math.min(gs.w,gs.h) / 3;
-        gl.glViewport(gs.w-width, gs.h-width, width, width);
-
-        // Set projection matrix. Since it's a static camera we can hardcode the fovangle.
-        gl.glMatrixMode(GL_PROJECTION);
-        gl.glClear(GL_DEPTH_BUFFER_BIT);
-        gl.glLoadIdentity();
-        glu.gluPerspective(60, 1, 1.0, 100.0);
+        pictureInPicture.draw(gl, glu, glState, gs.w - width, gs.h - width, width, raceTrack, terrain, world, robots);
+    }
 
-        gl.glMatrixMode(GL_MODELVIEW);
-        gl.glLoadIdentity();
 
-        //Set the static position of the camera.
-        Vector lookAt = new Vector(0,0,0);
-        Vector cameraPos =new Vector(0,0,35);
-        Vector up = new Vector(0,1,0);
+    /**
+     * Render the race without a window, at the fixed frame rate of the exporter, and write every frame to disk.
+     * <p/>
+     * The frames are drawn into an offscreen drawable, which JOGL makes a framebuffer object, a pbuffer or a pixmap,
+     * whichever the driver supports; Mesa's software renderer will do, e.g. under Xvfb on a machine without a GPU. Each
+     * frame the simulation runs the ticks of one frame interval, or the playback moves to the time of the frame, such
+     * that the clip plays at normal speed however long a frame takes to render.
+     */
+    private void export() throws IOException {
+        GLProfile profile = GLProfile.get(GLProfile.GL2);
+        GLCapabilities capabilities = new GLCapabilities(profile);
+        capabilities.setOnscreen(false);
+        capabilities.setDepthBits(24);
+        GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile).createOffscreenAutoDrawable(null,
+                capabilities, null, exporter.width, exporter.height);
+        drawable.addGLEventListener(new GLEventListener() {
+            @Override
+            public void init(GLAutoDrawable drawable) {
+                gl = drawable.getGL().getGL2();
+                glu = new GLU();
+                glut = new GLUT();
+                gs.w = exporter.width;
+                gs.h = exporter.height;
+                initialize();
+                exporter.initialize(gl);
+            }
 
-        /**
-         * Update the view according to the fixed coordinate frame for the PiP camera.
-         */
-        glu.gluLookAt(cameraPos.x(), cameraPos.y(), cameraPos.z(),
-                lookAt.x(), lookAt.y(), lookAt.z(),
-                up.x(), up.y(), up.z());
+            @Override
+            public void display(GLAutoDrawable drawable) {
+                gl = drawable.getGL().getGL2();
+                setView();
+                drawScene();
+                exporter.capture(gl);
+            }
 
-        // Draw race track
-        raceTrack.draw(gl);
+            @Override
+            public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+                gs.w = width;
+                gs.h = height;
+            }
 
-        //
-        gl.glCallList(robotsDisplayList);
+            @Override
+            public void dispose(GLAutoDrawable drawable) {
+                exporter.flush(drawable.getGL().getGL2());
+            }
+        });
 
-        // Draw terrain
-        terrain.draw(gl);
+        long frames = exporter.frames(playback != null ? playback.getDuration() : FrameExporter.DEFAULT_SECONDS);
+        long start = System.nanoTime();
+        for (long frame = 0; frame < frames && !exporter.failed(); frame++) {
+            if (playback != null) {
+                playback.seek(frame / exporter.fps);
+            }
+            drawable.display();
+            if (simulation != null) {
+                simulation.advance(exporter.frameNanos());
+            }
+        }
+        drawable.destroy();
+        exporter.finish();
+        System.out.printf("Wrote %d frames to %s in %.1f s%n", exporter.getCaptured(), exporter.directory,
+                (System.nanoTime() - start) / 1e9);
     }
 
-
     /**
      * Main program execution body, delegates to an instance of
      * the RobotRace implementation.
      */
     public static void main(String args[]) {
         RobotRace robotRace = new RobotRace();
-        robotRace.run();
+        if (robotRace.exporter != null) {
+            try {
+                robotRace.export();
+            } catch (IOException e) {
+                System.err.println("Unable to export frames: " + e);
+                System.exit(1);
+            }
+        } else {
+            robotRace.run();
+        }
     }
 
 }
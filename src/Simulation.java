@@ -0,0 +1,297 @@
+import robotrace.GlobalState;
+
+import jdk.jfr.EventType;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the race on its own thread, separate from the OpenGL thread that renders it.
+ *
+ * After each tick the state of all robots is published as an immutable WorldSnapshot through an AtomicReference.
+ * Publishing is a single volatile write and taking the latest snapshot a single volatile read, so neither thread
+ * ever waits for the other: the renderer always draws the latest complete tick, and heavy simulation work no longer
+ * lowers the frame rate.
+ * <p/>
+ * The robots always advance by exactly TICK_NANOS per tick; the wall clock only decides how many ticks to run. Together
+ * with a seeded random generator this makes a race reproducible: given the seed and the track selected at each tick
+ * (which is what a ReplayLog holds) the same ticks give bit for bit the same race.
+ */
+class Simulation implements Runnable, SnapshotSource {
+    // Time between two ticks, in nanoseconds (240 ticks per second).
+    static final long TICK_NANOS = 1000000000L / 240;
+
+    // Materials of the robots, repeated across the lanes when there are more lanes than materials.
+    static final Material[] MATERIALS = {Material.GOLD, Material.SILVER, Material.WOOD, Material.ORANGE};
+
+    // When the simulation falls behind more than this, the missing time is dropped rather than caught up with.
+    private static final long MAX_BACKLOG = 250000000L;
+
+    // Looked up once, such that a tick only allocates an event while the events are recorded.
+    private static final EventType TICK_EVENT_TYPE = EventType.getEventType(SimulationTickEvent.class);
+
+    private final GlobalState gs;
+    private final RaceTrack raceTrack;
+    private final Robot[] robots;
+
+    // The snapshot of the last completed tick.
+    private final AtomicReference<WorldSnapshot> latest = new AtomicReference<WorldSnapshot>();
+
+    private Thread thread;
+    private volatile boolean running;
+
+    private long tick;
+    private long lastTickTime;
+    // Time not yet simulated by advance, less than a tick.
+    private long advanceBacklog;
+
+    // Lap times and ranking of the robots, reset whenever the track changes.
+    private final RaceStandings standings;
+    private int standingsTrackNr = -1;
+
+    // Lane changes and keeping distance.
+    private final Traffic traffic;
+
+    // Log receiving the input of every tick, null if the race is not recorded.
+    private ReplayLog.Writer replayLog;
+    // Recorder receiving the state of the robots after every tick, null if no telemetry is recorded.
+    private TelemetryRecorder telemetry;
+    // Recording receiving the poses of the robots after every tick, null if the poses are not recorded.
+    private PoseRecording.Writer poseRecording;
+
+    Simulation(GlobalState gs, RaceTrack raceTrack, Robot[] robots) {
+        this.gs = gs;
+        this.raceTrack = raceTrack;
+        this.robots = robots;
+        standings = new RaceStandings(robots.length);
+        traffic = new Traffic(robots.length, raceTrack.getLaneLayout().lanes);
+
+        // Publish the starting positions right away, such that there is always a snapshot to render.
+        step(0, gs.trackNr);
+    }
+
+    /**
+     * Create the robots of a race, one per lane of the track.
+     *
+     * @param seed seed of the random generator from which the robots draw their speed properties
+     */
+    static Robot[] createRobots(RaceTrack raceTrack, GlobalState gs, long seed) {
+        Random random = new Random(seed);
+        Robot[] robots = new Robot[raceTrack.getLaneLayout().lanes];
+
+        // Initialize robot i, telling it material (from which it takes its color), on which track it is and in which
+        // lane on the track.
+        for (int i = 0; i < robots.length; i++) {
+            robots[i] = new Robot(material(i), raceTrack, i, gs, random);
+        }
+        return robots;
+    }
+
+    /**
+     * @return the material of the robot starting in the given lane.
+     */
+    static Material material(int lane) {
+        return MATERIALS[lane % MATERIALS.length];
+    }
+
+    /**
+     * Record the input of every following tick in the given log. The log is closed by close().
+     */
+    void setReplayLog(ReplayLog.Writer log) {
+        replayLog = log;
+    }
+
+    /**
+     * Record the state of every robot at every following tick. The recorder is closed by close().
+     */
+    void setTelemetry(TelemetryRecorder recorder) {
+        telemetry = recorder;
+    }
+
+    /**
+     * Record the poses of the robots at every following tick, such that the race can be watched again with a
+     * Playback. The recording is closed by close().
+     */
+    void setPoseRecording(PoseRecording.Writer recording) {
+        poseRecording = recording;
+    }
+
+    /**
+     * Stop the simulation thread and close the replay log, the telemetry and the pose recording, if any.
+     */
+    void close() throws InterruptedException, IOException {
+        stop();
+        if (replayLog != null) {
+            replayLog.close();
+            replayLog = null;
+        }
+        if (telemetry != null) {
+            telemetry.close();
+            telemetry = null;
+        }
+        if (poseRecording != null) {
+            poseRecording.close();
+            poseRecording = null;
+        }
+    }
+
+    /**
+     * @return the snapshot of the most recently completed tick, never null.
+     */
+    @Override
+    public WorldSnapshot latest() {
+        return latest.get();
+    }
+
+    /**
+     * @return the lap times and ranking of the race. Only to be read on the thread calling step, or after stop().
+     */
+    RaceStandings getStandings() {
+        return standings;
+    }
+
+    /**
+     * Start running ticks on a separate (daemon) thread. Does nothing if already started.
+     */
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        lastTickTime = System.nanoTime();
+        thread = new Thread(this, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the simulation thread and wait for it to finish its current tick.
+     */
+    synchronized void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * Run as many fixed ticks as fit in the time actually passed, such that the speed of the robots does not depend
+     * on how regularly this thread gets scheduled, while every tick is still exactly TICK_NANOS long.
+     */
+    @Override
+    public void run() {
+        long backlog = 0;
+        while (running) {
+            long now = System.nanoTime();
+            backlog = runTicks(Math.min(backlog + now - lastTickTime, MAX_BACKLOG));
+            lastTickTime = now;
+
+            LockSupport.parkNanos(TICK_NANOS - backlog);
+        }
+    }
+
+    /**
+     * Run as many ticks as fit in the given time on the calling thread instead of the simulation thread, e.g. to render
+     * frames at a fixed rate rather than in real time. Must not be called once the simulation thread is started.
+     *
+     * @param time nanoseconds to advance by; what is left over after the last whole tick counts towards the next call
+     */
+    void advance(long time) {
+        advanceBacklog = runTicks(advanceBacklog + time);
+    }
+
+    /**
+     * Run whole ticks for as long as the backlog lasts, logging the input of every tick.
+     *
+     * @return the backlog left over.
+     */
+    private long runTicks(long backlog) {
+        while (backlog >= TICK_NANOS) {
+            int trackNr = gs.trackNr;
+            step(TICK_NANOS, trackNr);
+            backlog -= TICK_NANOS;
+
+            if (replayLog != null) {
+                try {
+                    replayLog.write(trackNr);
+                } catch (IOException e) {
+                    System.err.println("Stopped recording replay log: " + e);
+                    replayLog = null;
+                }
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Advance the world by the given time and publish the result.
+     *
+     * @param timeDiff time in nanoseconds to advance the robots by
+     * @param trackNr the track selected by the user
+     */
+    void step(long timeDiff, int trackNr) {
+        SimulationTickEvent tickEvent = null;
+        long allocatedBeforeTick = 0;
+        if (TICK_EVENT_TYPE.isEnabled()) {
+            tickEvent = new SimulationTickEvent();
+            tickEvent.begin();
+            allocatedBeforeTick = RaceEvents.allocatedBytes();
+        }
+
+        // Switch tracks here rather than in the renderer, such that a track is only used once its tables are ready.
+        raceTrack.selectTrack(trackNr);
+
+        // Let robots change lanes to overtake, unless they are about to restart on a new track.
+        if (raceTrack.trackNr == standingsTrackNr) {
+            traffic.update(robots, raceTrack);
+        }
+
+        RobotKinematics[] kinematics = new RobotKinematics[robots.length];
+        for (int i = 0; i < robots.length; i++) {
+            robots[i].updatePos(timeDiff);
+            kinematics[i] = robots[i].getKinematics();
+        }
+        if (telemetry != null) {
+            try {
+                telemetry.record(tick, robots);
+            } catch (IOException e) {
+                System.err.println("Stopped recording telemetry: " + e);
+                // Keep the complete ticks recorded so far.
+                try {
+                    telemetry.close();
+                } catch (IOException closeFailure) {
+                    System.err.println("Unable to close telemetry: " + closeFailure);
+                }
+                telemetry = null;
+            }
+        }
+        // The robots start a new race when the track changes.
+        if (raceTrack.trackNr != standingsTrackNr) {
+            standings.reset();
+            standingsTrackNr = raceTrack.trackNr;
+        }
+        standings.update(timeDiff, robots, raceTrack);
+
+        WorldSnapshot world = new WorldSnapshot(tick++, raceTrack.trackNr, kinematics, standings.ranking().clone());
+        latest.set(world);
+        if (poseRecording != null) {
+            try {
+                poseRecording.write(world);
+            } catch (IOException e) {
+                System.err.println("Stopped recording poses: " + e);
+                poseRecording = null;
+            }
+        }
+
+        if (tickEvent != null && tickEvent.shouldCommit()) {
+            tickEvent.robots = robots.length;
+            tickEvent.timeStep = timeDiff;
+            tickEvent.allocated = RaceEvents.allocatedBytes() - allocatedBeforeTick;
+            tickEvent.commit();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * Something that supplies the renderer with the state of the world, once per frame.
+ *
+ * Normally that is the running Simulation, but a race can also be played back from a PoseRecording.
+ */
+interface SnapshotSource {
+    /**
+     * @return the snapshot to render in the current frame, never null.
+     */
+    WorldSnapshot latest();
+}
@@ -0,0 +1,120 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records the state of every robot at every tick into an append-only, memory-mapped file.
+ *
+ * Every record has the same width, and every tick writes one record per robot in robot order, so the record of robot
+ * r at tick t lies at HEADER_SIZE + ((t - firstTick) * robots + r) * RECORD_SIZE: the header doubles as the index.
+ * Records are written straight into mapped memory, so recording a tick is a handful of stores without any system call;
+ * the OS writes the pages back in the background. Only when a mapped region is full is the next one mapped, once per
+ * REGION_SIZE bytes.
+ * <p/>
+ * The layout (little-endian) is:
+ * <pre>
+ * header, HEADER_SIZE bytes:
+ *  int    magic         'RRTM'
+ *  int    version       1
+ *  int    recordSize    RECORD_SIZE
+ *  int    robots        number of robots, i.e. records per tick
+ *  long   tickNanos     length of a tick in nanoseconds
+ *  long   firstTick     tick number of the first record
+ *  long   recordCount   number of complete records, updated after every tick
+ * record, RECORD_SIZE bytes:
+ *  int    tick
+ *  short  robot
+ *  short  lane
+ *  double distCovered   in meters
+ *  float  speed         in m/s
+ *  float  inclination   in [-1, 1]
+ * </pre>
+ */
+class TelemetryRecorder {
+    static final int MAGIC = 0x4D545252;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 24;
+
+    private static final int RECORD_COUNT_OFFSET = 32;
+
+    // Size of the regions mapped at a time, a whole number of records.
+    private static final long REGION_SIZE = (64L << 20) / RECORD_SIZE * RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int robots;
+
+    // The mapped region records are currently written to, and the file offset at which it starts.
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    private long firstTick = -1;
+    private long recordCount;
+
+    TelemetryRecorder(File file, int robots) throws IOException {
+        this.robots = robots;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(RECORD_SIZE);
+        header.putInt(robots);
+        header.putLong(Simulation.TICK_NANOS);
+        header.putLong(0);
+        header.putLong(0);
+
+        mapRegion(HEADER_SIZE);
+    }
+
+    /**
+     * Append one record for every robot.
+     *
+     * @param tick number of the tick that was just completed
+     * @param robotsState the robots, in a fixed order
+     * @throws IOException if the file cannot be extended, after which only close may be called
+     */
+    void record(long tick, Robot[] robotsState) throws IOException {
+        if (firstTick < 0) {
+            firstTick = tick;
+            header.putLong(24, firstTick);
+        }
+        for (int i = 0; i < robots; i++) {
+            if (region.remaining() < RECORD_SIZE) {
+                mapRegion(regionStart + region.position());
+            }
+            Robot robot = robotsState[i];
+            region.putInt((int) tick);
+            region.putShort((short) i);
+            region.putShort((short) robot.getLane());
+            region.putDouble(robot.distCovered);
+            region.putFloat((float) robot.speed);
+            region.putFloat((float) robot.inclination);
+        }
+        // Only publish complete ticks, such that a reader (or a crash) never sees half a tick.
+        recordCount += robots;
+        header.putLong(RECORD_COUNT_OFFSET, recordCount);
+    }
+
+    /**
+     * Cut the file off after the last record and release it.
+     */
+    void close() throws IOException {
+        header.force();
+        region.force();
+        channel.truncate(HEADER_SIZE + recordCount * RECORD_SIZE);
+        channel.close();
+    }
+
+    private void mapRegion(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = start;
+    }
+}
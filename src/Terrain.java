@@ -12,34 +12,55 @@ class Terrain {
     int displayList;                    //Variable pointing to the display list.
 
     /**
-     * Draws the terrain. It calls the displaylist to draw itself, if it's already set, otherwise it enables the texture,
-     * calls drawTerrain and stores it all in the displaylist.
+     * Draws the terrain. It enables the texture, then calls the displaylist to draw the surface, if it's already set,
+     * otherwise it calls drawTerrain and stores the surface in the displaylist. The displaylist only holds geometry,
+     * the texture and the colours are set through the state tracker, such that they are skipped when already set.
      * @param gl OpenGL context.
+     * @param state Tracker through which the colours and the texture are set.
      */
-    public void draw(GL2 gl) {
+    public void draw(GL2 gl, GLState state) {
+        state.color(gl, 1f, 1f, 1f);                    //Set color to white so it wont interfere with texture.
+        state.enableTexture(gl, landscape);
         if (displayList == 0) {
+            DisplayListCompileEvent compileEvent = new DisplayListCompileEvent();
+            compileEvent.begin();
+            long allocatedBefore = compileEvent.isEnabled() ? RaceEvents.allocatedBytes() : 0;
+
             displayList = gl.glGenLists(1);
             gl.glNewList(displayList, GL2.GL_COMPILE_AND_EXECUTE);
 
             drawTerrain(gl);
 
             gl.glEndList();
+
+            if (compileEvent.shouldCommit()) {
+                compileEvent.displayList = "terrain";
+                compileEvent.allocated = RaceEvents.allocatedBytes() - allocatedBefore;
+                compileEvent.commit();
+            }
         } else {
-            gl.glCallList(displayList);
+            state.callGeometryList(gl, displayList);
         }
+        state.disableTexture(gl, landscape);
+
+        //Draw the water surface as a single quad.
+        state.color(gl, 0.5f, 0.5f, 0.7f, 0.5f);
+        state.begin(gl, GL_QUADS);
+        state.normal(gl, 0, 0, 1);
+        gl.glVertex3f(-20,-20,0);
+        gl.glVertex3f(-20,20,0);
+        gl.glVertex3f(20,20,0);
+        gl.glVertex3f(20,-20,0);
+        state.end(gl);
     }
 
     /**
-     * Method that draws the terrain. Only gets called once, afterwards the terrain is drawn by displaylist.
+     * Method that draws the surface of the terrain. Only gets called once, afterwards the terrain is drawn by displaylist.
      * @param gl Opengl context.
      */
     private void drawTerrain(GL2 gl){
         float stepSize = 0.30f;
         Vector normal;
-        gl.glColor3d(1,1,1);                            //Set color to white so it wont interfere with texture.
-        landscape.enable(gl);
-        landscape.bind(gl);
-
 
         //Simple algorithm to draw the surface. Normalize the height to [0,1] for texture coordinates.
         for (float x = -20; x<20; x+=stepSize) {
@@ -58,20 +79,15 @@ class Terrain {
             }
             gl.glEnd();
         }
-        landscape.disable(gl);
-
-        //Draw the water surface as a single quad.
-        gl.glNormal3f(0,0,1f);
-        gl.glColor4d(0.5,0.5,0.7,0.5);
-        gl.glBegin(GL_QUADS);
-        gl.glVertex3f(-20,-20,0);
-        gl.glVertex3f(-20,20,0);
-        gl.glVertex3f(20,20,0);
-        gl.glVertex3f(20,-20,0);
-        gl.glEnd();
-
     }
 
+    /**
+     * Upper bound of the second derivative of heightAt in any horizontal direction, the sum of the amplitude times the
+     * squared wave vector of both waves. Between two points a distance L apart, the terrain lies at most
+     * MAX_CURVATURE * L^2 / 8 below the straight line between the heights at the points.
+     */
+    static final double MAX_CURVATURE = 0.6 * (0.3 * 0.3 + 0.2 * 0.2) + 0.4 * (1 + 0.5 * 0.5);
+
     /**
      * Computes the elevation of the terrain at the given coordinates.
      * @param x The x-coordinate.
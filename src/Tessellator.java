@@ -0,0 +1,109 @@
+import robotrace.Vector;
+
+/**
+ * Chooses where a curved piece of track is cut into the cross-sections it is drawn with, placing them by how much the
+ * track bends rather than at uniform steps of t.
+ *
+ * A span of the curve is split in half as long as drawing it as one straight cross-section would be off by more than
+ * the tolerance: the error is measured halfway the span, on the centre line and on both edges of the track, as the
+ * distance between the curve and the straight line drawn between the ends of the span. For a span of length L with
+ * curvature k this is about k L^2 / 8, so bends get short cross-sections and nearly straight stretches long ones,
+ * up to MAX_LENGTH, which keeps the walls following the terrain.
+ * <p/>
+ * The track is compiled into a display list once and then seen from every camera, so the tolerance is an error on
+ * the track itself, in meters, which is what an error on the screen comes down to at a given viewing distance. It is
+ * set on the command line (-Drobotrace.trackTolerance=meters), higher values giving fewer triangles.
+ */
+class Tessellator {
+    // Default largest distance between the drawn track and the real track, in meters.
+    static final double DEFAULT_TOLERANCE = 0.01;
+    // The tolerance used to draw the tracks.
+    static final double TOLERANCE = Double.parseDouble(System.getProperty("robotrace.trackTolerance",
+            Double.toString(DEFAULT_TOLERANCE)));
+    // Longest cross-section in meters, however straight the track.
+    static final double MAX_LENGTH = 2;
+
+    // Every curve is split at least this many times, such that an S-bend whose middle lies on the chord between its
+    // ends is not mistaken for a straight line, and at most this many times.
+    private static final int MIN_DEPTH = 2;
+    private static final int MAX_DEPTH = 12;
+
+    /**
+     * A curve to tessellate, with t running from 0 to 1.
+     */
+    interface Curve {
+        Vector point(double t);
+
+        Vector tangent(double t);
+    }
+
+    /**
+     * @param halfWidth distance from the centre line of the track to its edges, in meters
+     * @param tolerance largest distance between the curve and its tessellation, in meters
+     * @return the values of t at which the curve is cut, in increasing order, starting at 0 and ending at 1.
+     */
+    static double[] tessellate(Curve curve, double halfWidth, double tolerance) {
+        Tessellation result = new Tessellation();
+        result.add(0);
+        split(curve, halfWidth, tolerance, 0, 1, 0, result);
+        return result.toArray();
+    }
+
+    /**
+     * Add the cuts within (t0, t1] to the result.
+     */
+    private static void split(Curve curve, double halfWidth, double tolerance, double t0, double t1, int depth,
+                              Tessellation result) {
+        double tm = (t0 + t1) / 2;
+        if (depth >= MAX_DEPTH || (depth >= MIN_DEPTH && error(curve, halfWidth, t0, tm, t1) <= tolerance
+                && curve.point(t1).subtract(curve.point(t0)).length() <= MAX_LENGTH)) {
+            result.add(t1);
+            return;
+        }
+        split(curve, halfWidth, tolerance, t0, tm, depth + 1, result);
+        split(curve, halfWidth, tolerance, tm, t1, depth + 1, result);
+    }
+
+    /**
+     * @return the largest distance, on the centre line and on both edges, between the curve halfway the span and the
+     * middle of the straight line between the ends of the span.
+     */
+    private static double error(Curve curve, double halfWidth, double t0, double tm, double t1) {
+        double error = 0;
+        for (int side = -1; side <= 1; side++) {
+            Vector start = offset(curve, t0, side * halfWidth);
+            Vector middle = offset(curve, tm, side * halfWidth);
+            Vector end = offset(curve, t1, side * halfWidth);
+            error = Math.max(error, middle.subtract(start.add(end).scale(0.5)).length());
+        }
+        return error;
+    }
+
+    // The point at a distance to the left of the curve, the same way the track drawer finds its edges.
+    private static Vector offset(Curve curve, double t, double distance) {
+        Vector point = curve.point(t);
+        if (distance == 0) {
+            return point;
+        }
+        return point.add(Vector.Z.cross(curve.tangent(t)).normalized().scale(distance));
+    }
+
+    /**
+     * A growing list of t values, without boxing every value.
+     */
+    private static class Tessellation {
+        private double[] values = new double[64];
+        private int size;
+
+        void add(double t) {
+            if (size == values.length) {
+                values = java.util.Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = t;
+        }
+
+        double[] toArray() {
+            return java.util.Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import robotrace.Vector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes tracks as files, such that tracks can be added without recompiling.
+ *
+ * Tracks are written by hand in a text form, one road segment per line:
+ * <pre>
+ *  # comment
+ *  bezier   x0 y0 z0  x1 y1 z1  x2 y2 z2  x3 y3 z3  resolution
+ *  straight x0 y0 z0  x1 y1 z1  resolution
+ * </pre>
+ * and compiled into a binary form that also holds the arc length table of every curved segment, computed for a lane
+ * layout, such that loading a track only reads numbers instead of walking every curve. The binary layout (big-endian)
+ * is:
+ * <pre>
+ * header, HEADER_SIZE bytes:
+ *  int    magic          'RRTK'
+ *  int    version        1
+ *  int    lanes          lane layout the tables were computed for
+ *  double laneWidth
+ *  int    segments       number of segments
+ * segment:
+ *  byte   type           STRAIGHT or BEZIER
+ *  int    resolution
+ *  double points[2 or 4][3]
+ *  double distances[lanes][resolution + 1], bezier only: its ArcLengthTable
+ * </pre>
+ * When a binary track is loaded for another lane layout, its tables are ignored and computed as for a text track.
+ * <p/>
+ * Every loaded track is checked to be closed and smooth: each segment must start where the previous one ends, in the
+ * same direction. Usage: {@code java TrackFile compile <text track> <binary track>} with the lane layout of the race
+ * (-Drobotrace.lanes and -Drobotrace.laneWidth), or {@code java TrackFile export <built-in track> <text track>} to
+ * start a new track from one of the built-in ones.
+ */
+public class TrackFile {
+    static final int MAGIC = 0x5252544B;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+
+    static final String TEXT_EXTENSION = ".track";
+    static final String BINARY_EXTENSION = ".rtrack";
+
+    private static final byte STRAIGHT = 0;
+    private static final byte BEZIER = 1;
+    // Size in bytes of a straight segment and of a curved segment without its table: type, resolution and points.
+    private static final int STRAIGHT_SIZE = 5 + 2 * 24;
+    private static final int BEZIER_SIZE = 5 + 4 * 24;
+
+    // Largest distance in meters between the end of a segment and the start of the next one.
+    static final double POSITION_TOLERANCE = 1e-6;
+    // Largest angle in radians between the direction at the end of a segment and at the start of the next one.
+    static final double ANGLE_TOLERANCE = Math.toRadians(0.1);
+
+    public static void main(String args[]) throws IOException {
+        if (args.length != 3 || !(args[0].equals("compile") || args[0].equals("export"))) {
+            System.err.println("Usage: java TrackFile compile <text track> <binary track>");
+            System.err.println("       java TrackFile export <built-in track> <text track>");
+            System.exit(1);
+        }
+        if (args[0].equals("compile")) {
+            LaneLayout layout = LaneLayout.fromProperties();
+            long start = System.nanoTime();
+            RoadSegment[] segments = load(new File(args[1]), layout);
+            writeBinary(segments, layout, new File(args[2]));
+            System.out.printf("Compiled %d segments for %d lanes of %.2f m in %.1f ms%n", segments.length,
+                    layout.lanes, layout.laneWidth, (System.nanoTime() - start) / 1e6);
+        } else {
+            writeText(TrackCoordinates.valueOf(args[1]).roadSegments, new File(args[2]));
+        }
+    }
+
+    /**
+     * The track files in a directory, sorted by name, or the given file if it is not a directory. Of a track that is
+     * there in both forms, only the binary form is returned.
+     */
+    static List<File> list(File path) {
+        List<File> files = new ArrayList<File>();
+        if (!path.isDirectory()) {
+            files.add(path);
+            return files;
+        }
+        String[] names = path.list();
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.endsWith(BINARY_EXTENSION)) {
+                files.add(new File(path, name));
+            } else if (name.endsWith(TEXT_EXTENSION)) {
+                String base = name.substring(0, name.length() - TEXT_EXTENSION.length());
+                if (!new File(path, base + BINARY_EXTENSION).exists()) {
+                    files.add(new File(path, name));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Load a track in either form and check that it is closed and smooth.
+     *
+     * @param layout the lane layout the track will be used with
+     * @return the segments of the track, with their arc length tables if the file holds them for this layout
+     */
+    static RoadSegment[] load(File file, LaneLayout layout) throws IOException {
+        ByteBuffer buffer;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a track");
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+        } finally {
+            channel.close();
+        }
+
+        RoadSegment[] segments;
+        if (buffer.remaining() >= 4 && buffer.getInt(0) == MAGIC) {
+            segments = readBinary(buffer, layout, file.getName());
+        } else {
+            segments = parseText(new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8), file.getName());
+        }
+        validate(segments, file.getName());
+        return segments;
+    }
+
+    /**
+     * Parse a track in text form.
+     *
+     * @param name name of the track in error messages
+     */
+    static RoadSegment[] parseText(String text, String name) throws IOException {
+        List<RoadSegment> segments = new ArrayList<RoadSegment>();
+        BufferedReader in = new BufferedReader(new StringReader(text));
+        int lineNr = 0;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lineNr++;
+            int comment = line.indexOf('#');
+            String[] words = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            int points;
+            if (words[0].equals("bezier")) {
+                points = 4;
+            } else if (words[0].equals("straight")) {
+                points = 2;
+            } else {
+                throw new IOException(name + ":" + lineNr + ": unknown segment type '" + words[0] + "'");
+            }
+            if (words.length != 2 + points * 3) {
+                throw new IOException(name + ":" + lineNr + ": a " + words[0] + " segment takes " + points
+                        + " points and a resolution");
+            }
+
+            Vector[] p = new Vector[points];
+            int resolution;
+            try {
+                for (int i = 0; i < points; i++) {
+                    p[i] = new Vector(Double.parseDouble(words[1 + i * 3]), Double.parseDouble(words[2 + i * 3]),
+                            Double.parseDouble(words[3 + i * 3]));
+                }
+                resolution = Integer.parseInt(words[words.length - 1]);
+            } catch (NumberFormatException e) {
+                throw new IOException(name + ":" + lineNr + ": " + e.getMessage());
+            }
+            if (resolution < 1) {
+                throw new IOException(name + ":" + lineNr + ": the resolution must be positive");
+            }
+            segments.add(points == 4 ? new BezierRoadSegment(p[0], p[1], p[2], p[3], resolution)
+                    : new StraightRoadSegment(p[0], p[1], resolution));
+        }
+        return segments.toArray(new RoadSegment[segments.size()]);
+    }
+
+    /**
+     * Write a track in text form, with every number written exactly.
+     */
+    static void writeText(RoadSegment[] segments, File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("# bezier   x0 y0 z0  x1 y1 z1  x2 y2 z2  x3 y3 z3  resolution");
+            out.println("# straight x0 y0 z0  x1 y1 z1  resolution");
+            for (RoadSegment segment : segments) {
+                StringBuilder line = new StringBuilder();
+                if (segment instanceof BezierRoadSegment) {
+                    line.append("bezier  ");
+                    for (Vector p : ((BezierRoadSegment) segment).getControlPoints()) {
+                        appendPoint(line, p);
+                    }
+                    line.append(' ').append(((BezierRoadSegment) segment).getResolution());
+                } else {
+                    StraightRoadSegment straight = (StraightRoadSegment) segment;
+                    line.append("straight");
+                    appendPoint(line, straight.startPoint);
+                    appendPoint(line, straight.endPoint);
+                    line.append(' ').append(straight.resolution);
+                }
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    private static void appendPoint(StringBuilder line, Vector p) {
+        line.append("  ").append(p.x()).append(' ').append(p.y()).append(' ').append(p.z());
+    }
+
+    /**
+     * Parse a track in binary form.
+     *
+     * @param layout the lane layout the track will be used with
+     * @param name name of the track in error messages
+     */
+    static RoadSegment[] readBinary(ByteBuffer buffer, LaneLayout layout, String name) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(name + " is not a binary track of version " + VERSION);
+            }
+            int lanes = buffer.getInt();
+            double laneWidth = buffer.getDouble();
+            int count = buffer.getInt();
+            // Everything read is checked against what the file can hold before anything is allocated with it, such
+            // that a damaged file is reported rather than running out of memory.
+            if (lanes < 1 || !(laneWidth > 0)) {
+                throw new IOException(name + " has an invalid lane layout: " + lanes + " lanes of " + laneWidth + " m");
+            }
+            if (count < 0 || (long) count * STRAIGHT_SIZE > buffer.remaining()) {
+                throw new IOException(name + " is damaged: " + count + " segments do not fit in the file");
+            }
+            boolean useTables = layout.equals(new LaneLayout(lanes, laneWidth));
+
+            RoadSegment[] segments = new RoadSegment[count];
+            for (int i = 0; i < count; i++) {
+                byte type = buffer.get();
+                int resolution = buffer.getInt();
+                if (resolution < 1 || (type != STRAIGHT && type != BEZIER)) {
+                    throw new IOException(name + ": segment " + i + " is damaged");
+                }
+                if (type == BEZIER && 4 * 24 + 8L * lanes * (resolution + 1L) > buffer.remaining()) {
+                    throw new IOException(name + ": the table of segment " + i + " does not fit in the file");
+                }
+                if (type == BEZIER) {
+                    BezierRoadSegment bezier = new BezierRoadSegment(getVector(buffer), getVector(buffer),
+                            getVector(buffer), getVector(buffer), resolution);
+                    if (useTables) {
+                        bezier.setArcLengths(layout, ArcLengthTable.get(buffer, lanes, resolution));
+                    } else {
+                        buffer.position(buffer.position() + ArcLengthTable.size(lanes, resolution));
+                    }
+                    segments[i] = bezier;
+                } else {
+                    segments[i] = new StraightRoadSegment(getVector(buffer), getVector(buffer), resolution);
+                }
+            }
+            return segments;
+        } catch (RuntimeException e) {
+            // A truncated or corrupt file makes the buffer underflow or the layout invalid.
+            throw new IOException(name + " is damaged", e);
+        }
+    }
+
+    /**
+     * Write a track in binary form, with the arc length tables of its curved segments for the given lane layout.
+     */
+    static void writeBinary(RoadSegment[] segments, LaneLayout layout, File file) throws IOException {
+        int size = HEADER_SIZE;
+        for (RoadSegment segment : segments) {
+            segment.prepare(layout);
+            if (segment instanceof BezierRoadSegment) {
+                size += BEZIER_SIZE + ArcLengthTable.size(layout.lanes, ((BezierRoadSegment) segment).getResolution());
+            } else {
+                size += STRAIGHT_SIZE;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(layout.lanes);
+        buffer.putDouble(layout.laneWidth);
+        buffer.putInt(segments.length);
+        for (RoadSegment segment : segments) {
+            if (segment instanceof BezierRoadSegment) {
+                BezierRoadSegment bezier = (BezierRoadSegment) segment;
+                buffer.put(BEZIER);
+                buffer.putInt(bezier.getResolution());
+                for (Vector p : bezier.getControlPoints()) {
+                    putVector(buffer, p);
+                }
+                bezier.getArcLengths().put(buffer);
+            } else {
+                StraightRoadSegment straight = (StraightRoadSegment) segment;
+                buffer.put(STRAIGHT);
+                buffer.putInt(straight.resolution);
+                putVector(buffer, straight.startPoint);
+                putVector(buffer, straight.endPoint);
+            }
+        }
+
+        buffer.flip();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Check that a track is closed and smooth: every segment, including the first after the last, starts where the
+     * one before it ends, in the same direction. Only the direction has to be the same, not the length of the
+     * derivative, as the robots move by distance rather than by the parameter of a segment.
+     *
+     * @param name name of the track in error messages
+     */
+    static void validate(RoadSegment[] segments, String name) throws IOException {
+        if (segments.length == 0) {
+            throw new IOException(name + " holds no segments");
+        }
+        for (int i = 0; i < segments.length; i++) {
+            RoadSegment segment = segments[i];
+            if (!(segment.getStartDirection().length() > 0) || !(segment.getEndDirection().length() > 0)) {
+                throw new IOException(name + ": segment " + (i + 1) + " has no direction at one of its ends");
+            }
+            RoadSegment next = segments[(i + 1) % segments.length];
+            double gap = next.getStartPoint().subtract(segment.getEndPoint()).length();
+            if (gap > POSITION_TOLERANCE) {
+                throw new IOException(String.format("%s: segment %d starts %.6f m away from the end of segment %d",
+                        name, (i + 1) % segments.length + 1, gap, i + 1));
+            }
+            double cos = segment.getEndDirection().normalized().dot(next.getStartDirection().normalized());
+            double angle = Math.acos(Math.max(-1, Math.min(1, cos)));
+            if (angle > ANGLE_TOLERANCE) {
+                throw new IOException(String.format("%s: segment %d turns %.3f degrees from the end of segment %d",
+                        name, (i + 1) % segments.length + 1, Math.toDegrees(angle), i + 1));
+            }
+        }
+    }
+
+    private static Vector getVector(ByteBuffer buffer) {
+        return new Vector(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
+
+    private static void putVector(ByteBuffer buffer, Vector v) {
+        buffer.putDouble(v.x());
+        buffer.putDouble(v.y());
+        buffer.putDouble(v.z());
+    }
+}
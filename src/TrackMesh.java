@@ -0,0 +1,417 @@
+import robotrace.Vector;
+
+import javax.media.opengl.GL2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static javax.media.opengl.GL2.*;
+
+/**
+ * The track as one indexed triangle mesh, built from the cross-sections of a TrackTessellation.
+ *
+ * Every cut of the track is turned into a ring once: the direction to the left, the normal, both edges and the height
+ * of the terrain under the edges and across the lanes. Each cross-section then connects the columns of vertices of its
+ * two rings: a column of two wall vertices on each edge, and three vertices across every lane, on its borders and its
+ * middle, for the top of the road and for its underside. A column is shared with the cross-section before when both use
+ * the same ring and the texture runs on without restarting, so apart from where a texture restarts every vertex is
+ * computed and stored once instead of twice. The border between two lanes keeps a vertex for each lane, as the texture
+ * of each lane runs with the distance along its own middle.
+ * <p/>
+ * The walls and the road of each piece are each drawn with a single glDrawElements call, all lanes at once. The
+ * triangles of every piece are kept together, such that a piece can be drawn, or culled, on its own. The texture and
+ * colour are left to the caller, which sets them once for all pieces.
+ * <p/>
+ * Only what is above the terrain is generated. A wall runs from the road down to the terrain, at most WALL_DEPTH, and
+ * is left out where the road lies below the terrain; the underside of a lane is left out where it lies below the
+ * terrain. The terrain is only sampled at the rings, and between two rings it may dip below the straight line between
+ * the samples, by at most Terrain.MAX_CURVATURE * L^2 / 8 over a span of length L. The terrain is therefore taken that
+ * much lower at each ring, for the longest span next to it, such that no gap opens up under a wall.
+ */
+class TrackMesh {
+    // Number of lanes in the track texture, which is repeated across tracks with more lanes.
+    static final int TEXTURE_LANES = 4;
+    // The walls go down at most this far below the road, and the underside lies this far below the road.
+    static final double WALL_DEPTH = 2;
+    static final double UNDERSIDE_DEPTH = 2;
+
+    // Columns of vertices in a ring: both walls, then the top and the underside of every lane.
+    private static final int LEFT_WALL = 0;
+    private static final int RIGHT_WALL = 1;
+    private static final int FIRST_LANE = 2;
+
+    // Interleaved vertex data, per vertex three floats of position, three of normal and two of texture coordinates.
+    static final int FLOATS_PER_VERTEX = 8;
+
+    final FloatBuffer vertices;
+    final IntBuffer wallIndices;
+    final IntBuffer roadIndices;
+    // Where the indices of every piece start, with the total number of indices at the end.
+    private final int[] wallStarts;
+    private final int[] roadStarts;
+
+    private TrackMesh(FloatBuffer vertices, IntBuffer wallIndices, IntBuffer roadIndices, int[] wallStarts,
+                      int[] roadStarts) {
+        this.vertices = vertices;
+        this.wallIndices = wallIndices;
+        this.roadIndices = roadIndices;
+        this.wallStarts = wallStarts;
+        this.roadStarts = roadStarts;
+    }
+
+    /**
+     * @return the number of pieces.
+     */
+    int pieces() {
+        return wallStarts.length - 1;
+    }
+
+    /**
+     * @return the number of vertices in the mesh.
+     */
+    int vertexCount() {
+        return vertices.limit() / FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * @return per piece the box around its triangles, as minimum x, y and z followed by maximum x, y and z.
+     */
+    double[] bounds() {
+        double[] bounds = new double[pieces() * 6];
+        for (int p = 0; p < pieces(); p++) {
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[p * 6 + axis] = Double.POSITIVE_INFINITY;
+                bounds[p * 6 + 3 + axis] = Double.NEGATIVE_INFINITY;
+            }
+            include(bounds, p, wallIndices, wallStarts[p], wallStarts[p + 1]);
+            include(bounds, p, roadIndices, roadStarts[p], roadStarts[p + 1]);
+        }
+        return bounds;
+    }
+
+    private void include(double[] bounds, int piece, IntBuffer indices, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int vertex = indices.get(i) * FLOATS_PER_VERTEX;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[piece * 6 + axis] = Math.min(bounds[piece * 6 + axis], vertices.get(vertex + axis));
+                bounds[piece * 6 + 3 + axis] = Math.max(bounds[piece * 6 + 3 + axis], vertices.get(vertex + axis));
+            }
+        }
+    }
+
+    /**
+     * A cut of the track, with what every cross-section starting or ending there needs of it.
+     */
+    private static class Ring {
+        final Vector point;
+        final Vector toLeft;
+        final Vector normal;
+        final Vector leftEdge;
+        final Vector rightEdge;
+        // The height of the terrain under the edges, and under the borders and middles of the lanes from left to right:
+        // index 2 * lane is the left border of a lane, 2 * lane + 1 its middle.
+        final float leftGround;
+        final float rightGround;
+        final float[] laneGround;
+        // How much lower than sampled the terrain is taken, for the longest span of the track next to the ring.
+        double margin;
+
+        Ring(Vector point, Vector tangent, LaneLayout layout) {
+            this.point = point;
+            toLeft = Vector.Z.cross(tangent).normalized();
+            normal = tangent.cross(toLeft).normalized();
+            leftEdge = point.add(toLeft.scale(layout.width() / 2.0));
+            rightEdge = point.add(toLeft.scale(-layout.width() / 2.0));
+            leftGround = ground(leftEdge);
+            rightGround = ground(rightEdge);
+            laneGround = new float[2 * layout.lanes + 1];
+            for (int i = 0; i < laneGround.length; i++) {
+                double offset = i % 2 == 0 ? layout.borderOffset(i / 2) : layout.offset(i / 2);
+                laneGround[i] = ground(point.add(toLeft.scale(offset)));
+            }
+        }
+
+        private static float ground(Vector position) {
+            return Terrain.heightAt((float) position.x(), (float) position.y());
+        }
+
+        // Two pieces join at a ring if the second starts where the first ends, in the same direction.
+        boolean joins(Ring other) {
+            return point.subtract(other.point).length() < 1e-9 && toLeft.subtract(other.toLeft).length() < 1e-9;
+        }
+
+        /**
+         * Widen the margin for a span of the track of the given length next to the ring.
+         */
+        void span(double length) {
+            margin = Math.max(margin, Terrain.MAX_CURVATURE * length * length / 8);
+        }
+
+        /**
+         * @return how far the wall on the given edge goes down, from the road to the terrain, at most WALL_DEPTH.
+         */
+        double wallDepth(boolean left) {
+            double top = left ? leftEdge.z() : rightEdge.z();
+            double ground = (left ? leftGround : rightGround) - margin;
+            return Math.max(0, Math.min(WALL_DEPTH, top - ground));
+        }
+
+        /**
+         * @return whether the underside is above the terrain at any of the vertices of a lane.
+         */
+        boolean undersideVisible(int lane) {
+            double underside = point.z() - UNDERSIDE_DEPTH;
+            for (int i = 2 * lane; i <= 2 * lane + 2; i++) {
+                if (underside > laneGround[i] - margin) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Build the mesh of a track.
+     */
+    static TrackMesh build(TrackTessellation tessellation) {
+        LaneLayout layout = tessellation.layout;
+        int n = tessellation.crossSections;
+
+        // The rings at the start and the end of every cross-section; consecutive cross-sections share a ring when
+        // they are in the same piece, or in pieces that join.
+        Ring[] firstRing = new Ring[n];
+        Ring[] secondRing = new Ring[n];
+        Ring previous = null;
+        for (int p = 0; p < tessellation.pieces.length; p++) {
+            TrackTessellation.Piece piece = tessellation.pieces[p];
+            Ring ring = new Ring(piece.points[0], piece.tangents[0], layout);
+            if (previous != null && previous.joins(ring)) {
+                ring = previous;
+            }
+            for (int i = 0; i < piece.crossSections(); i++) {
+                int c = tessellation.pieceStarts[p] + i;
+                firstRing[c] = ring;
+                ring = new Ring(piece.points[i + 1], piece.tangents[i + 1], layout);
+                secondRing[c] = ring;
+            }
+            previous = ring;
+        }
+
+        // The terrain between two rings may lie lower than at either, by an amount that grows with the longest span
+        // along the edges of the cross-section.
+        for (int c = 0; c < n; c++) {
+            double length = Math.max(secondRing[c].leftEdge.subtract(firstRing[c].leftEdge).length(),
+                    secondRing[c].rightEdge.subtract(firstRing[c].rightEdge).length());
+            firstRing[c].span(length);
+            secondRing[c].span(length);
+        }
+
+        Builder builder = new Builder();
+        int columns = FIRST_LANE + 2 * layout.lanes;
+        // The column every cross-section ends with, which the next cross-section may start with, -1 if none.
+        int[] previousEnd = new int[columns];
+        java.util.Arrays.fill(previousEnd, -1);
+        int pieces = tessellation.pieces.length;
+        int[] wallStarts = new int[pieces + 1];
+        int[] roadStarts = new int[pieces + 1];
+        int piece = 0;
+        for (int c = 0; c < n; c++) {
+            while (piece < pieces && tessellation.pieceStarts[piece] == c) {
+                wallStarts[piece] = builder.wallIndices.size;
+                roadStarts[piece] = builder.roadIndices.size;
+                piece++;
+            }
+            Ring first = firstRing[c];
+            Ring second = secondRing[c];
+            boolean joined = c > 0 && secondRing[c - 1] == first;
+
+            // The walls, where the road is above the terrain at either end.
+            for (int wall = LEFT_WALL; wall <= RIGHT_WALL; wall++) {
+                boolean left = wall == LEFT_WALL;
+                if (first.wallDepth(left) == 0 && second.wallDepth(left) == 0) {
+                    previousEnd[wall] = -1;
+                    continue;
+                }
+                int line = left ? TrackTessellation.LEFT_EDGE : TrackTessellation.RIGHT_EDGE;
+                double texFirst = tessellation.texFirst[line][c];
+                boolean shared = joined && previousEnd[wall] >= 0 && tessellation.texSecond[line][c - 1] == texFirst;
+                int start = shared ? previousEnd[wall] : builder.wall(first, left, texFirst);
+                int end = builder.wall(second, left, tessellation.texSecond[line][c]);
+                builder.connect(builder.wallIndices, start, end, 1);
+                previousEnd[wall] = end;
+            }
+
+            // The top and underside of the road, lane by lane.
+            for (int lane = 0; lane < layout.lanes; lane++) {
+                boolean underside = first.undersideVisible(lane) || second.undersideVisible(lane);
+                int line = TrackTessellation.FIRST_LANE + lane;
+                double texFirst = tessellation.texFirst[line][c];
+                double texSecond = tessellation.texSecond[line][c];
+                boolean shared = joined && tessellation.texSecond[line][c - 1] == texFirst;
+                for (int side = 0; side < 2; side++) {
+                    int column = FIRST_LANE + 2 * lane + side;
+                    if (side == 1 && !underside) {
+                        previousEnd[column] = -1;
+                        continue;
+                    }
+                    int start = shared && previousEnd[column] >= 0 ? previousEnd[column]
+                            : builder.lane(layout, first, lane, side == 1, texFirst);
+                    int end = builder.lane(layout, second, lane, side == 1, texSecond);
+                    builder.connect(builder.roadIndices, start, end, 2);
+                    previousEnd[column] = end;
+                }
+            }
+        }
+        for (; piece <= pieces; piece++) {
+            wallStarts[piece] = builder.wallIndices.size;
+            roadStarts[piece] = builder.roadIndices.size;
+        }
+        return builder.toMesh(wallStarts, roadStarts);
+    }
+
+    /**
+     * Draw the walls of one piece of the mesh. Only the geometry is drawn, such that the brick texture can be bound
+     * once for the walls of all pieces. The vertices are passed as client-side arrays, which a display list copies
+     * when it is compiled.
+     */
+    void drawWalls(GL2 gl, int piece) {
+        drawElements(gl, wallIndices, wallStarts[piece], wallStarts[piece + 1]);
+    }
+
+    /**
+     * Draw the road of one piece of the mesh, like drawWalls, for the track texture.
+     */
+    void drawRoad(GL2 gl, int piece) {
+        drawElements(gl, roadIndices, roadStarts[piece], roadStarts[piece + 1]);
+    }
+
+    private void drawElements(GL2 gl, IntBuffer indices, int from, int to) {
+        gl.glEnableClientState(GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL_TEXTURE_COORD_ARRAY);
+        int stride = FLOATS_PER_VERTEX * 4;
+        vertices.position(0);
+        gl.glVertexPointer(3, GL_FLOAT, stride, vertices);
+        vertices.position(3);
+        gl.glNormalPointer(GL_FLOAT, stride, vertices);
+        vertices.position(6);
+        gl.glTexCoordPointer(2, GL_FLOAT, stride, vertices);
+        vertices.position(0);
+
+        gl.glDrawElements(GL_TRIANGLES, to - from, GL_UNSIGNED_INT, range(indices, from, to));
+
+        gl.glDisableClientState(GL_TEXTURE_COORD_ARRAY);
+        gl.glDisableClientState(GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL_VERTEX_ARRAY);
+    }
+
+    // A view of part of an index buffer.
+    private static IntBuffer range(IntBuffer indices, int from, int to) {
+        IntBuffer range = indices.duplicate();
+        range.position(from).limit(to);
+        return range.slice();
+    }
+
+    /**
+     * Growing vertex and index arrays, turned into direct buffers for OpenGL once the mesh is complete.
+     */
+    private static class Builder {
+        private float[] vertices = new float[1024 * FLOATS_PER_VERTEX];
+        private int vertexFloats;
+        final Indices wallIndices = new Indices();
+        final Indices roadIndices = new Indices();
+
+        /**
+         * Add a vertex.
+         * @return its index.
+         */
+        int vertex(Vector position, double dz, Vector normal, double sign, double s, double t) {
+            if (vertexFloats + FLOATS_PER_VERTEX > vertices.length) {
+                vertices = java.util.Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            int index = vertexFloats / FLOATS_PER_VERTEX;
+            vertices[vertexFloats++] = (float) position.x();
+            vertices[vertexFloats++] = (float) position.y();
+            vertices[vertexFloats++] = (float) (position.z() + dz);
+            vertices[vertexFloats++] = (float) (sign * normal.x());
+            vertices[vertexFloats++] = (float) (sign * normal.y());
+            vertices[vertexFloats++] = (float) (sign * normal.z());
+            vertices[vertexFloats++] = (float) s;
+            vertices[vertexFloats++] = (float) t;
+            return index;
+        }
+
+        /**
+         * Add the two vertices of a wall, at the road and down at the terrain, facing away from the road.
+         * @return the index of the top vertex.
+         */
+        int wall(Ring ring, boolean left, double t) {
+            Vector edge = left ? ring.leftEdge : ring.rightEdge;
+            double depth = ring.wallDepth(left);
+            //The brick texture runs across the wall from 1 at the road to 0 at WALL_DEPTH below it.
+            int top = vertex(edge, 0, ring.toLeft, left ? 1 : -1, 1, t);
+            vertex(edge, -depth, ring.toLeft, left ? 1 : -1, 1 - depth / WALL_DEPTH, t);
+            return top;
+        }
+
+        /**
+         * Add the three vertices across a lane: on its left border, on its middle and on its right border.
+         * @return the index of the first.
+         */
+        int lane(LaneLayout layout, Ring ring, int lane, boolean underside, double t) {
+            //The texture holds TEXTURE_LANES lanes side by side, which are repeated for tracks with more lanes.
+            double texLane = (double) (lane % TEXTURE_LANES) / TEXTURE_LANES;
+            double dz = underside ? -UNDERSIDE_DEPTH : 0;
+            double sign = underside ? -1 : 1;
+            int start = vertex(ring.point.add(ring.toLeft.scale(layout.borderOffset(lane))), dz, ring.normal, sign,
+                    texLane, t);
+            vertex(ring.point.add(ring.toLeft.scale(layout.offset(lane))), dz, ring.normal, sign, texLane + 0.125, t);
+            vertex(ring.point.add(ring.toLeft.scale(layout.borderOffset(lane + 1))), dz, ring.normal, sign,
+                    texLane + 0.25, t);
+            return start;
+        }
+
+        /**
+         * Connect two columns with quads of two triangles each, in the order a triangle strip from the first column to
+         * the second would have.
+         */
+        void connect(Indices indices, int first, int second, int quads) {
+            for (int k = 0; k < quads; k++) {
+                indices.add(first + k, second + k, first + k + 1);
+                indices.add(first + k + 1, second + k, second + k + 1);
+            }
+        }
+
+        TrackMesh toMesh(int[] wallStarts, int[] roadStarts) {
+            FloatBuffer vertexBuffer = ByteBuffer.allocateDirect(vertexFloats * 4).order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            vertexBuffer.put(vertices, 0, vertexFloats).flip();
+            return new TrackMesh(vertexBuffer, wallIndices.toBuffer(), roadIndices.toBuffer(), wallStarts, roadStarts);
+        }
+    }
+
+    /**
+     * A growing list of triangle indices.
+     */
+    private static class Indices {
+        private int[] values = new int[1024];
+        int size;
+
+        void add(int a, int b, int c) {
+            if (size + 3 > values.length) {
+                values = java.util.Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = a;
+            values[size++] = b;
+            values[size++] = c;
+        }
+
+        IntBuffer toBuffer() {
+            IntBuffer buffer = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            buffer.put(values, 0, size).flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import robotrace.Vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The cross-sections a whole track is drawn with, and the texture coordinates of each, computed before anything is
+ * drawn such that the work can be spread over all cores.
+ *
+ * The texture coordinates along the track follow from the distance travelled since the start of the track, on the
+ * edges and on the middle of each lane, which is the only thing that ties one segment to the next. So every segment is
+ * cut into cross-sections and the length of each cross-section is measured on its own, in parallel, after which the
+ * distances since the start of the track are a prefix sum over the lengths of all cross-sections, which
+ * Arrays.parallelPrefix computes on all cores as well.
+ * <p/>
+ * A texture is restarted at the start of each cross-section in which the distance passes a multiple of the texture's
+ * period, e.g. every 10 meters for the distance markers on the road. The texture coordinate of a cross-section then
+ * runs from the distance since the last restart: the last restart is the largest restart distance up to the
+ * cross-section, another prefix, with max instead of plus. The period is the length of the texture minus the longest
+ * cross-section, such that a texture coordinate never runs past the end of the texture.
+ */
+class TrackTessellation {
+    // The lines along the track on which distances are measured: both edges, then the middle of every lane.
+    static final int LEFT_EDGE = 0;
+    static final int RIGHT_EDGE = 1;
+    static final int FIRST_LANE = 2;
+
+    // Length in meters of the road texture and of the brick texture of the walls.
+    static final double ROAD_TEXTURE_LENGTH = 12;
+    static final double WALL_TEXTURE_LENGTH = 8;
+
+    /**
+     * The cuts of one segment: the points on the centre line at which it is cut into cross-sections, and the
+     * direction of the track at each.
+     */
+    static class Piece {
+        final Vector[] points;
+        final Vector[] tangents;
+        // The length of every cross-section on every line, first index the line; measured while tessellating.
+        double[][] lengths;
+
+        Piece(Vector[] points, Vector[] tangents) {
+            this.points = points;
+            this.tangents = tangents;
+        }
+
+        /**
+         * @param ts values of t at which to cut the curve, in increasing order
+         */
+        static Piece of(Tessellator.Curve curve, double[] ts) {
+            Vector[] points = new Vector[ts.length];
+            Vector[] tangents = new Vector[ts.length];
+            for (int i = 0; i < ts.length; i++) {
+                points[i] = curve.point(ts[i]);
+                tangents[i] = curve.tangent(ts[i]);
+            }
+            return new Piece(points, tangents);
+        }
+
+        int crossSections() {
+            return points.length - 1;
+        }
+    }
+
+    final LaneLayout layout;
+    final Piece[] pieces;
+    // Number of cross-sections over all pieces; cross-section c of the track is cross-section c - pieceStarts[p] of
+    // piece p.
+    final int crossSections;
+    final int[] pieceStarts;
+
+    // Texture coordinates along the track at the start and at the end of every cross-section, per line.
+    final double[][] texFirst;
+    final double[][] texSecond;
+
+    private TrackTessellation(LaneLayout layout, Piece[] pieces, double[][] lengths, int[] pieceStarts,
+                              int crossSections) {
+        this.layout = layout;
+        this.pieces = pieces;
+        this.pieceStarts = pieceStarts;
+        this.crossSections = crossSections;
+        int lines = lengths.length;
+        texFirst = new double[lines][];
+        texSecond = new double[lines][];
+        for (int line = 0; line < lines; line++) {
+            boolean road = line >= FIRST_LANE;
+            double textureLength = road ? ROAD_TEXTURE_LENGTH : WALL_TEXTURE_LENGTH;
+            texFirst[line] = new double[crossSections];
+            texSecond[line] = new double[crossSections];
+            textureCoordinates(lengths[line], textureLength, textureLength - Tessellator.MAX_LENGTH, texFirst[line],
+                    texSecond[line]);
+        }
+    }
+
+    /**
+     * Cut every piece into cross-sections and compute their texture coordinates, in parallel.
+     *
+     * @param tasks one task per piece, in the order of the track, each returning the cuts of its piece
+     */
+    static TrackTessellation build(LaneLayout layout, List<Callable<Piece>> tasks) {
+        final LaneLayout lanes = layout;
+        List<Callable<Piece>> measurements = new ArrayList<Callable<Piece>>();
+        for (final Callable<Piece> task : tasks) {
+            measurements.add(new Callable<Piece>() {
+                @Override
+                public Piece call() throws Exception {
+                    Piece piece = task.call();
+                    piece.lengths = measure(piece, lanes);
+                    return piece;
+                }
+            });
+        }
+
+        Piece[] pieces = new Piece[tasks.size()];
+        try {
+            List<Future<Piece>> results = ForkJoinPool.commonPool().invokeAll(measurements);
+            for (int i = 0; i < pieces.length; i++) {
+                pieces[i] = results.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while tessellating the track", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to tessellate the track", e.getCause());
+        }
+
+        // Lay the lengths of all pieces out along the whole track.
+        int[] pieceStarts = new int[pieces.length];
+        int crossSections = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            pieceStarts[i] = crossSections;
+            crossSections += pieces[i].crossSections();
+        }
+        int lines = FIRST_LANE + layout.lanes;
+        double[][] lengths = new double[lines][crossSections];
+        for (int i = 0; i < pieces.length; i++) {
+            for (int line = 0; line < lines; line++) {
+                System.arraycopy(pieces[i].lengths[line], 0, lengths[line], pieceStarts[i], pieces[i].crossSections());
+            }
+        }
+        return new TrackTessellation(layout, pieces, lengths, pieceStarts, crossSections);
+    }
+
+    /**
+     * @return the length of every cross-section of the piece on every line.
+     */
+    private static double[][] measure(Piece piece, LaneLayout layout) {
+        int lines = FIRST_LANE + layout.lanes;
+        double[] offsets = new double[lines];
+        offsets[LEFT_EDGE] = layout.width() / 2.0;
+        offsets[RIGHT_EDGE] = -layout.width() / 2.0;
+        for (int lane = 0; lane < layout.lanes; lane++) {
+            offsets[FIRST_LANE + lane] = layout.offset(lane);
+        }
+
+        double[][] lengths = new double[lines][piece.crossSections()];
+        Vec3 firstToLeft = new Vec3();
+        Vec3 secondToLeft = toLeft(piece.tangents[0], new Vec3());
+        Vec3 first = new Vec3();
+        Vec3 second = new Vec3();
+        for (int i = 0; i < piece.crossSections(); i++) {
+            Vec3 swap = firstToLeft;
+            firstToLeft = secondToLeft;
+            secondToLeft = toLeft(piece.tangents[i + 1], swap);
+            for (int line = 0; line < lines; line++) {
+                first.set(piece.points[i]).addScaled(firstToLeft, offsets[line]);
+                second.set(piece.points[i + 1]).addScaled(secondToLeft, offsets[line]);
+                lengths[line][i] = second.subtract(first).length();
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * @return out, set to the unit vector pointing to the left of the tangent.
+     */
+    private static Vec3 toLeft(Vector tangent, Vec3 out) {
+        return out.set(tangent).cross(Vector.Z, out).normalize();
+    }
+
+    /**
+     * Compute the texture coordinates of every cross-section on one line, with two parallel prefixes: the distance
+     * since the start of the track, and the distance at which the texture was last restarted.
+     *
+     * @param lengths length of each cross-section on the line
+     * @param textureLength length in meters covered by the texture
+     * @param period distance in meters after which the texture is restarted
+     */
+    private static void textureCoordinates(double[] lengths, double textureLength, final double period,
+                                           double[] first, double[] second) {
+        int n = lengths.length;
+        // The distance since the start of the track at the end of each cross-section.
+        final double[] ends = lengths.clone();
+        java.util.Arrays.parallelPrefix(ends, new java.util.function.DoubleBinaryOperator() {
+            @Override
+            public double applyAsDouble(double left, double right) {
+                return left + right;
+            }
+        });
+
+        // The distance at the start of each cross-section at which the texture restarts, -infinity if it does not.
+        final double[] restarts = new double[n];
+        java.util.Arrays.parallelSetAll(restarts, new java.util.function.IntToDoubleFunction() {
+            @Override
+            public double applyAsDouble(int c) {
+                double start = c > 0 ? ends[c - 1] : 0;
+                return c == 0 || Math.floor(ends[c] / period) > Math.floor(start / period) ? start
+                        : Double.NEGATIVE_INFINITY;
+            }
+        });
+        java.util.Arrays.parallelPrefix(restarts, new java.util.function.DoubleBinaryOperator() {
+            @Override
+            public double applyAsDouble(double left, double right) {
+                return Math.max(left, right);
+            }
+        });
+
+        final double scale = 1 / textureLength;
+        java.util.Arrays.parallelSetAll(first, new java.util.function.IntToDoubleFunction() {
+            @Override
+            public double applyAsDouble(int c) {
+                return ((c > 0 ? ends[c - 1] : 0) - restarts[c]) * scale;
+            }
+        });
+        java.util.Arrays.parallelSetAll(second, new java.util.function.IntToDoubleFunction() {
+            @Override
+            public double applyAsDouble(int c) {
+                return (ends[c] - restarts[c]) * scale;
+            }
+        });
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Lets robots overtake slower robots by changing lanes, and keeps them from running into the robot ahead when they
+ * cannot.
+ *
+ * Before every tick all robots are placed on a common scale: the distance along a reference lane up to the cross-section
+ * they are at, within the lap. Sorting the robots by it gives their order around the track, from which one pass
+ * backwards and one pass forwards find, for every robot and every lane, the nearest robot ahead and behind in that lane.
+ * The gaps between robots are then differences on that scale, measured along the track rather than in a straight line.
+ * <p/>
+ * A robot closing in on a slower robot within OVERTAKE_GAP moves to a neighbouring lane with CLEARANCE ahead and behind,
+ * and returns towards its own lane once that is clear again. A robot that cannot overtake slows down to the speed of
+ * the robot ahead once within MIN_GAP. A robot changing lanes occupies both lanes until it is fully over.
+ * <p/>
+ * Per tick this costs a sort, O(n log n), plus O(n * lanes) for the passes and decisions, and allocates nothing.
+ */
+class Traffic {
+    // Gap in meters at which a robot starts to overtake a slower robot ahead.
+    static final double OVERTAKE_GAP = 3;
+    // Gap in meters a robot keeps to the robot ahead in its lane when it cannot overtake.
+    static final double MIN_GAP = 1;
+    // Free space in meters needed ahead of and behind a robot in the lane it moves to.
+    static final double CLEARANCE = 2;
+
+    // The lane all positions are converted to.
+    private static final int REFERENCE_LANE = 0;
+
+    private final int robotCount;
+    private final int lanes;
+
+    // Position of each robot on the reference lane within the lap, in meters, and the length of that lap.
+    private final double[] keys;
+    private double lapLength;
+    // The robots sorted by key, each packed as the key scaled to an int in the upper half and its index in the lower.
+    private final long[] order;
+    // For each robot and lane, the nearest robot ahead and behind in that lane, or -1 if there is none.
+    private final int[] ahead;
+    private final int[] behind;
+    private final int[] lastSeen;
+
+    // Keys at which robots started moving into each lane during the current tick, to not let two of them move into
+    // the same gap.
+    private final double[] entries;
+    private final int[] entryCounts;
+
+    Traffic(int robotCount, int lanes) {
+        this.robotCount = robotCount;
+        this.lanes = lanes;
+        keys = new double[robotCount];
+        order = new long[robotCount];
+        ahead = new int[robotCount * lanes];
+        behind = new int[robotCount * lanes];
+        lastSeen = new int[lanes];
+        entries = new double[lanes * robotCount];
+        entryCounts = new int[lanes];
+    }
+
+    /**
+     * Decide which robots change lanes and which have to slow down during the next tick.
+     *
+     * @param robots the robots, before they are moved
+     * @param track the track they are running on
+     */
+    void update(Robot[] robots, RaceTrack track) {
+        lapLength = track.getLaneLength(REFERENCE_LANE);
+        for (int i = 0; i < robotCount; i++) {
+            Robot robot = robots[i];
+            double laneLength = track.getLaneLength(robot.getLane());
+            double s = robot.distCovered - Math.floor(robot.distCovered / laneLength) * laneLength;
+            keys[i] = track.convertDistance(s, robot.getLane(), REFERENCE_LANE);
+            long scaled = (long) (keys[i] / lapLength * Integer.MAX_VALUE);
+            order[i] = (scaled << 32) | i;
+        }
+        java.util.Arrays.sort(order);
+        findNeighbours(robots);
+
+        java.util.Arrays.fill(entryCounts, 0);
+        for (int i = 0; i < robotCount; i++) {
+            Robot robot = robots[i];
+            int lane = robot.getLane();
+            int next = ahead[i * lanes + lane];
+            robot.speedLimit = Double.POSITIVE_INFINITY;
+
+            if (!robot.isChangingLane()) {
+                // Compare with the speed the robot would run at if nothing were in its way.
+                double freeSpeed = Robot.speed(robot.baseSpeed, robot.inclinationFactor, robot.inclination);
+                if (next >= 0 && gap(i, next) < OVERTAKE_GAP && robots[next].speed < freeSpeed) {
+                    // Overtake on the side with the most room.
+                    int target = -1;
+                    double room = -1;
+                    for (int side = lane - 1; side <= lane + 1; side += 2) {
+                        if (isClear(i, side) && roomAhead(i, side) > room) {
+                            target = side;
+                            room = roomAhead(i, side);
+                        }
+                    }
+                    if (target >= 0) {
+                        moveTo(robot, i, target);
+                        continue;
+                    }
+                } else if (lane != robot.getStartLane()) {
+                    // Return towards the robot's own lane once there is room to stay there for a while.
+                    int side = lane < robot.getStartLane() ? lane + 1 : lane - 1;
+                    if (isClear(i, side) && roomAhead(i, side) >= OVERTAKE_GAP) {
+                        moveTo(robot, i, side);
+                        continue;
+                    }
+                }
+            }
+
+            // Keep the distance to the robot ahead.
+            if (next >= 0 && gap(i, next) < MIN_GAP) {
+                robot.speedLimit = robots[next].speed;
+            }
+        }
+    }
+
+    /**
+     * Walk the robots around the track twice, backwards and then forwards, remembering the last robot seen in each
+     * lane. The first lap of each walk only fills in the robots seen last, such that the neighbours wrap around the
+     * finish line.
+     */
+    private void findNeighbours(Robot[] robots) {
+        java.util.Arrays.fill(lastSeen, -1);
+        for (int k = 2 * robotCount - 1; k >= 0; k--) {
+            int i = (int) order[k % robotCount];
+            if (k < robotCount) {
+                for (int lane = 0; lane < lanes; lane++) {
+                    ahead[i * lanes + lane] = lastSeen[lane] != i ? lastSeen[lane] : -1;
+                }
+            }
+            see(robots[i], i);
+        }
+
+        java.util.Arrays.fill(lastSeen, -1);
+        for (int k = 0; k < 2 * robotCount; k++) {
+            int i = (int) order[k % robotCount];
+            if (k >= robotCount) {
+                for (int lane = 0; lane < lanes; lane++) {
+                    behind[i * lanes + lane] = lastSeen[lane] != i ? lastSeen[lane] : -1;
+                }
+            }
+            see(robots[i], i);
+        }
+    }
+
+    // A robot changing lanes is seen in the lane it comes from as well as in the lane it goes to.
+    private void see(Robot robot, int i) {
+        lastSeen[robot.getLane()] = i;
+        if (robot.isChangingLane()) {
+            int from = robot.getLane() + (robot.getLanePosition() < robot.getLane() ? -1 : 1);
+            if (from >= 0 && from < lanes) {
+                lastSeen[from] = i;
+            }
+        }
+    }
+
+    /**
+     * @return the distance along the track from robot i to robot j ahead of it, in meters.
+     */
+    private double gap(int i, int j) {
+        double gap = keys[j] - keys[i];
+        return gap >= 0 ? gap : gap + lapLength;
+    }
+
+    private double roomAhead(int i, int lane) {
+        int next = ahead[i * lanes + lane];
+        return next >= 0 ? gap(i, next) : lapLength;
+    }
+
+    /**
+     * @return whether robot i can move into the lane without coming within CLEARANCE of any robot in it.
+     */
+    private boolean isClear(int i, int lane) {
+        if (lane < 0 || lane >= lanes) {
+            return false;
+        }
+        int next = ahead[i * lanes + lane];
+        int previous = behind[i * lanes + lane];
+        if ((next >= 0 && gap(i, next) < CLEARANCE) || (previous >= 0 && gap(previous, i) < CLEARANCE)) {
+            return false;
+        }
+        for (int e = 0; e < entryCounts[lane]; e++) {
+            double gap = Math.abs(entries[lane * robotCount + e] - keys[i]);
+            if (Math.min(gap, lapLength - gap) < CLEARANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void moveTo(Robot robot, int i, int lane) {
+        entries[lane * robotCount + entryCounts[lane]++] = keys[i];
+        robot.changeLane(lane);
+    }
+}
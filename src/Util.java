@@ -65,6 +65,7 @@ class Util {
      * two vectors specified by three points. The direction of the normal is determined by the right-hand rule.
      *
      * @param gl OpenGL context
+     * @param state tracker through which the normal is set
      * @param v1x First point's x-coordinate
      * @param v1y First point's y-coordinate
      * @param v1z First point's z-coordinate
@@ -75,7 +76,7 @@ class Util {
      * @param v3y Third point's y-coordinate
      * @param v3z Third point's z-coordinate
      */
-    static void setNormalVertex3(GL2 gl,
+    static void setNormalVertex3(GL2 gl, GLState state,
                                 double v1x, double v1y, double v1z,
                                 double v2x, double v2y, double v2z,
                                 double v3x, double v3y, double v3z) {
@@ -95,13 +96,14 @@ class Util {
         double normalY = vec1z * vec2x - vec1x * vec2z;
         double normalZ = vec1x * vec2y - vec1y * vec2x;
 
-        gl.glNormal3d(normalX, normalY, normalZ);
+        state.normal(gl, normalX, normalY, normalZ);
     }
 
     /**
      * Calculate and set the normal in the OpenGL context for three OpenGl points.
      *
      * @param gl OpenGL context
+     * @param state tracker through which the normal is set
      * @param v1x First point's x-coordinate
      * @param v1y First point's y-coordinate
      * @param v1z First point's z-coordinate
@@ -112,11 +114,11 @@ class Util {
      * @param v3y Third point's y-coordinate
      * @param v3z Third point's z-coordinate
      */
-    static void makeFaceVertex3(GL2 gl,
+    static void makeFaceVertex3(GL2 gl, GLState state,
                                 double v1x, double v1y, double v1z,
                                 double v2x, double v2y, double v2z,
                                 double v3x, double v3y, double v3z) {
-        setNormalVertex3(gl,
+        setNormalVertex3(gl, state,
                 v1x, v1y, v1z,
                 v2x, v2y, v2z,
                 v3x, v3y, v3z);
@@ -130,6 +132,7 @@ class Util {
      * Wrapper to calculate and set the normal in the OpenGL context for four OpenGl points.
      *
      * @param gl OpenGL context
+     * @param state tracker through which the normal is set
      * @param v1x First point's x-coordinate
      * @param v1y First point's y-coordinate
      * @param v1z First point's z-coordinate
@@ -143,12 +146,12 @@ class Util {
      * @param v4y Fourth point's y-coordinate
      * @param v4z Fourth point's z-coordinate
      */
-    static void makeFaceVertex4(GL2 gl,
+    static void makeFaceVertex4(GL2 gl, GLState state,
                                 double v1x, double v1y, double v1z,
                                 double v2x, double v2y, double v2z,
                                 double v3x, double v3y, double v3z,
                                 double v4x, double v4y, double v4z) {
-        makeFaceVertex3(gl,
+        makeFaceVertex3(gl, state,
                 v1x, v1y, v1z,
                 v2x, v2y, v2z,
                 v3x, v3y, v3z);
@@ -169,15 +172,31 @@ class Util {
      * @return Point, as a positional vector, on the curve
      */
     static public Vector getCubicBezierPnt(double t, Vector P0, Vector P1, Vector P2, Vector P3) {
+        return getCubicBezierPnt(t, P0, P1, P2, P3, new Vec3()).toVector();
+    }
 
-        //Calculate the individual contributions of the 3 control points.
-        Vector p0Contribution = P0.scale(Math.pow(1 - t, 3));
-        Vector p1Contribution = P1.scale(3 * t * Math.pow(1 - t, 2));
-        Vector p2Contribution = P2.scale(3 * (1 - t) * Math.pow(t, 2));
-        Vector p3Contribution = P3.scale(Math.pow(t, 3));
-
-        //Add the all the contributions together and return the result.
-        return p0Contribution.add(p1Contribution.add(p2Contribution.add(p3Contribution)));
+    /**
+     * Calculate a point on a cubic Bezier curve, without allocating.
+     *
+     * @param t parameter within [0,1]
+     * @param P0 Positional vector as first control point
+     * @param P1 Positional vector as second control point
+     * @param P2 Positional vector as third control point
+     * @param P3 Positional vector as fourth control point
+     * @param out Vector receiving the point on the curve
+     * @return out
+     */
+    static Vec3 getCubicBezierPnt(double t, Vector P0, Vector P1, Vector P2, Vector P3, Vec3 out) {
+        //Calculate the weights of the individual contributions of the 4 control points.
+        double w0 = Math.pow(1 - t, 3);
+        double w1 = 3 * t * Math.pow(1 - t, 2);
+        double w2 = 3 * (1 - t) * Math.pow(t, 2);
+        double w3 = Math.pow(t, 3);
+
+        //Add the all the contributions together, the last ones first.
+        return out.set(P0.x() * w0 + (P1.x() * w1 + (P2.x() * w2 + P3.x() * w3)),
+                P0.y() * w0 + (P1.y() * w1 + (P2.y() * w2 + P3.y() * w3)),
+                P0.z() * w0 + (P1.z() * w1 + (P2.z() * w2 + P3.z() * w3)));
     }
 
     /**
@@ -191,17 +210,30 @@ class Util {
      * @return Slope of the tangent line
      */
     static public Vector getCubicBezierTng(double t, Vector P0, Vector P1, Vector P2, Vector P3) {
-        //The tangent of the cubic Bezier curve has 3 individual vector contributions, calculate these:
-        Vector contribution1 = P1.subtract(P0);
-        contribution1 = contribution1.scale(3 * Math.pow((1 - t), 2));
-
-        Vector contribution2 = P2.subtract(P1);
-        contribution2 = contribution2.scale(6 * t * (1 - t));
-
-        Vector contribution3 = P3.subtract(P2);
-        contribution3 = contribution3.scale(3 * Math.pow(t, 2));
+        return getCubicBezierTng(t, P0, P1, P2, P3, new Vec3()).toVector();
+    }
 
-        //Add the all the contributions together and return the result.
-        return contribution1.add(contribution2.add(contribution3));
+    /**
+     * Calculate the slope of a tangent line on a cubic Bezier curve, without allocating.
+     *
+     * @param t parameter within [0,1]
+     * @param P0 Positional vector as first control point
+     * @param P1 Positional vector as second control point
+     * @param P2 Positional vector as third control point
+     * @param P3 Positional vector as fourth control point
+     * @param out Vector receiving the slope of the tangent line
+     * @return out
+     */
+    static Vec3 getCubicBezierTng(double t, Vector P0, Vector P1, Vector P2, Vector P3, Vec3 out) {
+        //The tangent of the cubic Bezier curve has 3 individual vector contributions, each a difference of two control
+        // points with a weight:
+        double w1 = 3 * Math.pow((1 - t), 2);
+        double w2 = 6 * t * (1 - t);
+        double w3 = 3 * Math.pow(t, 2);
+
+        //Add the all the contributions together, the last ones first.
+        return out.set((P1.x() - P0.x()) * w1 + ((P2.x() - P1.x()) * w2 + (P3.x() - P2.x()) * w3),
+                (P1.y() - P0.y()) * w1 + ((P2.y() - P1.y()) * w2 + (P3.y() - P2.y()) * w3),
+                (P1.z() - P0.z()) * w1 + ((P2.z() - P1.z()) * w2 + (P3.z() - P2.z()) * w3));
     }
-}
\ No newline at end of file
+}
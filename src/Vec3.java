@@ -0,0 +1,148 @@
+import robotrace.Vector;
+
+/**
+ * A mutable vector of three doubles, for computations that run every tick or every frame.
+ *
+ * Every operation of robotrace.Vector allocates a new vector, which is only free as long as escape analysis removes
+ * it. The operations here overwrite the vector they are called on and return it, such that they can be chained, e.g.
+ * {@code out.cross(Vector.Z, tangent).normalize().scale(offset)}, and a caller keeps its vectors for as long as it
+ * lives. The result may be computed from the vector itself: every operation reads all of its arguments before writing.
+ * Each operation computes the same as the robotrace.Vector operation of the same name, in the same order, so switching
+ * between the two does not change a single bit of a result.
+ * <p/>
+ * The static variants do the same on vectors stored in a double array at an offset, for code that keeps its vectors
+ * in arrays, such as the cameras.
+ */
+final class Vec3 {
+    double x;
+    double y;
+    double z;
+
+    Vec3() {
+    }
+
+    Vec3(double x, double y, double z) {
+        set(x, y, z);
+    }
+
+    Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    Vec3 set(Vec3 v) {
+        return set(v.x, v.y, v.z);
+    }
+
+    Vec3 set(Vector v) {
+        return set(v.x(), v.y(), v.z());
+    }
+
+    Vec3 add(double x, double y, double z) {
+        return set(this.x + x, this.y + y, this.z + z);
+    }
+
+    Vec3 add(Vec3 v) {
+        return add(v.x, v.y, v.z);
+    }
+
+    Vec3 add(Vector v) {
+        return add(v.x(), v.y(), v.z());
+    }
+
+    /**
+     * Add a vector times a factor, as add(v.scale(s)).
+     */
+    Vec3 addScaled(Vec3 v, double s) {
+        return add(v.x * s, v.y * s, v.z * s);
+    }
+
+    Vec3 addScaled(Vector v, double s) {
+        return add(v.x() * s, v.y() * s, v.z() * s);
+    }
+
+    Vec3 subtract(Vec3 v) {
+        return set(x - v.x, y - v.y, z - v.z);
+    }
+
+    Vec3 scale(double s) {
+        return set(x * s, y * s, z * s);
+    }
+
+    double dot(Vec3 v) {
+        return x * v.x + y * v.y + z * v.z;
+    }
+
+    double length() {
+        return Math.sqrt(dot(this));
+    }
+
+    Vec3 normalize() {
+        return scale(1 / length());
+    }
+
+    /**
+     * Set this vector to the cross product a x b.
+     */
+    Vec3 cross(double ax, double ay, double az, Vec3 b) {
+        return set(ay * b.z - az * b.y, az * b.x - ax * b.z, ax * b.y - ay * b.x);
+    }
+
+    Vec3 cross(Vec3 a, Vec3 b) {
+        return cross(a.x, a.y, a.z, b);
+    }
+
+    Vec3 cross(Vector a, Vec3 b) {
+        return cross(a.x(), a.y(), a.z(), b);
+    }
+
+    /**
+     * @return an immutable copy, e.g. to publish in a snapshot.
+     */
+    Vector toVector() {
+        return new Vector(x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + ")";
+    }
+
+    /**
+     * @return the length of the vector at v[i].
+     */
+    static double length(double[] v, int i) {
+        return Math.sqrt(v[i] * v[i] + v[i + 1] * v[i + 1] + v[i + 2] * v[i + 2]);
+    }
+
+    /**
+     * @return the distance between the points at a[i] and b[j].
+     */
+    static double distance(double[] a, int i, double[] b, int j) {
+        double dx = a[i] - b[j];
+        double dy = a[i + 1] - b[j + 1];
+        double dz = a[i + 2] - b[j + 2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Scale the vector at v[i] to unit length.
+     */
+    static void normalize(double[] v, int i) {
+        double s = 1 / length(v, i);
+        v[i] *= s;
+        v[i + 1] *= s;
+        v[i + 2] *= s;
+    }
+
+    /**
+     * Store a + (b - a) w at out[k], the point a fraction w of the way from the point at a[i] to the point at b[j].
+     */
+    static void lerp(double[] a, int i, double[] b, int j, double w, double[] out, int k) {
+        for (int c = 0; c < 3; c++) {
+            out[k + c] = a[i + c] + (b[j + c] - a[i + c]) * w;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import com.jogamp.opengl.util.gl2.GLUT;
+import robotrace.GlobalState;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static javax.media.opengl.GL2.*;
+
+/**
+ * Several views of the same race side by side in one window, e.g. the helicopter, motorcycle and first person views of
+ * different robots on a wall display. The views are given on the command line as a comma separated list of a camera
+ * mode and the number of the robot it follows, e.g. -Drobotrace.views=helicopter:0,motorcycle:1,firstperson:2, and
+ * laid out in a grid filling the window.
+ *
+ * Every view is drawn from the same snapshot and from the same display-lists of the track and the terrain, so what a
+ * view adds is its camera, its culling and its draw calls. The cameras are evaluated and the views culled in parallel
+ * before anything is drawn, one task per view on the common pool, each with its own frustum and result buffers; only
+ * the drawing itself happens on the rendering thread, one view after the other.
+ * <p/>
+ * A view does not animate between modes: it always follows its robot with the same camera.
+ */
+class ViewportManager {
+    // The names of the camera modes on the command line, indexed by the mode of Camera.
+    static final String[] MODE_NAMES = {"default", "helicopter", "motorcycle", "firstperson"};
+
+    /**
+     * One view: its camera, where it is in the window, and what it sees in the frame being drawn.
+     */
+    private static class View {
+        final String name;
+        final Cam cam;
+
+        // The camera vectors and the frustum of the frame being drawn.
+        final double[] eye = new double[3];
+        final double[] center = new double[3];
+        final double[] up = {0, 0, 1};
+        final Frustum frustum = new Frustum();
+        double fovy;
+        double near;
+        double far;
+
+        // Position and size of the view in the window in pixels.
+        int x;
+        int y;
+        int width;
+        int height;
+
+        // The numbers of the visible track pieces and which robots are visible, with room for the culling.
+        int[] visiblePieces = new int[0];
+        int[] stack = new int[0];
+        int piecesVisible;
+        final boolean[] robotVisible;
+        int robotsVisible;
+
+        View(String name, Cam cam, int robots) {
+            this.name = name;
+            this.cam = cam;
+            robotVisible = new boolean[robots];
+        }
+    }
+
+    private final GlobalState gs;
+    private final View[] views;
+
+    // One culling task per view, made once.
+    private final List<Callable<Void>> cullTasks = new ArrayList<Callable<Void>>();
+
+    // What the culling tasks work on in the frame being drawn.
+    private WorldSnapshot world;
+    private RaceTrack raceTrack;
+
+    /**
+     * @param specs per view its camera mode and robot, as "mode:robot"; the robot defaults to the first one
+     * @param robots number of robots in the race
+     */
+    ViewportManager(GlobalState gs, String[] specs, int robots) {
+        this.gs = gs;
+        views = new View[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            views[i] = parse(gs, specs[i].trim(), robots);
+            final View view = views[i];
+            cullTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    cull(view);
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the views given on the command line (-Drobotrace.views=...), or null if there is only the main view.
+     */
+    static ViewportManager fromProperties(GlobalState gs, int robots) {
+        String views = System.getProperty("robotrace.views");
+        if (views == null || views.trim().isEmpty()) {
+            return null;
+        }
+        return new ViewportManager(gs, views.split(","), robots);
+    }
+
+    private static View parse(GlobalState gs, String spec, int robots) {
+        int colon = spec.indexOf(':');
+        String modeName = colon < 0 ? spec : spec.substring(0, colon);
+        int robot = 0;
+        if (colon >= 0) {
+            try {
+                robot = Integer.parseInt(spec.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid robot in view " + spec);
+            }
+            if (robot < 0 || robot >= robots) {
+                throw new IllegalArgumentException("View " + spec + " follows robot " + robot + ", but there are only "
+                        + robots + " robots");
+            }
+        }
+
+        Cam cam;
+        String mode = modeName.trim().toLowerCase();
+        if (mode.equals(MODE_NAMES[Camera.DEFAULT])) {
+            cam = new DefaultCam(gs);
+        } else if (mode.equals(MODE_NAMES[Camera.HELICOPTER])) {
+            cam = new HelicopterRobotCam(gs, robot);
+        } else if (mode.equals(MODE_NAMES[Camera.MOTORCYCLE])) {
+            cam = new MotorcycleRobotCam(gs, robot);
+        } else if (mode.equals(MODE_NAMES[Camera.FIRST_PERSON])) {
+            cam = new FirstPersonRobotCam(gs, robot);
+        } else {
+            throw new IllegalArgumentException("Unknown camera mode in view " + spec + ", expected one of "
+                    + java.util.Arrays.toString(MODE_NAMES));
+        }
+        return new View(colon < 0 ? mode : mode + " " + robot, cam, robots);
+    }
+
+    /**
+     * @return the number of views.
+     */
+    int size() {
+        return views.length;
+    }
+
+    /**
+     * @return the names of the views, in order, followed by the given names of other views.
+     */
+    String[] names(String... others) {
+        String[] names = new String[views.length + others.length];
+        for (int i = 0; i < views.length; i++) {
+            names[i] = views[i].name;
+        }
+        System.arraycopy(others, 0, names, views.length, others.length);
+        return names;
+    }
+
+    /**
+     * Lay the views out over the window and evaluate and cull every view, in parallel. The track of the snapshot must
+     * have been prepared.
+     *
+     * @param width width of the window in pixels
+     * @param height height of the window in pixels
+     */
+    void cull(WorldSnapshot world, RaceTrack raceTrack, int width, int height) {
+        layout(width, height);
+
+        // Make room for the pieces of the track, which only changes size on a track switch.
+        int pieces = raceTrack.getPieceCount();
+        int stackSize = raceTrack.getCullStackSize();
+        for (View view : views) {
+            if (view.visiblePieces.length < pieces) {
+                view.visiblePieces = new int[pieces];
+            }
+            if (view.stack.length < stackSize) {
+                view.stack = new int[stackSize];
+            }
+        }
+
+        this.world = world;
+        this.raceTrack = raceTrack;
+        if (views.length == 1) {
+            cull(views[0]);
+            return;
+        }
+        try {
+            for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(cullTasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while culling the views", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to cull the views", e.getCause());
+        }
+    }
+
+    /**
+     * Place the views in a grid of about as many columns as rows, filled row by row from the top-left.
+     */
+    private void layout(int width, int height) {
+        int columns = (int) Math.ceil(Math.sqrt(views.length));
+        int rows = (views.length + columns - 1) / columns;
+        for (int i = 0; i < views.length; i++) {
+            View view = views[i];
+            int column = i % columns;
+            int row = i / columns;
+            view.x = column * width / columns;
+            view.width = (column + 1) * width / columns - view.x;
+            int top = height - row * height / rows;
+            view.y = height - (row + 1) * height / rows;
+            view.height = top - view.y;
+        }
+    }
+
+    /**
+     * Evaluate the camera of a view and find what it sees. Called on a thread of the pool.
+     */
+    private void cull(View view) {
+        view.cam.evaluate(0, world, view.eye, view.center, view.up);
+
+        // The same projection as the main view, for the shape of this view.
+        double aspect = (double) view.width / Math.max(1, view.height);
+        view.fovy = Math.toDegrees(2 * Math.atan(gs.vWidth / aspect / (2 * gs.vDist)));
+        view.near = 0.1 * gs.vDist;
+        view.far = 10.0 * gs.vDist;
+        view.frustum.set(view.fovy, aspect, view.near, view.far, view.eye, view.center, view.up);
+
+        view.piecesVisible = raceTrack.cull(view.frustum, view.visiblePieces, view.stack);
+        view.robotsVisible = 0;
+        for (int i = 0; i < view.robotVisible.length; i++) {
+            view.robotVisible[i] = Robot.inView(view.frustum, world.robots[i]);
+            if (view.robotVisible[i]) {
+                view.robotsVisible++;
+            }
+        }
+    }
+
+    /**
+     * Draw every view as culled, each in its own part of the window. The depth buffer must have been cleared.
+     */
+    void draw(GL2 gl, GLU glu, GLUT glut, GLState state, RaceTrack raceTrack, Terrain terrain, WorldSnapshot world,
+              Robot[] robots) {
+        for (View view : views) {
+            gl.glViewport(view.x, view.y, view.width, view.height);
+            gl.glMatrixMode(GL_PROJECTION);
+            gl.glLoadIdentity();
+            glu.gluPerspective(view.fovy, (double) view.width / Math.max(1, view.height), view.near, view.far);
+            gl.glMatrixMode(GL_MODELVIEW);
+            gl.glLoadIdentity();
+            glu.gluLookAt(view.eye[0], view.eye[1], view.eye[2], view.center[0], view.center[1], view.center[2],
+                    view.up[0], view.up[1], view.up[2]);
+
+            if (gs.showAxes) {
+                new AxisSystem().draw(gl, glut);
+                state.invalidate();
+            }
+            raceTrack.draw(gl, state, view.visiblePieces, view.piecesVisible);
+            for (int i = 0; i < robots.length; i++) {
+                if (view.robotVisible[i]) {
+                    robots[i].drawAtPos(gl, glut, state, world.robots[i]);
+                }
+            }
+            terrain.draw(gl, state);
+        }
+    }
+
+    /**
+     * Record what every view drew in the last frame, as the first views of the statistics.
+     */
+    void countVisible(FrameStatistics statistics, int pieces, int robots) {
+        for (int i = 0; i < views.length; i++) {
+            statistics.countVisible(i, views[i].piecesVisible, pieces, views[i].robotsVisible, robots);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Immutable state of the world after a simulation tick: everything the renderer needs to draw a frame.
+ *
+ * The simulation publishes a new snapshot after every tick and the renderer picks up the latest one at the start of
+ * a frame. As a snapshot never changes after it is published, the renderer can use it for the whole frame without
+ * locking, while the simulation is already computing the next one.
+ */
+final class WorldSnapshot {
+    // Number of the tick after which this snapshot was taken.
+    final long tick;
+    // The track the robots are running on.
+    final int trackNr;
+    // Position, orientation and limb angles of each robot, in the same order as the robots array.
+    final RobotKinematics[] robots;
+    // Indices of the robots from the leader to the last one, as ranked by the RaceStandings.
+    final int[] ranking;
+
+    WorldSnapshot(long tick, int trackNr, RobotKinematics[] robots, int[] ranking) {
+        this.tick = tick;
+        this.trackNr = trackNr;
+        this.robots = robots;
+        this.ranking = ranking;
+    }
+
+    /**
+     * @return index of the robot leading the race.
+     */
+    int leader() {
+        return ranking[0];
+    }
+
+    /**
+     * @return index of the last robot in the race.
+     */
+    int last() {
+        return ranking[ranking.length - 1];
+    }
+}